@@ -0,0 +1,455 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.unic.maven.plugins.aem.core.VaultPackage.FILTER_XML;
+import static com.unic.maven.plugins.aem.core.VaultPackage.PROPERTIES_XML;
+import static java.util.regex.Pattern.compile;
+import static org.codehaus.plexus.util.IOUtil.copy;
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * A synthetic package containing only the content that changed between the package last deployed to an instance (the base) and
+ * the package to deploy. Changed and added entries are imported with <code>mode="update"</code> filters, i.e. the surrounding
+ * content is left untouched, and the nodes of removed entries are deleted by <code>replace</code> filters without content.
+ * The upload size and the JCR write load are thus proportional to the changes.
+ * <p>
+ * Entries are compared by their CRC and size. A delta cannot be derived if anything but the content and the package properties
+ * changed, e.g. the workspace filter. Neither can it be derived if a changed document view entry (e.g. a <code>.content.xml</code>) no
+ * longer defines a node or property it defined before, as an update import does not remove existing content.
+ * </p>
+ */
+class DeltaPackage {
+    private static final String CONTENT_ROOT = "jcr_root/";
+    private static final String DEFINITION_PREFIX = "META-INF/vault/definition/";
+    private static final String CONTENT_XML = ".content.xml";
+    private static final String DELTA_SUFFIX = "-delta";
+    private static final Pattern NAMESPACE_PREFIX = compile("^_([a-zA-Z0-9]+)_(.+)$");
+    private static final int DOCVIEW_PROBE_LENGTH = 1024;
+
+    private final File file;
+    private final List<String> updatedRoots;
+    private final List<String> removedRoots;
+
+    /**
+     * @param directory the directory holding the cached packages of an instance. Must not be <code>null</code>.
+     * @return the file the last deployed version of the given package is cached in. Independent of the package version,
+     * such that a new version is compared to the previous version. Never <code>null</code>.
+     */
+    @NotNull
+    static File getCachedPackage(@NotNull File directory, @NotNull VaultPackage metadata) {
+        String name = (isEmpty(metadata.getGroup()) ? "" : metadata.getGroup() + '-') + metadata.getName();
+        return new File(new File(directory, "packages"), name.replaceAll("[^a-zA-Z0-9._-]", "-") + ".zip");
+    }
+
+    /**
+     * @return the path the package manager stores the delta package of the given package at. Never <code>null</code>.
+     */
+    @NotNull
+    static String getInstallationPath(@NotNull VaultPackage metadata) {
+        return "/etc/packages/" + (isEmpty(metadata.getGroup()) ? "" : metadata.getGroup() + '/') + metadata.getName() + DELTA_SUFFIX +
+                (isEmpty(metadata.getVersion()) ? "" : '-' + metadata.getVersion()) + ".zip";
+    }
+
+    /**
+     * Creates the delta package of the given package.
+     *
+     * @param base    the package last deployed. Must not be <code>null</code>.
+     * @param current the package to deploy. Must not be <code>null</code>.
+     * @param target  the file to write the delta package to. Must not be <code>null</code>.
+     * @return the delta package, or <code>null</code> if no delta can be derived and the entire package must be deployed.
+     */
+    @Nullable
+    static DeltaPackage create(@NotNull File base, @NotNull File current, @NotNull File target) throws IOException {
+        try (ZipFile baseZip = new ZipFile(base); ZipFile currentZip = new ZipFile(current)) {
+            Map<String, ZipEntry> baseEntries = entries(baseZip);
+            Map<String, ZipEntry> currentEntries = entries(currentZip);
+
+            List<String> changedEntries = new ArrayList<>();
+            for (ZipEntry entry : currentEntries.values()) {
+                ZipEntry baseEntry = baseEntries.get(entry.getName());
+                boolean changed = baseEntry == null || baseEntry.getCrc() != entry.getCrc() || baseEntry.getSize() != entry.getSize();
+                if (!entry.getName().startsWith(CONTENT_ROOT)) {
+                    if (changed && !isPackageProperties(entry.getName())) {
+                        return null;
+                    }
+                    continue;
+                }
+                if (changed) {
+                    if (baseEntry != null && isDocumentViewEntry(currentZip, entry) && isDocumentViewEntry(baseZip, baseEntry) &&
+                            removesContent(baseZip, baseEntry, currentZip, entry)) {
+                        return null;
+                    }
+                    changedEntries.add(entry.getName());
+                }
+            }
+
+            TreeSet<String> currentNodes = new TreeSet<>();
+            for (String name : currentEntries.keySet()) {
+                if (name.startsWith(CONTENT_ROOT)) {
+                    currentNodes.add(toNodePath(currentZip, name));
+                }
+            }
+
+            TreeSet<String> removedNodes = new TreeSet<>();
+            for (String name : baseEntries.keySet()) {
+                if (currentEntries.containsKey(name)) {
+                    continue;
+                }
+                if (!name.startsWith(CONTENT_ROOT)) {
+                    if (!isPackageProperties(name)) {
+                        return null;
+                    }
+                    continue;
+                }
+                String nodePath = toNodePath(baseZip, name);
+                // The node is still defined by another entry, e.g. if a file was replaced by a folder with a .content.xml.
+                if (!isCovered(currentNodes, nodePath)) {
+                    removedNodes.add(nodePath);
+                }
+            }
+
+            TreeSet<String> updatedNodes = new TreeSet<>();
+            for (String name : changedEntries) {
+                updatedNodes.add(toNodePath(currentZip, name));
+            }
+
+            DeltaPackage delta = new DeltaPackage(target, withoutDescendants(updatedNodes), withoutDescendants(removedNodes));
+            if (delta.hasChanges()) {
+                delta.write(currentZip, new HashSet<>(changedEntries));
+            }
+            return delta;
+        }
+    }
+
+    private DeltaPackage(File file, List<String> updatedRoots, List<String> removedRoots) {
+        this.file = file;
+        this.updatedRoots = updatedRoots;
+        this.removedRoots = removedRoots;
+    }
+
+    private void write(@NotNull ZipFile current, @NotNull Set<String> changedEntries) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory + ".");
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry(PROPERTIES_XML));
+            writeProperties(current, out);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry(FILTER_XML));
+            out.write(filterXml().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+
+            Enumeration<? extends ZipEntry> entries = current.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                boolean metadata = name.startsWith("META-INF/") && !isPackageProperties(name) && !name.equals(FILTER_XML);
+                if (entry.isDirectory() || !(metadata || changedEntries.contains(name))) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(name));
+                try (InputStream in = current.getInputStream(entry)) {
+                    copy(in, out);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes the properties of the current package with the name of the delta package, such that the delta package does not replace
+     * the current package in the package manager.
+     */
+    private static void writeProperties(@NotNull ZipFile current, @NotNull OutputStream out) throws IOException {
+        Properties properties = new Properties();
+        ZipEntry entry = current.getEntry(PROPERTIES_XML);
+        try (InputStream in = current.getInputStream(entry)) {
+            properties.loadFromXML(in);
+        }
+        properties.setProperty("name", properties.getProperty("name") + DELTA_SUFFIX);
+        properties.setProperty("description", "Changes of " + properties.getProperty("name") + " relative to the previously deployed version.");
+        properties.storeToXML(new NonClosingOutputStream(out), null, "UTF-8");
+    }
+
+    @NotNull
+    private String filterXml() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<workspaceFilter version=\"1.0\">\n");
+        // Removals precede the updates, as the first filter covering a path applies.
+        for (String root : removedRoots) {
+            xml.append("    <filter root=\"").append(escape(root)).append("\"/>\n");
+        }
+        for (String root : updatedRoots) {
+            xml.append("    <filter root=\"").append(escape(root)).append("\" mode=\"update\"/>\n");
+        }
+        return xml.append("</workspaceFilter>\n").toString();
+    }
+
+    @NotNull
+    private static Map<String, ZipEntry> entries(@NotNull ZipFile zip) {
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> enumeration = zip.entries();
+        while (enumeration.hasMoreElements()) {
+            ZipEntry entry = enumeration.nextElement();
+            if (!entry.isDirectory()) {
+                entries.put(entry.getName(), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the repository path of the node the given entry defines, e.g. <code>/content/site/jcr:content</code>
+     * for <code>jcr_root/content/site/_jcr_content/.content.xml</code>.
+     */
+    @NotNull
+    private static String toNodePath(@NotNull ZipFile zip, @NotNull String entryName) throws IOException {
+        String path = entryName.substring(CONTENT_ROOT.length() - 1);
+        if (path.endsWith('/' + CONTENT_XML)) {
+            path = path.substring(0, path.length() - CONTENT_XML.length() - 1);
+        } else if (path.endsWith(".xml") && isDocumentView(zip, zip.getEntry(entryName))) {
+            path = path.substring(0, path.length() - ".xml".length());
+        }
+
+        StringBuilder nodePath = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            nodePath.append('/').append(toNodeName(segment.endsWith(".dir") ? segment.substring(0, segment.length() - ".dir".length()) : segment));
+        }
+        return nodePath.length() == 0 ? "/" : nodePath.toString();
+    }
+
+    /**
+     * Reverses the escaping of node names in the package file system, e.g. <code>_jcr_content</code> to <code>jcr:content</code>.
+     */
+    @NotNull
+    private static String toNodeName(@NotNull String segment) throws UnsupportedEncodingException {
+        String name = URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+        if (name.startsWith("__")) {
+            return name.substring(1);
+        }
+        Matcher matcher = NAMESPACE_PREFIX.matcher(name);
+        return matcher.matches() ? matcher.group(1) + ':' + matcher.group(2) : name;
+    }
+
+    private static boolean isDocumentViewEntry(@NotNull ZipFile zip, @NotNull ZipEntry entry) throws IOException {
+        return entry.getName().endsWith('/' + CONTENT_XML) || entry.getName().endsWith(".xml") && isDocumentView(zip, entry);
+    }
+
+    /**
+     * @return whether the current version of a document view entry lacks any node or property defined by its base version, or
+     * whether either version cannot be parsed, i.e. whether the changes cannot be imported in <code>update</code> mode.
+     */
+    private static boolean removesContent(@NotNull ZipFile baseZip, @NotNull ZipEntry baseEntry,
+                                          @NotNull ZipFile currentZip, @NotNull ZipEntry currentEntry) throws IOException {
+        try {
+            Set<String> currentContent = readContent(currentZip, currentEntry);
+            for (String item : readContent(baseZip, baseEntry)) {
+                if (!currentContent.contains(item)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (SAXException | ParserConfigurationException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return the relative paths of all nodes and properties defined by the given document view entry, e.g. <code>/jcr:content</code>
+     * and <code>/jcr:content/@jcr:title</code>. Never <code>null</code>.
+     */
+    @NotNull
+    private static Set<String> readContent(@NotNull ZipFile zip, @NotNull ZipEntry entry)
+            throws IOException, SAXException, ParserConfigurationException {
+        // Packages may originate from anywhere, thus neither resolve external DTDs or entities nor allow document type declarations.
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setXIncludeAware(false);
+
+        Set<String> content = new HashSet<>();
+        try (InputStream in = zip.getInputStream(entry)) {
+            factory.newSAXParser().parse(in, new DefaultHandler() {
+                private final StringBuilder path = new StringBuilder();
+                private final Deque<Integer> lengths = new ArrayDeque<>();
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    lengths.push(path.length());
+                    // The root element is the node defined by the entry itself.
+                    if (lengths.size() > 1) {
+                        path.append('/').append(qName);
+                        content.add(path.toString());
+                    }
+                    for (int i = 0; i < attributes.getLength(); ++i) {
+                        String name = attributes.getQName(i);
+                        if (!name.equals("xmlns") && !name.startsWith("xmlns:")) {
+                            content.add(path + "/@" + name);
+                        }
+                    }
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    path.setLength(lengths.pop());
+                }
+            });
+        }
+        return content;
+    }
+
+    private static boolean isDocumentView(@NotNull ZipFile zip, @NotNull ZipEntry entry) throws IOException {
+        byte[] probe = new byte[DOCVIEW_PROBE_LENGTH];
+        int length = 0, read;
+        try (InputStream in = zip.getInputStream(entry)) {
+            while (length < probe.length && (read = in.read(probe, length, probe.length - length)) != -1) {
+                length += read;
+            }
+        }
+        return new String(probe, 0, length, StandardCharsets.UTF_8).contains("<jcr:root");
+    }
+
+    private static boolean isPackageProperties(@NotNull String entryName) {
+        return entryName.equals(PROPERTIES_XML) || entryName.startsWith(DEFINITION_PREFIX);
+    }
+
+    /**
+     * @return whether the given path or any of its descendants is among the given paths.
+     */
+    private static boolean isCovered(@NotNull TreeSet<String> paths, @NotNull String path) {
+        // '0' directly follows '/', i.e. the subset contains exactly the descendants.
+        return paths.contains(path) || !paths.subSet(path + '/', path + '0').isEmpty();
+    }
+
+    /**
+     * @return the given paths without the paths that are descendants of other given paths, as a filter root covers its descendants.
+     */
+    @NotNull
+    private static List<String> withoutDescendants(@NotNull TreeSet<String> paths) {
+        List<String> roots = new ArrayList<>();
+        for (String path : paths) {
+            if (!hasAncestorIn(paths, path)) {
+                roots.add(path);
+            }
+        }
+        return roots;
+    }
+
+    private static boolean hasAncestorIn(@NotNull TreeSet<String> paths, @NotNull String path) {
+        for (int i = path.lastIndexOf('/'); i >= 0; i = path.lastIndexOf('/', i - 1)) {
+            if (paths.contains(i == 0 ? "/" : path.substring(0, i))) {
+                return true;
+            }
+            if (i == 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static String escape(@NotNull String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * @return the delta package file, never <code>null</code>.
+     */
+    @NotNull
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return whether the content of the packages differs, i.e. whether there is anything to deploy.
+     */
+    boolean hasChanges() {
+        return !updatedRoots.isEmpty() || !removedRoots.isEmpty();
+    }
+
+    /**
+     * @return the roots of the updated content, never <code>null</code>.
+     */
+    @NotNull
+    List<String> getUpdatedRoots() {
+        return updatedRoots;
+    }
+
+    /**
+     * @return the roots of the removed content, never <code>null</code>.
+     */
+    @NotNull
+    List<String> getRemovedRoots() {
+        return removedRoots;
+    }
+
+    /**
+     * Prevents {@link Properties#storeToXML(OutputStream, String, String)} from closing the zip stream.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
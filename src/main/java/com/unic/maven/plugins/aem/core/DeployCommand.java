@@ -12,24 +12,55 @@
  */
 package com.unic.maven.plugins.aem.core;
 
+import com.unic.maven.plugins.aem.core.httpactions.AsyncInstallPackageAction;
+import com.unic.maven.plugins.aem.core.httpactions.DeploymentMetrics;
+import com.unic.maven.plugins.aem.core.httpactions.InstallBundleAction;
 import com.unic.maven.plugins.aem.core.httpactions.InstallPackageAction;
+import com.unic.maven.plugins.aem.core.httpactions.ListPackagesAction;
 import com.unic.maven.plugins.aem.core.httpactions.PauseJcrInstallerAction;
+import com.unic.maven.plugins.aem.core.httpactions.ResumableUploadPackageAction;
 import com.unic.maven.plugins.aem.core.httpactions.ResumeJcrInstallerAction;
+import com.unic.maven.plugins.aem.core.httpactions.RetryPolicy;
 import com.unic.maven.plugins.aem.core.httpactions.RetryableHttpAction;
 import com.unic.maven.plugins.aem.core.httpactions.UploadPackageAction;
 import org.apache.commons.logging.Log;
 import org.jetbrains.annotations.NotNull;
-import unirest.Unirest;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import static java.util.concurrent.TimeUnit.MINUTES;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * Command which combines upload and installation of a package with optional JCR Installer pausing.
+ * The packages can be deployed to multiple AEM instances at once. Each instance is deployed to independently
+ * using a bounded number of concurrent deployments, i.e. a failing instance does not abort the deployment to the
+ * other instances. The failures are reported once all deployments have completed.
  *
  * @author Olaf Otto
  */
@@ -56,48 +87,936 @@ public class DeployCommand {
      */
     private final boolean pauseJcrInstaller;
 
-    private final RetryableHttpAction.Configuration configuration;
+    /**
+     * The maximum number of instances deployed to concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * Whether to upload the following packages while the current package is installing.
+     */
+    private boolean pipelined = false;
+
+    /**
+     * Whether to skip packages that are already installed in the same version, see {@link #withSkipUnchangedPackages(boolean)}.
+     */
+    private boolean skipUnchangedPackages = false;
+
+    /**
+     * Whether to install only the changed subpackages of container packages, see {@link #withSkipUnchangedSubpackages(boolean)}.
+     */
+    private boolean skipUnchangedSubpackages = false;
+
+    /**
+     * Holds the deployment state of the target instances, e.g. <code>target/</code>.
+     */
+    private File workingDirectory = null;
+
+    /**
+     * Whether to derive the deployment order from the package dependencies, see {@link #withDependencyResolution(boolean, int)}.
+     */
+    private boolean resolveDependencies = false;
+
+    /**
+     * The maximum number of independent packages deployed concurrently to the same instance.
+     */
+    private int packageParallelism = 1;
+
+    /**
+     * Whether packages are installed without awaiting the response, see {@link #withAsynchronousInstallation(boolean)}.
+     */
+    private boolean asynchronousInstallation = false;
+
+    /**
+     * The maximum duration of an asynchronous installation, see {@link #withAsynchronousInstallation(boolean, int)}.
+     */
+    private int installationTimeoutInMinutes = AsyncInstallPackageAction.DEFAULT_INSTALLATION_TIMEOUT_IN_MINUTES;
+
+    /**
+     * Whether the packages are verified locally before the deployment, see {@link #withPackageVerification(boolean)}.
+     */
+    private boolean verifyPackages = true;
+
+    /**
+     * Whether to refresh the packages after installing an OSGi bundle, see {@link #withBundlePackageRefresh(boolean)}.
+     */
+    private boolean refreshPackagesAfterBundleInstallation = false;
+
+    /**
+     * The chunk size of resumable uploads, or 0 if packages are uploaded at once, see {@link #withResumableUploads(int)}.
+     */
+    private int resumableUploadChunkSize = 0;
+
+    /**
+     * Whether to deploy only the changes relative to the previously deployed package, see {@link #withDeltaPackages(boolean)}.
+     */
+    private boolean deltaPackages = false;
+
+    private final Map<File, LocalPackage> localPackages = new ConcurrentHashMap<>();
+
+    private final Log log;
+
+    private final DeploymentMetrics metrics = new DeploymentMetrics();
+
+    private final List<RetryableHttpAction.Configuration> configurations = new ArrayList<>();
 
     public DeployCommand(@NotNull Log log, @NotNull URI hostUri, @NotNull String aemAdminPassword, int deployRetries,
                          @NotNull List<File> deployFiles,
                          int deploySaveThreshold,
                          boolean deploySubpackages, boolean pauseJcrInstaller) {
-        this.configuration = new RetryableHttpAction.Configuration(hostUri, aemAdminPassword, deployRetries, log);
+        this(log, singletonList(hostUri), aemAdminPassword, deployRetries, deployFiles, deploySaveThreshold,
+                deploySubpackages, pauseJcrInstaller, 1);
+    }
+
+    public DeployCommand(@NotNull Log log, @NotNull List<URI> hostUris, @NotNull String aemAdminPassword, int deployRetries,
+                         @NotNull List<File> deployFiles,
+                         int deploySaveThreshold,
+                         boolean deploySubpackages, boolean pauseJcrInstaller,
+                         int parallelism) {
+        if (hostUris.isEmpty()) {
+            throw new IllegalArgumentException("At least one AEM instance to deploy to must be specified.");
+        }
+        for (URI hostUri : hostUris) {
+            this.configurations.add(new RetryableHttpAction.Configuration(hostUri, aemAdminPassword, deployRetries, log, metrics));
+        }
+        this.log = log;
         this.deployFiles = deployFiles;
         this.deploySaveThreshold = deploySaveThreshold;
         this.deploySubpackages = deploySubpackages;
         this.pauseJcrInstaller = pauseJcrInstaller;
+        this.parallelism = max(1, parallelism);
+    }
+
+    /**
+     * Enables pipelined deployment: Packages are uploaded one after another in the background while the already uploaded
+     * packages are installed, thus overlapping the upload of a package with the installation of its predecessors. The packages
+     * are still installed strictly in the configured order.
+     *
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withPipelinedUploads(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * @param workingDirectory the directory holding the deployment state of the target instances and the deployment timing reports,
+     *                         e.g. <code>target/</code>. Can be <code>null</code>, in which case no deployment state is kept and no reports
+     *                         are written.
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withWorkingDirectory(@Nullable File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+        return this;
+    }
+
+    /**
+     * Enables skipping unchanged packages: The digest of each deployed package is recorded in the {@link #withWorkingDirectory(File) working directory}.
+     * A package is skipped if its digest matches the recorded digest and the package manager of the instance reports the package as installed with
+     * the same size. Requires a working directory.
+     *
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withSkipUnchangedPackages(boolean skipUnchangedPackages) {
+        this.skipUnchangedPackages = skipUnchangedPackages;
+        return this;
+    }
+
+    /**
+     * Enables skipping the unchanged subpackages of changed container packages, in addition to {@link #withSkipUnchangedPackages(boolean) skipping
+     * unchanged packages}: The packages embedded in a container package below <code>/etc/packages</code> are fingerprinted locally. The container
+     * package is installed without its subpackages, followed by the subpackages that changed since they were last deployed or that are not installed
+     * on the instance, in the order they are contained in the container package. Only effective if subpackages are deployed and
+     * unchanged packages are skipped.
+     *
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withSkipUnchangedSubpackages(boolean skipUnchangedSubpackages) {
+        this.skipUnchangedSubpackages = skipUnchangedSubpackages;
+        return this;
+    }
+
+    /**
+     * Enables deriving the deployment order from the dependencies declared by the packages: Packages are installed level by level, such that
+     * each package is installed after all packages it depends on. Dependencies not satisfied by the deployed packages must be installed on the
+     * target instance. The dependencies are verified before any package is uploaded.
+     *
+     * @param packageParallelism the maximum number of independent packages of the same level installed concurrently on an instance.
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withDependencyResolution(boolean resolveDependencies, int packageParallelism) {
+        this.resolveDependencies = resolveDependencies;
+        this.packageParallelism = max(1, packageParallelism);
+        return this;
+    }
+
+    /**
+     * Enables asynchronous installation with the {@link AsyncInstallPackageAction#DEFAULT_INSTALLATION_TIMEOUT_IN_MINUTES default
+     * installation timeout}, see {@link #withAsynchronousInstallation(boolean, int)}.
+     *
+     * @return this command, never null.
+     */
+    @NotNull
+    public DeployCommand withAsynchronousInstallation(boolean asynchronousInstallation) {
+        return withAsynchronousInstallation(asynchronousInstallation, AsyncInstallPackageAction.DEFAULT_INSTALLATION_TIMEOUT_IN_MINUTES);
+    }
+
+    /**
+     * Enables asynchronous installation: The completion of an installation is detected by polling the package state, instead of depending
+     * on a single request for the entire installation. Network errors during an installation are thus tolerated, i.e. they do not re-start the
+     * installation. Errors of individual package entries are not detected.
+     *
+     * @param installationTimeoutInMinutes the maximum duration of an installation.
+     * @return this command, never null.
+     * @see AsyncInstallPackageAction
+     */
+    @NotNull
+    public DeployCommand withAsynchronousInstallation(boolean asynchronousInstallation, int installationTimeoutInMinutes) {
+        if (installationTimeoutInMinutes <= 0) {
+            throw new IllegalArgumentException("The installation timeout must be greater than 0, got " + installationTimeoutInMinutes + ".");
+        }
+        this.asynchronousInstallation = asynchronousInstallation;
+        this.installationTimeoutInMinutes = installationTimeoutInMinutes;
+        return this;
+    }
+
+    /**
+     * Enables or disables the local verification of all files before the deployment. Enabled by default. The files are verified
+     * concurrently, and the deployment fails before any file is uploaded if a file is not a valid package.
+     *
+     * @return this command, never null.
+     * @see PackageVerification
+     */
+    @NotNull
+    public DeployCommand withPackageVerification(boolean verifyPackages) {
+        this.verifyPackages = verifyPackages;
+        return this;
+    }
+
+    /**
+     * OSGi bundles among the deployed files are installed directly via the Felix web console rather than the package manager, and
+     * the deployment only waits for the installed bundle to become active. By default, the packages are not refreshed after a bundle is installed,
+     * i.e. other bundles are not re-wired and restarted.
+     *
+     * @param refreshPackages whether to refresh the packages after installing a bundle.
+     * @return this command, never null.
+     * @see InstallBundleAction
+     */
+    @NotNull
+    public DeployCommand withBundlePackageRefresh(boolean refreshPackages) {
+        this.refreshPackagesAfterBundleInstallation = refreshPackages;
+        return this;
+    }
+
+    /**
+     * Packages larger than the given chunk size are uploaded in chunks to a staging location in the repository. An interrupted upload
+     * is resumed from the last chunk received by AEM instead of being re-sent entirely, which makes the deployment of large packages
+     * robust against unreliable connections.
+     *
+     * @param chunkSize the number of bytes uploaded per request, or 0 to upload all packages at once.
+     * @return this command, never null.
+     * @see ResumableUploadPackageAction
+     */
+    @NotNull
+    public DeployCommand withResumableUploads(int chunkSize) {
+        this.resumableUploadChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Keeps the package last deployed to each instance in the {@link #withWorkingDirectory(File) working directory}. When a new version
+     * of the package is deployed, only the entries that changed, were added or were removed are deployed in a synthetic delta package with
+     * a narrowed filter. The upload size and the JCR write load are thus proportional to the changes. The entire package is deployed if
+     * no previous version was deployed to the instance, or if anything but the content changed, e.g. the filter.
+     *
+     * @param deltaPackages whether to deploy delta packages.
+     * @return this command, never null.
+     * @see DeltaPackage
+     */
+    @NotNull
+    public DeployCommand withDeltaPackages(boolean deltaPackages) {
+        this.deltaPackages = deltaPackages;
+        return this;
+    }
+
+    /**
+     * @param retryPolicy how the actions on all instances re-try failures. Must not be null.
+     * @return this command, never null.
+     * @see RetryPolicy
+     */
+    @NotNull
+    public DeployCommand withRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+        for (RetryableHttpAction.Configuration configuration : this.configurations) {
+            configuration.withRetryPolicy(retryPolicy);
+        }
+        return this;
+    }
+
+    /**
+     * @param instance    the instance the policy applies to. Must not be null.
+     * @param actionType  the type of the actions the policy applies to, or null for all actions. Actions without a policy for their type
+     *                    use the policy of the instance.
+     * @param retryPolicy must not be null.
+     * @return this command, never null.
+     * @throws IllegalArgumentException if the instance is not deployed to by this command.
+     */
+    @NotNull
+    public DeployCommand withRetryPolicy(@NotNull URI instance, @Nullable Class<? extends RetryableHttpAction> actionType,
+                                         @NotNull RetryPolicy retryPolicy) {
+        for (RetryableHttpAction.Configuration configuration : this.configurations) {
+            if (configuration.getServerUri().equals(instance)) {
+                if (actionType == null) {
+                    configuration.withRetryPolicy(retryPolicy);
+                } else {
+                    configuration.withRetryPolicy(actionType, retryPolicy);
+                }
+                return this;
+            }
+        }
+        throw new IllegalArgumentException("Unable to configure the retry policy of " + instance + ", the instance is not deployed to.");
     }
 
+    /**
+     * Executes the deployment. If a {@link #withWorkingDirectory(File) working directory} is set, the timings of all deployment phases
+     * are written to a JSON and CSV report in the working directory, regardless of whether the deployment succeeds.
+     *
+     * @throws DeployFailureException if a file is not a valid package, the deployment order cannot be determined or the deployment
+     *                                to at least one instance failed.
+     */
     public void execute() {
-        // Connection shall be established within two seconds, but an installation may take up to 10 minutes,
-        // for instance large content packages.
-        Unirest.config().connectTimeout((int) SECONDS.toMillis(2)).socketTimeout((int) MINUTES.toMillis(10));
+        long startedAt = currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            doExecute();
+            succeeded = true;
+        } finally {
+            writeReport(startedAt, succeeded);
+        }
+    }
 
-        if (pauseJcrInstaller) {
-            new PauseJcrInstallerAction(configuration).run();
+    private void writeReport(long startedAt, boolean succeeded) {
+        if (workingDirectory == null) {
+            return;
+        }
+        try {
+            new DeploymentReport(startedAt, currentTimeMillis() - startedAt, succeeded, metrics).writeTo(workingDirectory);
+            log.debug("Wrote the deployment timing report to " + new File(workingDirectory, DeploymentReport.JSON_REPORT_NAME) + ".");
+        } catch (IOException e) {
+            log.warn("Unable to write the deployment timing report to " + workingDirectory + ": " + e.getMessage());
+        }
+    }
+
+    private void doExecute() {
+        if (verifyPackages) {
+            verifyPackages();
+        }
+
+        DeploymentSchedule schedule = getSchedule();
+
+        if (configurations.size() == 1) {
+            deployTo(configurations.get(0), schedule);
+            return;
         }
 
+        log.info("Deploying " + deployFiles.size() + " file(s) to " + configurations.size() + " instances, " +
+                "using up to " + min(parallelism, configurations.size()) + " concurrent deployments...");
+
+        ExecutorService executor = newFixedThreadPool(min(parallelism, configurations.size()));
+        Map<URI, Future<?>> deployments = new LinkedHashMap<>();
         try {
+            for (RetryableHttpAction.Configuration configuration : configurations) {
+                deployments.put(configuration.getServerUri(), executor.submit(() -> deployTo(configuration, schedule)));
+            }
+            awaitAll(deployments);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifies all files concurrently. The metadata of valid packages is retained for the subsequent deployment.
+     *
+     * @throws DeployFailureException if at least one file is not a valid package.
+     */
+    private void verifyPackages() {
+        long start = currentTimeMillis();
+        ExecutorService executor = newFixedThreadPool(max(1, min(Runtime.getRuntime().availableProcessors(), deployFiles.size())));
+        List<PackageVerification> verifications = new ArrayList<>(deployFiles.size());
+        try {
+            List<Future<PackageVerification>> futures = new ArrayList<>(deployFiles.size());
             for (File file : deployFiles) {
-                String packagePath = new UploadPackageAction(configuration, file).run();
-                new InstallPackageAction(configuration, file, packagePath, deploySubpackages, deploySaveThreshold).run();
+                futures.add(executor.submit(() -> PackageVerification.verify(file)));
+            }
+            for (Future<PackageVerification> future : futures) {
+                verifications.add(await(future));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        StringBuilder problems = new StringBuilder();
+        for (PackageVerification verification : verifications) {
+            if (verification.isValid()) {
+                localPackages.putIfAbsent(verification.getFile(),
+                        new LocalPackage(verification.getFile(), verification.getMetadata(), verification.getBundle()));
+                continue;
+            }
+            for (String problem : verification.getProblems()) {
+                problems.append("\n").append(verification.getFile()).append(": ").append(problem);
+            }
+        }
+        if (problems.length() != 0) {
+            throw new DeployFailureException("Unable to deploy - the following files are not valid packages:" + problems);
+        }
+
+        log.info("Verified " + deployFiles.size() + " package(s) in " + (currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Waits for all deployments to complete, regardless of whether some of them fail, and reports
+     * the aggregated result.
+     *
+     * @throws DeployFailureException if the deployment to at least one instance failed.
+     */
+    private void awaitAll(@NotNull Map<URI, Future<?>> deployments) {
+        Map<URI, Throwable> failures = new LinkedHashMap<>();
+        for (Map.Entry<URI, Future<?>> deployment : deployments.entrySet()) {
+            try {
+                deployment.getValue().get();
+            } catch (ExecutionException e) {
+                failures.put(deployment.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.put(deployment.getKey(), e);
+            }
+        }
+
+        if (failures.isEmpty()) {
+            log.info("Successfully deployed to all " + deployments.size() + " instances.");
+            return;
+        }
+
+        StringBuilder message = new StringBuilder(1024)
+                .append("Deployment failed on ").append(failures.size()).append(" of ").append(deployments.size())
+                .append(" instances:\n");
+        for (Map.Entry<URI, Throwable> failure : failures.entrySet()) {
+            message.append(failure.getKey()).append(": ").append(getRootCause(failure.getValue()).getMessage()).append("\n");
+        }
+        DeployFailureException exception = new DeployFailureException(message.toString());
+        failures.values().forEach(exception::addSuppressed);
+        throw exception;
+    }
+
+    /**
+     * @return the deployment schedule of the {@link #deployFiles}, never null.
+     * @throws DeployFailureException if the package dependencies form a cycle.
+     */
+    @NotNull
+    private DeploymentSchedule getSchedule() {
+        if (!resolveDependencies) {
+            return DeploymentSchedule.inOrder(deployFiles);
+        }
+
+        DeploymentSchedule schedule = DeploymentSchedule.byDependencies(deployFiles, file -> getLocalPackage(file).metadata);
+        List<List<File>> levels = schedule.getLevels();
+        log.info("Deploying " + deployFiles.size() + " file(s) in " + levels.size() + " level(s) according to the package dependencies:");
+        for (int i = 0; i < levels.size(); ++i) {
+            log.info((i + 1) + ": " + levels.get(i));
+        }
+        return schedule;
+    }
+
+    private void deployTo(@NotNull RetryableHttpAction.Configuration configuration, @NotNull DeploymentSchedule schedule) {
+        DeploymentRecord record = loadDeploymentRecord(configuration);
+        Map<String, ListPackagesAction.InstalledPackage> installedPackages =
+                record != null || resolveDependencies || deltaPackages ? new ListPackagesAction(configuration).run() : null;
+
+        if (resolveDependencies) {
+            verifyExternalDependencies(configuration, schedule, installedPackages);
+        }
+
+        if (record != null) {
+            schedule = schedule.restrictTo(withoutUnchangedPackages(configuration, record, installedPackages));
+            if (schedule.getLevels().isEmpty()) {
+                return;
             }
+        }
+
+        if (pauseJcrInstaller) {
+            new PauseJcrInstallerAction(configuration).run();
+        }
+
+        try {
+            deploy(configuration, schedule, record, installedPackages);
         } catch (Exception e) {
             try {
-                resumeJcrInstaller();
+                resumeJcrInstaller(configuration);
             } catch (Exception resumeError) {
-                this.configuration.getLog().error("In addition to the failed deployment, resuming the JCR installer failed as well: " + e.getMessage(), e);
+                configuration.getLog().error("In addition to the failed deployment, resuming the JCR installer failed as well: " + e.getMessage(), e);
             }
             throw e;
         }
 
-        resumeJcrInstaller();
+        resumeJcrInstaller(configuration);
+    }
+
+    /**
+     * @throws DeployFailureException if a dependency is neither satisfied by the deployed packages nor by the packages installed on the instance.
+     */
+    private void verifyExternalDependencies(@NotNull RetryableHttpAction.Configuration configuration, @NotNull DeploymentSchedule schedule,
+                                            @NotNull Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        List<String> missing = new ArrayList<>();
+        for (DeploymentSchedule.Dependency dependency : schedule.getExternalDependencies()) {
+            boolean installed = false;
+            for (ListPackagesAction.InstalledPackage installedPackage : installedPackages.values()) {
+                if (installedPackage.isInstalled() && dependency.matches(installedPackage.getGroup(), installedPackage.getName())) {
+                    installed = true;
+                    break;
+                }
+            }
+            if (!installed) {
+                missing.add(dependency + " (required by " + dependency.getDependent() + ")");
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new DeployFailureException("Unable to deploy to " + configuration.getServerUri() + " - the following package dependencies are " +
+                    "neither deployed nor installed: " + String.join(", ", missing));
+        }
+    }
+
+    /**
+     * Deploys the files level by level. The files of a level are deployed concurrently, up to the {@link #packageParallelism}. If
+     * {@link #pipelined pipelining} is enabled, all files are uploaded sequentially by a dedicated upload thread and each file is installed as soon as
+     * its upload has completed.
+     */
+    private void deploy(@NotNull RetryableHttpAction.Configuration configuration, @NotNull DeploymentSchedule schedule,
+                        @Nullable DeploymentRecord record, @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        List<File> files = schedule.getFiles();
+        ExecutorService uploader = pipelined && files.size() > 1 ? newSingleThreadExecutor() : null;
+        int installerThreads = min(packageParallelism, schedule.getMaximumLevelSize());
+        ExecutorService installer = installerThreads > 1 ? newFixedThreadPool(installerThreads) : null;
+
+        try {
+            Map<File, Future<String>> uploads = new HashMap<>();
+            if (uploader != null) {
+                for (File file : files) {
+                    // Bundles are installed directly and thus not uploaded to the package manager, and delta packages are only created on demand.
+                    if (getLocalPackage(file).bundle == null && getDeltaBase(configuration, file, installedPackages) == null) {
+                        uploads.put(file, uploader.submit(() -> upload(configuration, file)));
+                    }
+                }
+            }
+
+            for (List<File> level : schedule.getLevels()) {
+                if (installer == null || level.size() == 1) {
+                    for (File file : level) {
+                        deploy(configuration, file, uploads.get(file), record, installedPackages);
+                    }
+                    continue;
+                }
+
+                CompletionService<Object> installations = new ExecutorCompletionService<>(installer);
+                for (File file : level) {
+                    installations.submit(() -> deploy(configuration, file, uploads.get(file), record, installedPackages), null);
+                }
+                for (int i = 0; i < level.size(); ++i) {
+                    // Fail fast: The first failing installation aborts the deployment.
+                    await(take(installations));
+                }
+            }
+        } finally {
+            // Do not continue uploading or installing if an installation failed.
+            if (uploader != null) {
+                uploader.shutdownNow();
+            }
+            if (installer != null) {
+                installer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Installs the given file, uploading it first unless it was already uploaded by the given upload. OSGi bundles are installed directly
+     * via the web console.
+     */
+    private void deploy(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file, @Nullable Future<String> upload,
+                        @Nullable DeploymentRecord record, @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        OsgiBundle bundle = getLocalPackage(file).bundle;
+        if (bundle != null) {
+            new InstallBundleAction(configuration, file, bundle.getSymbolicName(), bundle.getVersion(), refreshPackagesAfterBundleInstallation).run();
+            return;
+        }
+        if (upload == null && deployDelta(configuration, file, record, installedPackages)) {
+            return;
+        }
+        String packagePath = upload == null ? upload(configuration, file) : await(upload);
+        install(configuration, file, packagePath, record, installedPackages);
+        cache(configuration, file);
+    }
+
+    /**
+     * Deploys the changes of the given package relative to the package previously deployed to the instance, if any.
+     *
+     * @return whether the changes were deployed, i.e. <code>false</code> if the entire package must be deployed.
+     */
+    private boolean deployDelta(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file, @Nullable DeploymentRecord record,
+                                @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        File base = getDeltaBase(configuration, file, installedPackages);
+        if (base == null) {
+            return false;
+        }
+
+        LocalPackage localPackage = getLocalPackage(file);
+        File directory = DeploymentRecord.getInstanceDirectory(workingDirectory, configuration.getServerUri());
+        DeltaPackage delta;
+        try {
+            delta = DeltaPackage.create(base, file, new File(new File(directory, "delta"), file.getName()));
+        } catch (IOException e) {
+            configuration.getLog().warn("Unable to create the delta package of " + file + ", deploying the entire package: " + e.getMessage());
+            return false;
+        }
+        if (delta == null) {
+            configuration.getLog().info("Deploying the entire package " + file + ", as more than its content changed since it was last deployed to " +
+                    configuration.getServerUri() + ".");
+            return false;
+        }
+
+        long start = currentTimeMillis();
+        String installationPath;
+        long installedSize;
+        if (delta.hasChanges()) {
+            configuration.getLog().info("Deploying the changes of " + file + " since it was last deployed to " + configuration.getServerUri() + ": " +
+                    delta.getUpdatedRoots().size() + " updated and " + delta.getRemovedRoots().size() + " removed path(s), " +
+                    formatByteCount(delta.getFile().length()) + " instead of " + formatByteCount(file.length()) + ".");
+            String packagePath = upload(configuration, delta.getFile());
+            install(configuration, delta.getFile().toString(), packagePath, deploySubpackages);
+            installationPath = DeltaPackage.getInstallationPath(localPackage.metadata);
+            installedSize = delta.getFile().length();
+            cache(configuration, file);
+        } else {
+            configuration.getLog().info("The content of " + file + " did not change since it was last deployed to " + configuration.getServerUri() + ".");
+            // Nothing is installed, i.e. the base remains the package installed on the instance and thus the base of the next delta package.
+            installationPath = getInstallationPath(installedPackages, getLocalPackage(base).metadata);
+            installedSize = installedPackages.get(installationPath).getSize();
+        }
+
+        if (record != null) {
+            record(configuration, record, localPackage.metadata.getInstallationPath(),
+                    new DeploymentRecord.Entry(localPackage.getDigest(), installedSize, currentTimeMillis() - start, installationPath));
+        }
+        return true;
+    }
+
+    /**
+     * @return the package previously deployed to the instance, if {@link #deltaPackages delta packages} are enabled and the previous package
+     * is still installed on the instance, or <code>null</code>.
+     */
+    @Nullable
+    private File getDeltaBase(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file,
+                              @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        VaultPackage metadata = getLocalPackage(file).metadata;
+        if (!deltaPackages || workingDirectory == null || installedPackages == null || metadata == null) {
+            return null;
+        }
+        File base = DeltaPackage.getCachedPackage(DeploymentRecord.getInstanceDirectory(workingDirectory, configuration.getServerUri()), metadata);
+        if (!base.isFile()) {
+            return null;
+        }
+        // The cached package does not reflect the state of the instance if the package was removed, e.g. since the instance was re-created.
+        VaultPackage baseMetadata = getLocalPackage(base).metadata;
+        if (baseMetadata == null || getInstallationPath(installedPackages, baseMetadata) == null) {
+            return null;
+        }
+        return base;
+    }
+
+    /**
+     * @return the path of the given package if it is installed on the instance, the path of its delta package if only the delta package is
+     * installed, or <code>null</code> if neither is installed.
+     */
+    @Nullable
+    private static String getInstallationPath(@NotNull Map<String, ListPackagesAction.InstalledPackage> installedPackages,
+                                              @NotNull VaultPackage metadata) {
+        if (isInstalled(installedPackages, metadata.getInstallationPath())) {
+            return metadata.getInstallationPath();
+        }
+        String deltaPath = DeltaPackage.getInstallationPath(metadata);
+        return isInstalled(installedPackages, deltaPath) ? deltaPath : null;
+    }
+
+    private static boolean isInstalled(@NotNull Map<String, ListPackagesAction.InstalledPackage> installedPackages, @NotNull String path) {
+        ListPackagesAction.InstalledPackage installed = installedPackages.get(path);
+        return installed != null && installed.isInstalled();
+    }
+
+    /**
+     * Keeps the given package as the base of the next {@link #deltaPackages delta package}.
+     */
+    private void cache(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file) {
+        VaultPackage metadata = getLocalPackage(file).metadata;
+        if (!deltaPackages || workingDirectory == null || metadata == null) {
+            return;
+        }
+        File cached = DeltaPackage.getCachedPackage(DeploymentRecord.getInstanceDirectory(workingDirectory, configuration.getServerUri()), metadata);
+        File temporary = new File(cached.getParentFile(), cached.getName() + ".tmp");
+        try {
+            Files.createDirectories(cached.getParentFile().toPath());
+            Files.copy(file.toPath(), temporary.toPath(), REPLACE_EXISTING);
+            Files.move(temporary.toPath(), cached.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+            // The cached file replaces the previous version, thus its metadata must be re-read.
+            localPackages.remove(cached);
+        } catch (IOException e) {
+            configuration.getLog().warn("Unable to keep " + file + " for the next delta deployment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the path of the uploaded package, never null.
+     */
+    @NotNull
+    private String upload(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file) {
+        LocalPackage localPackage = getLocalPackage(file);
+        // Resuming requires the package path, which is only known for valid packages.
+        if (resumableUploadChunkSize > 0 && file.length() > resumableUploadChunkSize && localPackage.metadata != null) {
+            return new ResumableUploadPackageAction(configuration, file, localPackage.metadata.getInstallationPath(),
+                    localPackage.getDigest(), resumableUploadChunkSize).run();
+        }
+        return new UploadPackageAction(configuration, file).run();
+    }
+
+    private void install(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file, @NotNull String packagePath,
+                         @Nullable DeploymentRecord record, @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        List<Subpackage> changedSubpackages = getChangedSubpackages(configuration, file, record, installedPackages);
+
+        long start = currentTimeMillis();
+        // Either all subpackages are installed along with the container package, or the changed subpackages are installed individually.
+        install(configuration, file.toString(), packagePath, deploySubpackages && changedSubpackages == null);
+        if (changedSubpackages != null) {
+            for (Subpackage subpackage : changedSubpackages) {
+                long subpackageStart = currentTimeMillis();
+                install(configuration, subpackage.getPath() + " from " + file.getName(), subpackage.getPath(), true);
+                record(configuration, record, subpackage.getPath(),
+                        new DeploymentRecord.Entry(subpackage.getDigest(), subpackage.getSize(), currentTimeMillis() - subpackageStart));
+            }
+        }
+        long installationTime = currentTimeMillis() - start;
+
+        LocalPackage localPackage = record == null ? null : getLocalPackage(file);
+        if (localPackage == null || localPackage.metadata == null) {
+            return;
+        }
+        record(configuration, record, localPackage.metadata.getInstallationPath(),
+                new DeploymentRecord.Entry(localPackage.getDigest(), file.length(), installationTime));
+    }
+
+    private void install(@NotNull RetryableHttpAction.Configuration configuration, @NotNull String name, @NotNull String packagePath, boolean recursive) {
+        if (asynchronousInstallation) {
+            new AsyncInstallPackageAction(configuration, name, packagePath, recursive, deploySaveThreshold, installationTimeoutInMinutes).run();
+        } else {
+            new InstallPackageAction(configuration, name, packagePath, recursive, deploySaveThreshold).run();
+        }
+    }
+
+    private static void record(@NotNull RetryableHttpAction.Configuration configuration, @NotNull DeploymentRecord record, @NotNull String path,
+                               @NotNull DeploymentRecord.Entry entry) {
+        try {
+            record.put(path, entry);
+        } catch (IOException e) {
+            configuration.getLog().warn("Unable to record the deployment of " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the subpackages of the given container package that changed since they were last deployed or that are not installed on the instance,
+     * or <code>null</code> if the package shall be installed along with all of its subpackages.
+     */
+    @Nullable
+    private List<Subpackage> getChangedSubpackages(@NotNull RetryableHttpAction.Configuration configuration, @NotNull File file,
+                                                   @Nullable DeploymentRecord record,
+                                                   @Nullable Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        if (!skipUnchangedSubpackages || !deploySubpackages || record == null || installedPackages == null) {
+            return null;
+        }
+        List<Subpackage> subpackages = getLocalPackage(file).getSubpackages();
+        if (subpackages.isEmpty()) {
+            return null;
+        }
+
+        List<Subpackage> changedSubpackages = new ArrayList<>(subpackages.size());
+        for (Subpackage subpackage : subpackages) {
+            DeploymentRecord.Entry deployed = record.get(subpackage.getPath());
+            ListPackagesAction.InstalledPackage installed = installedPackages.get(subpackage.getPath());
+            if (deployed == null || !deployed.getDigest().equals(subpackage.getDigest()) ||
+                    installed == null || !installed.isInstalled() ||
+                    installed.getSize() != -1 && installed.getSize() != subpackage.getSize()) {
+                changedSubpackages.add(subpackage);
+            }
+        }
+        configuration.getLog().info("Installing " + changedSubpackages.size() + " of " + subpackages.size() + " subpackage(s) of " + file +
+                " on " + configuration.getServerUri() + ", skipping the unchanged subpackages.");
+        return changedSubpackages;
+    }
+
+    /**
+     * @return the deployment record of the instance if {@link #skipUnchangedPackages unchanged packages shall be skipped}, or <code>null</code>.
+     */
+    @Nullable
+    private DeploymentRecord loadDeploymentRecord(@NotNull RetryableHttpAction.Configuration configuration) {
+        if (!skipUnchangedPackages) {
+            return null;
+        }
+        if (workingDirectory == null) {
+            configuration.getLog().warn("Unable to skip unchanged packages: No working directory is available.");
+            return null;
+        }
+        try {
+            return DeploymentRecord.load(workingDirectory, configuration.getServerUri());
+        } catch (IOException e) {
+            configuration.getLog().warn("Unable to read the deployment record of " + configuration.getServerUri() + ", deploying all packages: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the files that have changed since they were last deployed to the instance, or that are not installed on the instance. Never null.
+     */
+    @NotNull
+    private List<File> withoutUnchangedPackages(@NotNull RetryableHttpAction.Configuration configuration, @NotNull DeploymentRecord record,
+                                                @NotNull Map<String, ListPackagesAction.InstalledPackage> installedPackages) {
+        List<File> changedFiles = new ArrayList<>(deployFiles.size());
+        long savedBytes = 0, savedInstallationTime = 0;
+
+        for (File file : deployFiles) {
+            LocalPackage localPackage = getLocalPackage(file);
+            if (localPackage.metadata == null) {
+                changedFiles.add(file);
+                continue;
+            }
+
+            DeploymentRecord.Entry deployed = record.get(localPackage.metadata.getInstallationPath());
+            // The package may have been deployed as a delta package, in which case only the delta package is installed.
+            ListPackagesAction.InstalledPackage installed = deployed == null ? null :
+                    installedPackages.get(deployed.getInstallationPath() == null ? localPackage.metadata.getInstallationPath() : deployed.getInstallationPath());
+
+            if (deployed != null && deployed.getDigest().equals(localPackage.getDigest()) &&
+                    installed != null && installed.isInstalled() &&
+                    (installed.getSize() == -1 || deployed.getSize() == -1 || installed.getSize() == deployed.getSize())) {
+                configuration.getLog().info("Skipping " + file + ", the package is already installed on " + configuration.getServerUri() + ".");
+                savedBytes += file.length();
+                savedInstallationTime += deployed.getInstallationTimeInMillis();
+            } else {
+                changedFiles.add(file);
+            }
+        }
+
+        int skipped = deployFiles.size() - changedFiles.size();
+        if (skipped != 0) {
+            configuration.getLog().info("Skipped " + skipped + " of " + deployFiles.size() + " unchanged package(s) on " + configuration.getServerUri() +
+                    ", saving " + formatByteCount(savedBytes) + " of uploads and about " +
+                    MILLISECONDS.toSeconds(savedInstallationTime) + " seconds of installation time.");
+        }
+        return changedFiles;
+    }
+
+    /**
+     * @return the package metadata of the given file, read once per file. Never null.
+     */
+    @NotNull
+    private LocalPackage getLocalPackage(@NotNull File file) {
+        return localPackages.computeIfAbsent(file, f -> {
+            try {
+                VaultPackage metadata = VaultPackage.read(f);
+                return new LocalPackage(f, metadata, metadata == null ? OsgiBundle.read(f) : null);
+            } catch (IOException e) {
+                // Not a zip file and thus not a CRX package. The package manager will report a meaningful error.
+                return new LocalPackage(f, null, null);
+            }
+        });
+    }
+
+    @NotNull
+    private static <T> Future<T> take(@NotNull CompletionService<T> completionService) {
+        try {
+            return completionService.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a package installation to complete.", e);
+        }
+    }
+
+    /**
+     * @return the result of the given future, re-throwing runtime exceptions thrown by the underlying task as-is.
+     */
+    private static <T> T await(@NotNull Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a package deployment to complete.", e);
+        }
     }
 
-    private void resumeJcrInstaller() {
+    private void resumeJcrInstaller(@NotNull RetryableHttpAction.Configuration configuration) {
         if (pauseJcrInstaller) {
             new ResumeJcrInstallerAction(configuration).run();
         }
     }
+
+    /**
+     * A file to deploy along with its package metadata (<code>null</code> if the file is not a CRX package), its bundle
+     * identity (<code>null</code> if the file is not an OSGi bundle) and content digest.
+     */
+    private static class LocalPackage {
+        private final File file;
+        private final VaultPackage metadata;
+        private final OsgiBundle bundle;
+        private String digest = null;
+        private List<Subpackage> subpackages = null;
+
+        private LocalPackage(@NotNull File file, @Nullable VaultPackage metadata, @Nullable OsgiBundle bundle) {
+            this.file = file;
+            this.metadata = metadata;
+            this.bundle = bundle;
+        }
+
+        /**
+         * @return the digest of the file, computed on first access. Never null.
+         */
+        @NotNull
+        private synchronized String getDigest() {
+            if (digest == null) {
+                try {
+                    digest = VaultPackage.digest(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read the package " + file + ": " + e.getMessage(), e);
+                }
+            }
+            return digest;
+        }
+
+        /**
+         * @return the packages embedded in this package, read on first access. Never null.
+         */
+        @NotNull
+        private synchronized List<Subpackage> getSubpackages() {
+            if (subpackages == null) {
+                try {
+                    subpackages = metadata == null ? new ArrayList<>() : Subpackage.read(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read the subpackages of " + file + ": " + e.getMessage(), e);
+                }
+            }
+            return subpackages;
+        }
+    }
 }
@@ -0,0 +1,24 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+/**
+ * Signals that a {@link DeployCommand} failed, e.g. since the package dependencies cannot be satisfied or since the deployment
+ * to at least one of its target instances failed. In the latter case, the individual failures are available as
+ * {@link #getSuppressed() suppressed exceptions}.
+ */
+public class DeployFailureException extends RuntimeException {
+    DeployFailureException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Properties;
+
+/**
+ * Local record of the packages deployed to a single AEM instance, stored in the working directory
+ * (e.g. <code>target/aem-deploy/localhost-4502/</code>). For each package path, the record contains the digest of the deployed
+ * package binary, the size of the package installed on the instance and the time it took to install it. If the package was not installed
+ * at its own path, e.g. since only a {@link DeltaPackage delta package} was installed, the record contains the path of the installed package.
+ */
+class DeploymentRecord {
+    private static final String RECORD_FILE_NAME = "deployed-packages.properties";
+
+    private final File directory;
+    private final Properties entries = new Properties();
+
+    /**
+     * @param workingDirectory the directory containing the deployment records of all instances, e.g. <code>target/</code>. Must not be <code>null</code>.
+     * @param serverUri        the instance the record belongs to. Must not be <code>null</code>.
+     * @return never <code>null</code>.
+     */
+    @NotNull
+    static DeploymentRecord load(@NotNull File workingDirectory, @NotNull URI serverUri) throws IOException {
+        DeploymentRecord record = new DeploymentRecord(getInstanceDirectory(workingDirectory, serverUri));
+        File recordFile = record.getRecordFile();
+        if (recordFile.exists()) {
+            try (InputStream in = new FileInputStream(recordFile)) {
+                record.entries.load(in);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the directory holding the deployment state of the given instance, e.g. <code>target/aem-deploy/localhost-4502</code>. Never <code>null</code>.
+     */
+    @NotNull
+    static File getInstanceDirectory(@NotNull File workingDirectory, @NotNull URI serverUri) {
+        String instance = serverUri.getHost() + (serverUri.getPort() == -1 ? "" : "-" + serverUri.getPort()) +
+                (serverUri.getPath() == null ? "" : serverUri.getPath());
+        return new File(new File(workingDirectory, "aem-deploy"), instance.replaceAll("[^a-zA-Z0-9._-]", "-"));
+    }
+
+    private DeploymentRecord(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the recorded deployment of the package with the given path, or <code>null</code> if the package was not deployed before.
+     */
+    @Nullable
+    synchronized Entry get(@NotNull String packagePath) {
+        String value = entries.getProperty(packagePath);
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(";", 4);
+        if (parts.length < 3) {
+            return null;
+        }
+        try {
+            return new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts.length == 4 ? parts[3] : null);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the deployment of a package and immediately stores the record, such that a subsequently failing deployment
+     * does not discard the record of the packages deployed before.
+     */
+    synchronized void put(@NotNull String packagePath, @NotNull Entry entry) throws IOException {
+        entries.setProperty(packagePath, entry.getDigest() + ';' + entry.getSize() + ';' + entry.getInstallationTimeInMillis() +
+                (entry.getInstallationPath() == null ? "" : ';' + entry.getInstallationPath()));
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory + ".");
+        }
+        try (OutputStream out = new FileOutputStream(getRecordFile())) {
+            entries.store(out, "Packages deployed by the AEM maven plugin");
+        }
+    }
+
+    @NotNull
+    File getDirectory() {
+        return directory;
+    }
+
+    @NotNull
+    private File getRecordFile() {
+        return new File(directory, RECORD_FILE_NAME);
+    }
+
+    /**
+     * The recorded deployment of a single package.
+     */
+    static class Entry {
+        private final String digest;
+        private final long size;
+        private final long installationTimeInMillis;
+        private final String installationPath;
+
+        Entry(String digest, long size, long installationTimeInMillis) {
+            this(digest, size, installationTimeInMillis, null);
+        }
+
+        /**
+         * @param installationPath the path of the package installed on the instance, or <code>null</code> if the package was installed
+         *                         at its own path.
+         */
+        Entry(String digest, long size, long installationTimeInMillis, String installationPath) {
+            this.digest = digest;
+            this.size = size;
+            this.installationTimeInMillis = installationTimeInMillis;
+            this.installationPath = installationPath;
+        }
+
+        @NotNull
+        String getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return the size of the package installed on the instance, or -1 if unknown.
+         */
+        long getSize() {
+            return size;
+        }
+
+        long getInstallationTimeInMillis() {
+            return installationTimeInMillis;
+        }
+
+        /**
+         * @return the path of the package installed on the instance if it differs from the recorded package path, e.g. the path of a
+         * delta package, or <code>null</code>.
+         */
+        @Nullable
+        String getInstallationPath() {
+            return installationPath;
+        }
+    }
+}
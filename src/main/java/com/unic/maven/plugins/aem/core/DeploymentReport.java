@@ -0,0 +1,149 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import com.unic.maven.plugins.aem.core.httpactions.DeploymentMetrics;
+import com.unic.maven.plugins.aem.core.httpactions.DeploymentMetrics.ActionTiming;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the {@link DeploymentMetrics} of a {@link DeployCommand} execution as machine-readable reports, i.e.
+ * <code>aem-deploy-report.json</code> containing the per-instance phase totals and all action timings, and
+ * <code>aem-deploy-report.csv</code> containing one line per action.
+ */
+class DeploymentReport {
+    static final String JSON_REPORT_NAME = "aem-deploy-report.json";
+    static final String CSV_REPORT_NAME = "aem-deploy-report.csv";
+
+    private final long startedAt;
+    private final long durationInMillis;
+    private final boolean succeeded;
+    private final List<ActionTiming> timings;
+
+    DeploymentReport(long startedAt, long durationInMillis, boolean succeeded, @NotNull DeploymentMetrics metrics) {
+        this.startedAt = startedAt;
+        this.durationInMillis = durationInMillis;
+        this.succeeded = succeeded;
+        this.timings = metrics.getTimings();
+    }
+
+    void writeTo(@NotNull File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory + ".");
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, JSON_REPORT_NAME)), UTF_8)) {
+            writer.write(toJson().toString(2));
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, CSV_REPORT_NAME)), UTF_8)) {
+            writeCsv(writer);
+        }
+    }
+
+    @NotNull
+    private JSONObject toJson() {
+        JSONObject report = new JSONObject()
+                .put("startedAt", startedAt)
+                .put("durationInMillis", durationInMillis)
+                .put("succeeded", succeeded);
+
+        Map<URI, JSONObject> phases = new LinkedHashMap<>();
+        for (ActionTiming timing : timings) {
+            JSONObject instance = phases.computeIfAbsent(timing.getServerUri(), uri -> new JSONObject()
+                    .put("serverUri", uri.toString())
+                    .put("availabilityWaitInMillis", 0L)
+                    .put("backoffInMillis", 0L)
+                    .put("retries", 0)
+                    .put("uploadInMillis", 0L)
+                    .put("uploadedBytes", 0L)
+                    .put("installInMillis", 0L));
+
+            add(instance, "availabilityWaitInMillis", timing.getAvailabilityWaitInMillis());
+            add(instance, "backoffInMillis", timing.getBackoffInMillis());
+            add(instance, "retries", timing.getRetries());
+            if (timing.isUpload()) {
+                add(instance, "uploadInMillis", timing.getActiveTimeInMillis());
+                add(instance, "uploadedBytes", timing.getBytes());
+            } else if (timing.isInstall()) {
+                add(instance, "installInMillis", timing.getActiveTimeInMillis());
+            }
+        }
+        for (JSONObject instance : phases.values()) {
+            long uploadTime = instance.getLong("uploadInMillis");
+            instance.put("uploadBytesPerSecond", uploadTime == 0 ? 0 : instance.getLong("uploadedBytes") * 1000 / uploadTime);
+        }
+        report.put("instances", new JSONArray(phases.values()));
+
+        JSONArray actions = new JSONArray();
+        for (ActionTiming timing : timings) {
+            actions.put(new JSONObject()
+                    .put("serverUri", timing.getServerUri().toString())
+                    .put("action", timing.getAction())
+                    .put("category", timing.getCategory().name())
+                    .put("subject", timing.getSubject() == null ? JSONObject.NULL : timing.getSubject())
+                    .put("startedAt", timing.getStartedAt())
+                    .put("durationInMillis", timing.getDurationInMillis())
+                    .put("availabilityWaitInMillis", timing.getAvailabilityWaitInMillis())
+                    .put("activeTimeInMillis", timing.getActiveTimeInMillis())
+                    .put("backoffInMillis", timing.getBackoffInMillis())
+                    .put("retries", timing.getRetries())
+                    .put("bytes", timing.getBytes())
+                    .put("bytesPerSecond", timing.getBytesPerSecond())
+                    .put("succeeded", timing.isSucceeded()));
+        }
+        report.put("actions", actions);
+        return report;
+    }
+
+    private void writeCsv(@NotNull Writer writer) throws IOException {
+        writer.write("serverUri,action,category,subject,startedAt,durationInMillis,availabilityWaitInMillis,activeTimeInMillis," +
+                "backoffInMillis,retries,bytes,bytesPerSecond,succeeded\n");
+        for (ActionTiming timing : timings) {
+            writer.write(csv(timing.getServerUri().toString()) + ',' +
+                    csv(timing.getAction()) + ',' +
+                    timing.getCategory() + ',' +
+                    csv(timing.getSubject() == null ? "" : timing.getSubject()) + ',' +
+                    timing.getStartedAt() + ',' +
+                    timing.getDurationInMillis() + ',' +
+                    timing.getAvailabilityWaitInMillis() + ',' +
+                    timing.getActiveTimeInMillis() + ',' +
+                    timing.getBackoffInMillis() + ',' +
+                    timing.getRetries() + ',' +
+                    timing.getBytes() + ',' +
+                    timing.getBytesPerSecond() + ',' +
+                    timing.isSucceeded() + '\n');
+        }
+    }
+
+    private static void add(@NotNull JSONObject object, @NotNull String key, long value) {
+        object.put(key, object.getLong(key) + value);
+    }
+
+    @NotNull
+    private static String csv(@NotNull String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
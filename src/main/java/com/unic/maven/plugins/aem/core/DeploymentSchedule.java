@@ -0,0 +1,250 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * The order in which files are deployed to an instance, as a sequence of levels. All files of a level may be deployed concurrently, but
+ * only once all files of the previous levels are deployed. The schedule is either the configured order (one file per level) or is derived
+ * from the dependencies the packages declare in their <code>META-INF/vault/properties.xml</code>.
+ */
+class DeploymentSchedule {
+    private final List<List<File>> levels;
+    private final List<Dependency> externalDependencies;
+
+    /**
+     * @return a schedule deploying the files strictly in the given order. Never <code>null</code>.
+     */
+    @NotNull
+    static DeploymentSchedule inOrder(@NotNull List<File> files) {
+        List<List<File>> levels = new ArrayList<>(files.size());
+        for (File file : files) {
+            levels.add(singletonList(file));
+        }
+        return new DeploymentSchedule(levels, new ArrayList<>());
+    }
+
+    /**
+     * Places each package on the level after the highest level of the packages it depends on. Dependencies match packages by group and name;
+     * version ranges are not evaluated. Within a level, the files retain the given order. Files that are not CRX packages have no dependencies.
+     *
+     * @param metadata provides the package metadata of a file, or <code>null</code> if the file is not a CRX package.
+     * @return never <code>null</code>.
+     * @throws DeployFailureException if the dependencies contain a cycle.
+     */
+    @NotNull
+    static DeploymentSchedule byDependencies(@NotNull List<File> files, @NotNull Function<File, VaultPackage> metadata) {
+        Map<File, Set<File>> prerequisites = new LinkedHashMap<>();
+        List<Dependency> externalDependencies = new ArrayList<>();
+
+        for (File file : files) {
+            Set<File> filePrerequisites = new LinkedHashSet<>();
+            prerequisites.put(file, filePrerequisites);
+
+            VaultPackage vaultPackage = metadata.apply(file);
+            if (vaultPackage == null) {
+                continue;
+            }
+
+            for (Dependency dependency : Dependency.parse(vaultPackage.getDependencies())) {
+                boolean satisfied = false;
+                for (File candidate : files) {
+                    VaultPackage candidatePackage = metadata.apply(candidate);
+                    if (candidate != file && candidatePackage != null && dependency.matches(candidatePackage.getGroup(), candidatePackage.getName())) {
+                        filePrerequisites.add(candidate);
+                        satisfied = true;
+                    }
+                }
+                if (!satisfied) {
+                    externalDependencies.add(dependency.of(vaultPackage));
+                }
+            }
+        }
+
+        List<List<File>> levels = new ArrayList<>();
+        Set<File> scheduled = new LinkedHashSet<>();
+        while (scheduled.size() != files.size()) {
+            List<File> level = new ArrayList<>();
+            for (Map.Entry<File, Set<File>> entry : prerequisites.entrySet()) {
+                if (!scheduled.contains(entry.getKey()) && scheduled.containsAll(entry.getValue())) {
+                    level.add(entry.getKey());
+                }
+            }
+            if (level.isEmpty()) {
+                List<String> unresolvable = new ArrayList<>();
+                for (File file : files) {
+                    if (!scheduled.contains(file)) {
+                        unresolvable.add(String.valueOf(metadata.apply(file)));
+                    }
+                }
+                throw new DeployFailureException("Unable to determine the deployment order - the dependencies of the following packages form a cycle: " +
+                        String.join(", ", unresolvable));
+            }
+            scheduled.addAll(level);
+            levels.add(level);
+        }
+
+        return new DeploymentSchedule(levels, externalDependencies);
+    }
+
+    private DeploymentSchedule(List<List<File>> levels, List<Dependency> externalDependencies) {
+        this.levels = levels;
+        this.externalDependencies = externalDependencies;
+    }
+
+    /**
+     * @return this schedule without the files not contained in the given files, omitting empty levels. Never <code>null</code>.
+     */
+    @NotNull
+    DeploymentSchedule restrictTo(@NotNull Collection<File> files) {
+        List<List<File>> restricted = new ArrayList<>(levels.size());
+        for (List<File> level : levels) {
+            List<File> restrictedLevel = new ArrayList<>(level);
+            restrictedLevel.retainAll(files);
+            if (!restrictedLevel.isEmpty()) {
+                restricted.add(restrictedLevel);
+            }
+        }
+        return new DeploymentSchedule(restricted, externalDependencies);
+    }
+
+    @NotNull
+    List<List<File>> getLevels() {
+        return unmodifiableList(levels);
+    }
+
+    /**
+     * @return all files in deployment order. Never <code>null</code>.
+     */
+    @NotNull
+    List<File> getFiles() {
+        List<File> files = new ArrayList<>();
+        levels.forEach(files::addAll);
+        return files;
+    }
+
+    int getMaximumLevelSize() {
+        int max = 0;
+        for (List<File> level : levels) {
+            max = Math.max(max, level.size());
+        }
+        return max;
+    }
+
+    /**
+     * @return the dependencies that are not satisfied by any of the scheduled packages and must thus already be present
+     * on the target instance. Never <code>null</code>.
+     */
+    @NotNull
+    List<Dependency> getExternalDependencies() {
+        return unmodifiableList(externalDependencies);
+    }
+
+    /**
+     * A package dependency in the FileVault notation <code>[group:]name[:versionRange]</code>.
+     */
+    static class Dependency {
+        private final String group;
+        private final String name;
+        private final String versionRange;
+        private final VaultPackage dependent;
+
+        /**
+         * @param declaration a comma-separated list of dependencies, e.g. <code>acme:core:[1.0,2.0),acme:ui</code>. Can be <code>null</code>.
+         * @return never <code>null</code>.
+         */
+        @NotNull
+        static List<Dependency> parse(@Nullable String declaration) {
+            List<Dependency> dependencies = new ArrayList<>();
+            if (isEmpty(declaration)) {
+                return dependencies;
+            }
+
+            // Commas separate dependencies, but also occur within version ranges, e.g. [1.0,2.0).
+            int depth = 0, start = 0;
+            for (int i = 0; i <= declaration.length(); ++i) {
+                char c = i == declaration.length() ? ',' : declaration.charAt(i);
+                if (c == '[' || c == '(') {
+                    ++depth;
+                } else if (c == ']' || c == ')') {
+                    --depth;
+                } else if (c == ',' && depth <= 0) {
+                    String dependency = declaration.substring(start, i).trim();
+                    if (!dependency.isEmpty()) {
+                        dependencies.add(parseSingle(dependency));
+                    }
+                    start = i + 1;
+                }
+            }
+            return dependencies;
+        }
+
+        @NotNull
+        private static Dependency parseSingle(@NotNull String dependency) {
+            String[] segments = dependency.split(":", 3);
+            switch (segments.length) {
+                case 1:
+                    return new Dependency("", segments[0], "", null);
+                case 2:
+                    return new Dependency(segments[0], segments[1], "", null);
+                default:
+                    return new Dependency(segments[0], segments[1], segments[2], null);
+            }
+        }
+
+        private Dependency(String group, String name, String versionRange, VaultPackage dependent) {
+            this.group = group;
+            this.name = name;
+            this.versionRange = versionRange;
+            this.dependent = dependent;
+        }
+
+        boolean matches(@NotNull String group, @NotNull String name) {
+            return this.name.equals(name) && (isEmpty(this.group) || this.group.equals(group));
+        }
+
+        @NotNull
+        private Dependency of(@NotNull VaultPackage dependent) {
+            return new Dependency(group, name, versionRange, dependent);
+        }
+
+        /**
+         * @return the package declaring this dependency, or <code>null</code> if unknown.
+         */
+        @Nullable
+        VaultPackage getDependent() {
+            return dependent;
+        }
+
+        @Override
+        public String toString() {
+            return (isEmpty(group) ? "" : group + ':') + name + (isEmpty(versionRange) ? "" : ':' + versionRange);
+        }
+    }
+}
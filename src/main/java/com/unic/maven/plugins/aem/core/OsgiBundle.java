@@ -0,0 +1,104 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * The identity of an OSGi bundle, as defined in the bundle's <code>META-INF/MANIFEST.MF</code>.
+ */
+public class OsgiBundle {
+    private final File file;
+    private final String symbolicName;
+    private final String version;
+
+    /**
+     * @param file must not be <code>null</code>.
+     * @return the bundle identity, or <code>null</code> if the file is not an OSGi bundle, i.e. its manifest does
+     * not define a <code>Bundle-SymbolicName</code>.
+     * @throws IOException if the file is not a readable zip file.
+     */
+    @Nullable
+    public static OsgiBundle read(@NotNull File file) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            return read(file, zip);
+        }
+    }
+
+    /**
+     * @param zip the opened file. Must not be <code>null</code>.
+     * @return the bundle identity, or <code>null</code> if the zip is not an OSGi bundle.
+     * @throws IOException if the manifest cannot be read.
+     */
+    @Nullable
+    static OsgiBundle read(@NotNull File file, @NotNull ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(JarFile.MANIFEST_NAME);
+        if (entry == null) {
+            return null;
+        }
+        Manifest manifest;
+        try (InputStream in = zip.getInputStream(entry)) {
+            manifest = new Manifest(in);
+        }
+        Attributes attributes = manifest.getMainAttributes();
+        String symbolicName = attributes.getValue("Bundle-SymbolicName");
+        if (isEmpty(symbolicName)) {
+            return null;
+        }
+        // Strip directives, e.g. "com.acme.core;singleton:=true".
+        int directives = symbolicName.indexOf(';');
+        String version = attributes.getValue("Bundle-Version");
+        return new OsgiBundle(
+                file,
+                (directives == -1 ? symbolicName : symbolicName.substring(0, directives)).trim(),
+                isEmpty(version) ? "0.0.0" : version.trim());
+    }
+
+    private OsgiBundle(File file, String symbolicName, String version) {
+        this.file = file;
+        this.symbolicName = symbolicName;
+        this.version = version;
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    @NotNull
+    public String getSymbolicName() {
+        return symbolicName;
+    }
+
+    @NotNull
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return symbolicName + ':' + version;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.unic.maven.plugins.aem.core.VaultPackage.FILTER_XML;
+import static com.unic.maven.plugins.aem.core.VaultPackage.PROPERTIES_XML;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Verifies a package file locally before it is uploaded, such that invalid packages fail the deployment before any data
+ * is transferred: The file must be a zip file with an intact central directory, and must contain a parseable
+ * <code>META-INF/vault/properties.xml</code> defining the package name and a parseable <code>META-INF/vault/filter.xml</code>
+ * whose filter roots are absolute paths. Alternatively, the file may be an OSGi bundle, i.e. a jar file whose manifest defines
+ * a <code>Bundle-SymbolicName</code>.
+ */
+class PackageVerification {
+    private final File file;
+    private final List<String> problems = new ArrayList<>();
+    private VaultPackage metadata = null;
+    private OsgiBundle bundle = null;
+
+    /**
+     * @param file must not be <code>null</code>.
+     * @return the verification result, never <code>null</code>.
+     */
+    @NotNull
+    static PackageVerification verify(@NotNull File file) {
+        PackageVerification verification = new PackageVerification(file);
+        verification.run();
+        return verification;
+    }
+
+    private PackageVerification(File file) {
+        this.file = file;
+    }
+
+    private void run() {
+        if (!file.isFile() || !file.canRead()) {
+            problems.add("The file does not exist or is not readable.");
+            return;
+        }
+
+        // Opening the zip file reads and validates the central directory.
+        try (ZipFile zip = new ZipFile(file)) {
+            verifyEntries(zip);
+            if (zip.getEntry(PROPERTIES_XML) == null && (bundle = OsgiBundle.read(file, zip)) != null) {
+                return;
+            }
+            verifyProperties(zip);
+            verifyFilter(zip);
+        } catch (IOException e) {
+            problems.add("The file is not a valid zip file or its metadata cannot be read: " + e.getMessage());
+        }
+    }
+
+    private void verifyEntries(@NotNull ZipFile zip) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.getName().startsWith("/") || entry.getName().contains("../")) {
+                problems.add("The zip entry " + entry.getName() + " has an invalid path.");
+            }
+        }
+    }
+
+    private void verifyProperties(@NotNull ZipFile zip) {
+        if (zip.getEntry(PROPERTIES_XML) == null) {
+            problems.add("The package metadata " + PROPERTIES_XML + " is missing.");
+            return;
+        }
+        try {
+            metadata = VaultPackage.read(file, zip);
+            if (metadata == null) {
+                problems.add("The package metadata " + PROPERTIES_XML + " does not define the package name.");
+            }
+        } catch (IOException e) {
+            problems.add("The package metadata " + PROPERTIES_XML + " cannot be parsed: " + e.getMessage());
+        }
+    }
+
+    private void verifyFilter(@NotNull ZipFile zip) {
+        ZipEntry entry = zip.getEntry(FILTER_XML);
+        if (entry == null) {
+            problems.add("The workspace filter " + FILTER_XML + " is missing.");
+            return;
+        }
+
+        Document document;
+        try (InputStream in = zip.getInputStream(entry)) {
+            // Packages may originate from anywhere, thus neither resolve external DTDs or entities nor allow document type declarations.
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            document = factory.newDocumentBuilder().parse(in);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            problems.add("The workspace filter " + FILTER_XML + " cannot be parsed: " + e.getMessage());
+            return;
+        }
+
+        if (!"workspaceFilter".equals(document.getDocumentElement().getTagName())) {
+            problems.add("The workspace filter " + FILTER_XML + " does not have a workspaceFilter root element.");
+            return;
+        }
+
+        NodeList filters = document.getElementsByTagName("filter");
+        for (int i = 0; i < filters.getLength(); ++i) {
+            String root = ((Element) filters.item(i)).getAttribute("root");
+            if (!root.startsWith("/")) {
+                problems.add("The workspace filter " + FILTER_XML + " contains the invalid filter root \"" + root + "\" - filter roots must be absolute paths.");
+            }
+        }
+    }
+
+    @NotNull
+    File getFile() {
+        return file;
+    }
+
+    boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * @return the problems found, empty if the package is {@link #isValid() valid}. Never <code>null</code>.
+     */
+    @NotNull
+    List<String> getProblems() {
+        return unmodifiableList(problems);
+    }
+
+    /**
+     * @return the package metadata, or <code>null</code> if it could not be read.
+     */
+    @Nullable
+    VaultPackage getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the bundle identity if the file is an OSGi bundle, or <code>null</code>.
+     */
+    @Nullable
+    OsgiBundle getBundle() {
+        return bundle;
+    }
+}
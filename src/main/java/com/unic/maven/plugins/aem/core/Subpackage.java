@@ -0,0 +1,93 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A package embedded in a container package, i.e. a zip file below <code>jcr_root/etc/packages</code>. Installing the container
+ * package non-recursively places the subpackage at its {@link #getPath() path} without installing it.
+ */
+class Subpackage {
+    private static final String SUBPACKAGE_PREFIX = "jcr_root/etc/packages/";
+
+    private final String path;
+    private final String digest;
+    private final long size;
+
+    /**
+     * @param container must not be <code>null</code>.
+     * @return the subpackages in the order they are contained in the container package, empty if the package is not a
+     * container package. Never <code>null</code>.
+     */
+    @NotNull
+    static List<Subpackage> read(@NotNull File container) throws IOException {
+        List<Subpackage> subpackages = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(container)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(SUBPACKAGE_PREFIX) || !entry.getName().endsWith(".zip")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    subpackages.add(new Subpackage(entry.getName().substring("jcr_root".length()), VaultPackage.digest(in), entry.getSize()));
+                }
+            }
+        }
+        return subpackages;
+    }
+
+    private Subpackage(String path, String digest, long size) {
+        this.path = path;
+        this.digest = digest;
+        this.size = size;
+    }
+
+    /**
+     * @return the path of the subpackage in the repository, e.g. <code>/etc/packages/group/name-1.0.zip</code>. Never <code>null</code>.
+     */
+    @NotNull
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 digest of the subpackage, never <code>null</code>.
+     */
+    @NotNull
+    String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the size of the subpackage in bytes, or -1 if unknown.
+     */
+    long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
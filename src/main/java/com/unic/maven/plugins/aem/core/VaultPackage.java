@@ -0,0 +1,167 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * The metadata of a CRX (FileVault) package, as defined in the package's <code>META-INF/vault/properties.xml</code>.
+ */
+public class VaultPackage {
+    static final String PROPERTIES_XML = "META-INF/vault/properties.xml";
+    static final String FILTER_XML = "META-INF/vault/filter.xml";
+
+    private final File file;
+    private final String group;
+    private final String name;
+    private final String version;
+    private final String dependencies;
+
+    /**
+     * @param file must not be <code>null</code>.
+     * @return the package metadata, or <code>null</code> if the file is not a CRX package, i.e. does not contain
+     * a properties.xml file defining the package name.
+     * @throws IOException if the file is not a readable zip file.
+     */
+    @Nullable
+    public static VaultPackage read(@NotNull File file) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            return read(file, zip);
+        }
+    }
+
+    /**
+     * @param zip the opened package file. Must not be <code>null</code>.
+     * @return the package metadata, or <code>null</code> if the zip does not contain a properties.xml file defining the package name.
+     * @throws IOException if the properties.xml cannot be read or parsed.
+     */
+    @Nullable
+    static VaultPackage read(@NotNull File file, @NotNull ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(PROPERTIES_XML);
+        if (entry == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = zip.getInputStream(entry)) {
+            properties.loadFromXML(in);
+        }
+        if (isEmpty(properties.getProperty("name"))) {
+            return null;
+        }
+        return new VaultPackage(
+                file,
+                properties.getProperty("group", ""),
+                properties.getProperty("name"),
+                properties.getProperty("version", ""),
+                properties.getProperty("dependencies", ""));
+    }
+
+    /**
+     * @param file must not be <code>null</code>.
+     * @return the hex-encoded SHA-256 digest of the file content, never <code>null</code>.
+     */
+    @NotNull
+    public static String digest(@NotNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return digest(in);
+        }
+    }
+
+    /**
+     * @param in the stream to consume, not closed by this method. Must not be <code>null</code>.
+     * @return the hex-encoded SHA-256 digest of the stream content, never <code>null</code>.
+     */
+    @NotNull
+    static String digest(@NotNull InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private VaultPackage(File file, String group, String name, String version, String dependencies) {
+        this.file = file;
+        this.group = group;
+        this.name = name;
+        this.version = version;
+        this.dependencies = dependencies;
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    @NotNull
+    public String getGroup() {
+        return group;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the raw dependency declaration of the package, e.g. <code>group:name:[1.0,2.0),group:other</code>. Never <code>null</code>.
+     */
+    @NotNull
+    public String getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return the path the package manager stores the package at, e.g. <code>/etc/packages/group/name-1.0.zip</code>. Never <code>null</code>.
+     */
+    @NotNull
+    public String getInstallationPath() {
+        return "/etc/packages/" + (isEmpty(group) ? "" : group + '/') + name + (isEmpty(version) ? "" : '-' + version) + ".zip";
+    }
+
+    @Override
+    public String toString() {
+        return group + ':' + name + ':' + version;
+    }
+}
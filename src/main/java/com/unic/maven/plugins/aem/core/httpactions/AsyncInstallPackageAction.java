@@ -0,0 +1,295 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.unic.maven.plugins.aem.util.Expectation;
+import com.unic.maven.plugins.aem.util.PollingProfile;
+import org.apache.http.client.utils.URIBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import unirest.HttpResponse;
+import unirest.JsonNode;
+import unirest.UnirestException;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
+import static java.lang.Math.max;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Installs a package without depending on a connection being held open for the duration of the installation: The installation is
+ * started via the JSON interface, and small packages are installed before the {@link #START_TIMEOUT_IN_MILLIS start timeout}, in which
+ * case the response is evaluated directly. Otherwise, the completion is detected by polling the <code>lastUnpacked</code> date of the
+ * package, which is updated once the package is extracted. The installation request remains open in the background while polling: If it
+ * responds, e.g. since the installation failed, its response is used right away. If the request fails after it was sent, e.g. due to
+ * a read timeout, a connection reset or a gateway error of a proxy, the installation may be running on the server, and polling continues.
+ * Only failures to connect re-try the installation. Network errors while polling are tolerated.
+ * <p>
+ * Note that in the latter case, the package manager does not report errors of individual entries, i.e. the
+ * installation is considered successful once the package was extracted. Use {@link InstallPackageAction} if the
+ * installation log shall be verified. An installation that fails on the server after its request failed does not update the
+ * package state and is thus only detected once the installation timeout elapsed.
+ * </p>
+ */
+public class AsyncInstallPackageAction extends RetryableHttpAction<JsonNode, String> {
+    public static final int DEFAULT_INSTALLATION_TIMEOUT_IN_MINUTES = 10;
+    private static final int START_TIMEOUT_IN_MILLIS = (int) SECONDS.toMillis(10);
+    private static final PollingProfile INSTALLATION_POLLING = new PollingProfile(500, 1.5, 5000, 0.1);
+    private static final ExecutorService INSTALLATION_REQUESTS = newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "aem-package-installation");
+        // A pending installation request must not keep the build from terminating.
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String packagePath;
+    private final boolean deploySubpackages;
+    private final String name;
+    private final int deploySaveThreshold;
+    private final int installationTimeoutInMinutes;
+    private final long startTimeoutInMillis;
+
+    public AsyncInstallPackageAction(Configuration configuration, File file, String packagePath, boolean deploySubpackages,
+                                     int deploySaveThreshold) {
+        this(configuration, file.toString(), packagePath, deploySubpackages, deploySaveThreshold, DEFAULT_INSTALLATION_TIMEOUT_IN_MINUTES);
+    }
+
+    /**
+     * @param name                         describes the installed package in log messages, e.g. the path of a subpackage.
+     * @param installationTimeoutInMinutes the maximum duration of the installation.
+     */
+    public AsyncInstallPackageAction(Configuration configuration, String name, String packagePath, boolean deploySubpackages,
+                                     int deploySaveThreshold, int installationTimeoutInMinutes) {
+        this(configuration, name, packagePath, deploySubpackages, deploySaveThreshold, installationTimeoutInMinutes, START_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param startTimeoutInMillis the time to wait for a direct response before polling the package state.
+     */
+    AsyncInstallPackageAction(Configuration configuration, String name, String packagePath, boolean deploySubpackages,
+                              int deploySaveThreshold, int installationTimeoutInMinutes, long startTimeoutInMillis) {
+        super(configuration);
+        if (installationTimeoutInMinutes <= 0) {
+            throw new IllegalArgumentException("The installation timeout must be greater than 0, got " + installationTimeoutInMinutes + ".");
+        }
+        this.name = name;
+        this.packagePath = packagePath;
+        this.deploySubpackages = deploySubpackages;
+        this.deploySaveThreshold = deploySaveThreshold;
+        this.installationTimeoutInMinutes = installationTimeoutInMinutes;
+        this.startTimeoutInMillis = startTimeoutInMillis;
+    }
+
+    @Override
+    protected boolean hasUnrecoverableError(@NotNull HttpResponse<JsonNode> response) {
+        // The package state obtained by polling has no success property and only exists once the installation completed.
+        return response.getStatus() != 200 || !response.getBody().getObject().optBoolean("success", true);
+    }
+
+    @NotNull
+    @Override
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.INSTALL;
+    }
+
+    @NotNull
+    @Override
+    protected String subject() {
+        return name.substring(max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar)) + 1);
+    }
+
+    @NotNull
+    @Override
+    protected String startMessage() {
+        return "Installing " + name + (deploySubpackages ? " and its subpackages, if any, on " + getConfiguration().getServerUri() + "..." : "...");
+    }
+
+    @NotNull
+    @Override
+    protected String successMessage(@NotNull HttpResponse<JsonNode> response) {
+        return "Successfully installed " + name + ".";
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull String cause) {
+        return "Failed to install " + name + ", AEM responded: " + cause;
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull HttpResponse<JsonNode> response) {
+        return failureMessage(response.getStatus() != 200 ? response.getStatusText() : response.getBody().getObject().optString("msg", "Unknown error"));
+    }
+
+    @NotNull
+    @Override
+    protected HttpResponse<JsonNode> perform() throws UnirestException, InterruptedException {
+        awaitPackageManagerApi("install " + name);
+
+        long lastUnpacked = lastUnpacked(getPackageState());
+
+        String path = new URIBuilder().setPath("/crx/packmgr/service/.json" + packagePath)
+                .addParameter("cmd", "install").toString();
+
+        Future<HttpResponse<JsonNode>> installation = INSTALLATION_REQUESTS.submit(() -> getConfiguration().getClient().post(path)
+                .socketTimeout((int) MINUTES.toMillis(installationTimeoutInMinutes))
+                .field("autosave", deploySaveThreshold)
+                .field("recursive", Boolean.toString(deploySubpackages))
+                .asJson());
+
+        try {
+            HttpResponse<JsonNode> response = getResponse(installation, startTimeoutInMillis);
+            if (response != null) {
+                return response;
+            }
+            getConfiguration().getLog().info("The installation of " + name + " is in progress, awaiting its completion...");
+            return awaitInstallation(lastUnpacked, installation);
+        } finally {
+            // The request is not aborted, as the installation continues on the server regardless.
+            installation.cancel(false);
+        }
+    }
+
+    /**
+     * @return the response of the installation request, or <code>null</code> if it did not respond within the given time or failed after it
+     * was sent, i.e. the installation may still be running on the server.
+     * @throws UnirestException if the installation request could not be sent, i.e. the installation did not start, or if the response
+     *                          cannot be parsed.
+     */
+    @Nullable
+    private HttpResponse<JsonNode> getResponse(@NotNull Future<HttpResponse<JsonNode>> installation, long timeoutInMillis)
+            throws UnirestException, InterruptedException {
+        try {
+            HttpResponse<JsonNode> response = installation.get(timeoutInMillis, MILLISECONDS);
+            if (isGatewayError(response)) {
+                getConfiguration().getLog().info("The installation request of " + name + " failed with " + response.getStatus() + " " +
+                        response.getStatusText() + ", the installation may be in progress.");
+                return null;
+            }
+            return parsed(response);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (!(cause instanceof UnirestException) || RetryPolicy.classify(cause) == RetryPolicy.Failure.CONNECTION) {
+                throw cause instanceof UnirestException ? (UnirestException) cause : new UnirestException((Exception) cause);
+            }
+            getConfiguration().getLog().info("The installation request of " + name + " failed after it was sent: " +
+                    getRootCause(cause).getMessage() + ", the installation may be in progress.");
+            return null;
+        }
+    }
+
+    /**
+     * @return the response of the installation request or the package state once its <code>lastUnpacked</code> date is after the
+     * given date, whichever comes first. Never <code>null</code>.
+     */
+    @NotNull
+    private HttpResponse<JsonNode> awaitInstallation(final long lastUnpacked, @NotNull Future<HttpResponse<JsonNode>> installation)
+            throws InterruptedException {
+        final HttpResponse<?>[] result = new HttpResponse<?>[1];
+        boolean installed = new Expectation<Object>() {
+            private boolean requestFailed = false;
+
+            @Override
+            protected Outcome fulfill() {
+                if (installation.isDone() && !requestFailed) {
+                    try {
+                        result[0] = getResponse(installation, 0);
+                    } catch (UnirestException e) {
+                        // The request was sent, e.g. a proxy responded with an error page, thus the installation may still be running.
+                        getConfiguration().getLog().info("The installation request of " + name + " failed: " +
+                                getRootCause(e).getMessage() + ", the installation may be in progress.");
+                    } catch (InterruptedException e) {
+                        // Not possible, the request completed.
+                        Thread.currentThread().interrupt();
+                    }
+                    if (result[0] != null) {
+                        return Outcome.FULFILLED;
+                    }
+                    requestFailed = true;
+                }
+                try {
+                    HttpResponse<JsonNode> response = getPackageState();
+                    if (lastUnpacked(response) > lastUnpacked) {
+                        result[0] = response;
+                        return Outcome.FULFILLED;
+                    }
+                } catch (UnirestException e) {
+                    // The installation may restart the HTTP service or the network may be temporarily unavailable - keep polling.
+                }
+                return Outcome.RETRY;
+            }
+        }.polling(INSTALLATION_POLLING).within(installationTimeoutInMinutes, MINUTES);
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("The installation of " + name + " was interrupted.");
+        }
+        if (!installed) {
+            throw new HttpActionFailureException("The installation of " + name + " on " + getConfiguration().getServerUri() +
+                    " did not complete within " + installationTimeoutInMinutes + " minutes.");
+        }
+
+        @SuppressWarnings("unchecked")
+        HttpResponse<JsonNode> response = (HttpResponse<JsonNode>) result[0];
+        return response;
+    }
+
+    @NotNull
+    private HttpResponse<JsonNode> getPackageState() throws UnirestException {
+        HttpResponse<JsonNode> response = getConfiguration().getClient().get("/crx/packmgr/list.jsp")
+                .queryString("path", packagePath)
+                .asJson();
+        getConfiguration().getClient().checkAuthentication(response);
+        return parsed(response);
+    }
+
+    /**
+     * @return the <code>lastUnpacked</code> date of the package in the given package state, or -1 if the package was never installed.
+     */
+    private static long lastUnpacked(@NotNull HttpResponse<JsonNode> packageState) {
+        if (packageState.getStatus() != 200) {
+            throw new UnirestException("Unable to retrieve the package state, AEM responded " + packageState.getStatusText() + ".");
+        }
+        JSONArray results = packageState.getBody().getObject().optJSONArray("results");
+        return results == null || results.length() == 0 ? -1 : results.getJSONObject(0).optLong("lastUnpacked", -1);
+    }
+
+    @NotNull
+    private HttpResponse<JsonNode> parsed(@NotNull HttpResponse<JsonNode> response) {
+        // Unirest does not throw an exception but returns a null JSON body when the JSON cannot be parsed.
+        if (response.getParsingError().isPresent()) {
+            throw new UnirestException(new RuntimeException("Unable to parse the JSON response from " + getConfiguration().getServerUri(),
+                    response.getParsingError().get()));
+        }
+        return response;
+    }
+
+    /**
+     * @return whether a proxy or load balancer reported that it did not receive a timely or valid response from AEM, i.e. the
+     * request may have reached AEM.
+     */
+    private static boolean isGatewayError(@NotNull HttpResponse<?> response) {
+        return response.getStatus() == 502 || response.getStatus() == 504;
+    }
+}
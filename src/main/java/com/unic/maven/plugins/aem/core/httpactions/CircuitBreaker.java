@@ -0,0 +1,61 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Tracks whether an instance is reachable, such that actions on an instance that is down fail immediately rather than each waiting
+ * for the instance and re-trying. The circuit opens once an action failed since the instance was unreachable. After the
+ * {@link RetryPolicy#getCircuitOpenTimeInMillis() circuit open time}, a single action may probe the instance again (half-open), and the
+ * circuit closes once an action succeeded. Shared by all actions using the same {@link RetryableHttpAction.Configuration}, i.e. an open
+ * circuit does not outlive the deployment, e.g. into the next cycle of a watching build.
+ */
+class CircuitBreaker {
+    private long openedAt = 0;
+    private boolean open = false, probing = false;
+
+    /**
+     * @param openTimeInMillis the time for which the circuit remains open before an action may probe the instance again.
+     * @return whether an action may be performed on the instance.
+     */
+    synchronized boolean allowsRequests(long openTimeInMillis) {
+        if (!open) {
+            return true;
+        }
+        if (probing || nanoTime() - openedAt < MILLISECONDS.toNanos(openTimeInMillis)) {
+            return false;
+        }
+        probing = true;
+        return true;
+    }
+
+    synchronized void recordReachable() {
+        open = false;
+        probing = false;
+    }
+
+    /**
+     * Ends a probe that neither reached the instance nor found it unreachable, e.g. since a local file could not be read.
+     */
+    synchronized void release() {
+        probing = false;
+    }
+
+    synchronized void recordUnreachable() {
+        open = true;
+        probing = false;
+        openedAt = nanoTime();
+    }
+}
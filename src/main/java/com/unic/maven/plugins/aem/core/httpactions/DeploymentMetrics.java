@@ -0,0 +1,192 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the timings of {@link RetryableHttpAction} executions, such as the time spent waiting for the package manager API,
+ * the time spent backing off between re-tries and the number of transferred bytes. Thread-safe, i.e. a single instance
+ * can be shared by concurrently executed actions.
+ */
+public class DeploymentMetrics {
+    private final List<ActionTiming> timings = new ArrayList<>();
+
+    synchronized void record(@NotNull ActionTiming timing) {
+        timings.add(timing);
+    }
+
+    /**
+     * @return a snapshot of the timings recorded so far, in the order the actions completed. Never <code>null</code>.
+     */
+    @NotNull
+    public synchronized List<ActionTiming> getTimings() {
+        return new ArrayList<>(timings);
+    }
+
+    /**
+     * The timing of a single {@link RetryableHttpAction} execution, including all of its re-tries.
+     */
+    public static class ActionTiming {
+        /**
+         * The deployment phase an action belongs to.
+         */
+        public enum Category {
+            /**
+             * Transfers a package to the instance without installing it.
+             */
+            UPLOAD,
+            /**
+             * Installs a package or bundle, including the transfer of bundles, which are uploaded and installed by the same request.
+             */
+            INSTALL,
+            /**
+             * Any other action, e.g. listing the installed packages or pausing the JCR installer.
+             */
+            OTHER
+        }
+
+        private final String action;
+        private final Category category;
+        private final String subject;
+        private final URI serverUri;
+        private final long startedAt;
+        private final long durationInMillis;
+        private final long availabilityWaitInMillis;
+        private final long backoffInMillis;
+        private final int retries;
+        private final long bytes;
+        private final boolean succeeded;
+
+        ActionTiming(String action, Category category, String subject, URI serverUri, long startedAt, long durationInMillis,
+                     long availabilityWaitInMillis, long backoffInMillis, int retries, long bytes, boolean succeeded) {
+            this.action = action;
+            this.category = category;
+            this.subject = subject;
+            this.serverUri = serverUri;
+            this.startedAt = startedAt;
+            this.durationInMillis = durationInMillis;
+            this.availabilityWaitInMillis = availabilityWaitInMillis;
+            this.backoffInMillis = backoffInMillis;
+            this.retries = retries;
+            this.bytes = bytes;
+            this.succeeded = succeeded;
+        }
+
+        /**
+         * @return the name of the action, e.g. "UploadPackage" or "AsyncInstallPackage". Never <code>null</code>.
+         */
+        @NotNull
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @return the deployment phase of the action. Never <code>null</code>.
+         */
+        @NotNull
+        public Category getCategory() {
+            return category;
+        }
+
+        /**
+         * @return whether the action uploaded a package, regardless of the upload mode.
+         */
+        public boolean isUpload() {
+            return category == Category.UPLOAD;
+        }
+
+        /**
+         * @return whether the action installed a package or bundle, regardless of the installation mode.
+         */
+        public boolean isInstall() {
+            return category == Category.INSTALL;
+        }
+
+        /**
+         * @return what the action was performed on, e.g. the package file name, or <code>null</code>.
+         */
+        @Nullable
+        public String getSubject() {
+            return subject;
+        }
+
+        @NotNull
+        public URI getServerUri() {
+            return serverUri;
+        }
+
+        /**
+         * @return the start of the action in milliseconds since the epoch.
+         */
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return the total duration of the action, including the availability wait and backoff times.
+         */
+        public long getDurationInMillis() {
+            return durationInMillis;
+        }
+
+        /**
+         * @return the time spent waiting for the package manager API to become available.
+         */
+        public long getAvailabilityWaitInMillis() {
+            return availabilityWaitInMillis;
+        }
+
+        /**
+         * @return the time spent backing off between re-tries.
+         */
+        public long getBackoffInMillis() {
+            return backoffInMillis;
+        }
+
+        /**
+         * @return the time spent performing HTTP requests, i.e. the duration without the availability wait and backoff times.
+         */
+        public long getActiveTimeInMillis() {
+            return Math.max(0, durationInMillis - availabilityWaitInMillis - backoffInMillis);
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * @return the number of bytes transferred by the action, e.g. the size of an uploaded package, or 0.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of bytes transferred per second of {@link #getActiveTimeInMillis() active time}, or 0.
+         */
+        public long getBytesPerSecond() {
+            long activeTime = getActiveTimeInMillis();
+            return activeTime == 0 ? 0 : bytes * 1000 / activeTime;
+        }
+
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.unic.maven.plugins.aem.util.Expectation;
+import com.unic.maven.plugins.aem.util.PollingProfile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import unirest.HttpResponse;
+import unirest.JsonNode;
+import unirest.UnirestException;
+
+import java.io.File;
+
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Installs an OSGi bundle directly via the Felix web console, bypassing the package manager and the JCR installer. The bundle is
+ * started, and the packages are only refreshed if requested. As the web console installs bundles in the background, the action
+ * completes once the installed version of the bundle is active.
+ */
+public class InstallBundleAction extends RetryableHttpAction<String, String> {
+    private static final int BUNDLE_START_LEVEL = 20;
+    private static final int MAX_ACTIVATION_TIME_IN_MINUTES = 2;
+    private static final PollingProfile ACTIVATION_POLLING = new PollingProfile(200, 1.5, 2000, 0.1);
+
+    private final File file;
+    private final String symbolicName;
+    private final String version;
+    private final boolean refreshPackages;
+    private String lastState = "unknown";
+
+    /**
+     * @param symbolicName    the symbolic name of the bundle contained in the file.
+     * @param version         the version of the bundle contained in the file.
+     * @param refreshPackages whether to refresh the packages after the installation. This re-wires the dependent bundles, but
+     *                        may cause a broad restart of services.
+     */
+    public InstallBundleAction(Configuration configuration, File file, String symbolicName, String version, boolean refreshPackages) {
+        super(configuration);
+        this.file = file;
+        this.symbolicName = symbolicName;
+        this.version = version;
+        this.refreshPackages = refreshPackages;
+    }
+
+    @Override
+    protected boolean hasRecoverableError(HttpResponse<String> response) {
+        return response.getStatus() < 200 || response.getStatus() >= 500;
+    }
+
+    @Override
+    protected boolean hasUnrecoverableError(@NotNull HttpResponse<String> response) {
+        // The web console redirects to the bundle list after accepting the bundle.
+        return !isAccepted(response);
+    }
+
+    @NotNull
+    @Override
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.INSTALL;
+    }
+
+    @NotNull
+    @Override
+    protected String subject() {
+        return file.getName();
+    }
+
+    @Override
+    protected long transferredBytes() {
+        return file.length();
+    }
+
+    @NotNull
+    @Override
+    protected String startMessage() {
+        return "Installing bundle " + symbolicName + " " + version + " from " + file + " on " + getConfiguration().getServerUri() + "...";
+    }
+
+    @NotNull
+    @Override
+    protected String successMessage(@NotNull HttpResponse<String> response) {
+        return "Successfully installed bundle " + symbolicName + " " + version + ", the bundle is " + lastState + ".";
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull String cause) {
+        return "Failed to install bundle " + file + ", AEM responded: " + cause;
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull HttpResponse<String> response) {
+        return failureMessage(response.getStatus() + " " + response.getStatusText());
+    }
+
+    @NotNull
+    @Override
+    protected HttpResponse<String> perform() throws UnirestException {
+        String lastModificationBefore = lastModification(getBundleState());
+
+        HttpResponse<String> response = getConfiguration().getClient().post("/system/console/bundles")
+                .field("action", "install")
+                .field("bundlestart", "true")
+                .field("bundlestartlevel", Integer.toString(BUNDLE_START_LEVEL))
+                .field("refreshPackages", Boolean.toString(refreshPackages))
+                .field("bundlefile", file)
+                .asString();
+
+        if (isAccepted(response)) {
+            awaitActivation(lastModificationBefore);
+        }
+        return response;
+    }
+
+    /**
+     * Waits until the bundle has the installed version, was modified after the given date (i.e. re-installed, unless it
+     * was not installed before) and is active, or resolved in case of a fragment.
+     *
+     * @throws HttpActionFailureException if the bundle does not become active within {@link #MAX_ACTIVATION_TIME_IN_MINUTES}.
+     */
+    private void awaitActivation(@Nullable final String lastModificationBefore) {
+        boolean active = new Expectation<Object>() {
+            @Override
+            protected Outcome fulfill() {
+                try {
+                    JSONObject bundle = getBundleState();
+                    if (bundle == null) {
+                        return Outcome.RETRY;
+                    }
+                    lastState = bundle.optString("state", "unknown");
+                    boolean updated = isSameVersion(version, bundle.optString("version")) &&
+                            (lastModificationBefore == null || !lastModificationBefore.equals(lastModification(bundle)));
+                    boolean started = "Active".equals(lastState) || bundle.optBoolean("fragment") && "Fragment".equals(lastState);
+                    return updated && started ? Outcome.FULFILLED : Outcome.RETRY;
+                } catch (UnirestException e) {
+                    return Outcome.RETRY;
+                }
+            }
+        }.polling(ACTIVATION_POLLING).within(MAX_ACTIVATION_TIME_IN_MINUTES, MINUTES);
+
+        if (!active) {
+            throw new HttpActionFailureException("The bundle " + symbolicName + " " + version + " was not active within " +
+                    MAX_ACTIVATION_TIME_IN_MINUTES + " minutes after its installation, its last known state is " + lastState + ".");
+        }
+    }
+
+    /**
+     * @return the details of the installed bundle with the symbolic name, or <code>null</code> if no such bundle is installed.
+     */
+    @Nullable
+    private JSONObject getBundleState() throws UnirestException {
+        HttpResponse<JsonNode> response = getConfiguration().getClient().get("/system/console/bundles/" + symbolicName + ".json").asJson();
+        getConfiguration().getClient().checkAuthentication(response);
+        if (response.getStatus() == 404) {
+            return null;
+        }
+        if (response.getStatus() != 200 || response.getParsingError().isPresent()) {
+            throw new UnirestException("Unable to retrieve the state of bundle " + symbolicName + ", AEM responded " + response.getStatusText() + ".");
+        }
+        JSONArray data = response.getBody().getObject().optJSONArray("data");
+        return data == null || data.length() == 0 ? null : data.getJSONObject(0);
+    }
+
+    /**
+     * The web console reports the normalized bundle version, e.g. <code>1.0.0</code> for a bundle declaring <code>Bundle-Version: 1.0</code>.
+     *
+     * @return whether the given versions are equal according to the OSGi version syntax, i.e. major.minor.micro.qualifier with
+     * missing numeric parts being 0.
+     */
+    static boolean isSameVersion(@NotNull String declared, @NotNull String reported) {
+        return normalize(declared).equals(normalize(reported));
+    }
+
+    /**
+     * @return the given version as major.minor.micro[.qualifier], or the trimmed version if it does not follow the OSGi version syntax.
+     */
+    @NotNull
+    private static String normalize(@NotNull String version) {
+        String trimmed = version.trim();
+        String[] parts = trimmed.split("\\.", 4);
+        int[] numbers = new int[3];
+        try {
+            for (int i = 0; i < min(parts.length, 3); ++i) {
+                numbers[i] = Integer.parseInt(parts[i]);
+                if (numbers[i] < 0) {
+                    return trimmed;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return trimmed;
+        }
+        String qualifier = parts.length == 4 ? parts[3] : "";
+        return numbers[0] + "." + numbers[1] + "." + numbers[2] + (qualifier.isEmpty() ? "" : "." + qualifier);
+    }
+
+    /**
+     * @return the "Last Modification" property of the given bundle details, or <code>null</code>.
+     */
+    @Nullable
+    private static String lastModification(@Nullable JSONObject bundle) {
+        JSONArray properties = bundle == null ? null : bundle.optJSONArray("props");
+        if (properties == null) {
+            return null;
+        }
+        for (int i = 0; i < properties.length(); ++i) {
+            JSONObject property = properties.optJSONObject(i);
+            if (property != null && "Last Modification".equals(property.optString("key"))) {
+                return String.valueOf(property.opt("value"));
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAccepted(@NotNull HttpResponse<String> response) {
+        return response.getStatus() == 200 || response.getStatus() == 302 || response.getStatus() == 303;
+    }
+}
@@ -15,64 +15,88 @@ package com.unic.maven.plugins.aem.core.httpactions;
 import org.apache.http.client.utils.URIBuilder;
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpResponse;
-import unirest.Unirest;
+import unirest.RawResponse;
 import unirest.UnirestException;
 
 import java.io.File;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static java.util.regex.Pattern.compile;
+import static com.unic.maven.plugins.aem.util.AemHttpClient.LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS;
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
 
 /**
  * Installs a package using the console interface rather than the JSON interface in order to determine
- * the success of the installation via the log data provided in the returned HTML.
+ * the success of the installation via the log data provided in the returned HTML. The log is parsed while it is
+ * received, thus the memory consumption does not depend on the size of the package.
  */
-public class InstallPackageAction extends RetryableHttpAction<String, String> {
-    private final Pattern errorMessagePattern = compile("<b>E<[\\\\]?/b>&nbsp;(?<path>[^ ]+) \\((?<errorMessage>(?s).*?)\\)<[\\\\]?/span>");
+public class InstallPackageAction extends RetryableHttpAction<InstallationLog, String> {
     private final String packagePath;
     private final boolean deploySubpackages;
-    private final File file;
+    private final String name;
     private final int deploySaveThreshold;
 
     public InstallPackageAction(Configuration configuration, File file, String packagePath, boolean deploySubpackages,
                                 int deploySaveThreshold) {
+        this(configuration, file.toString(), packagePath, deploySubpackages, deploySaveThreshold);
+    }
+
+    /**
+     * @param name describes the installed package in log messages, e.g. the path of a subpackage.
+     */
+    public InstallPackageAction(Configuration configuration, String name, String packagePath, boolean deploySubpackages,
+                                int deploySaveThreshold) {
         super(configuration);
-        this.file = file;
+        this.name = name;
         this.packagePath = packagePath;
         this.deploySubpackages = deploySubpackages;
         this.deploySaveThreshold = deploySaveThreshold;
     }
 
     @Override
-    protected boolean hasUnrecoverableError(@NotNull HttpResponse<String> response) {
-        String body = response.getBody();
-        return body == null || body.contains("with errors") || !body.contains("Package imported");
+    protected boolean hasUnrecoverableError(@NotNull HttpResponse<InstallationLog> response) {
+        InstallationLog log = response.getBody();
+        return log == null || !log.isSuccessful();
+    }
+
+    @NotNull
+    @Override
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.INSTALL;
+    }
+
+    @NotNull
+    @Override
+    protected String subject() {
+        return name.substring(max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar)) + 1);
     }
 
     @NotNull
     @Override
     protected String startMessage() {
-        return "Installing " + file + (deploySubpackages ? " and its subpackages, if any, on " + getConfiguration().getServerUri() + "..." : "...");
+        return "Installing " + name + (deploySubpackages ? " and its subpackages, if any, on " + getConfiguration().getServerUri() + "..." : "...");
     }
 
     @NotNull
     @Override
-    protected String successMessage(@NotNull HttpResponse<String> response) {
-        return "Successfully installed " + file + ".";
+    protected String successMessage(@NotNull HttpResponse<InstallationLog> response) {
+        return "Successfully installed " + name + ".";
     }
 
     @NotNull
     @Override
     protected String failureMessage(@NotNull String cause) {
-        return "Failed to install " + file + ", AEM responded: " + cause;
+        return "Failed to install " + name + ", AEM responded: " + cause;
     }
 
     @NotNull
     @Override
-    protected String failureMessage(@NotNull HttpResponse<String> response) {
-        Matcher m = errorMessagePattern.matcher(response.getBody());
+    protected String failureMessage(@NotNull HttpResponse<InstallationLog> response) {
+        InstallationLog log = response.getBody();
         StringBuilder failureMessage = new StringBuilder(1024);
 
         failureMessage.append("Package manager response: ")
@@ -80,18 +104,18 @@ public class InstallPackageAction extends RetryableHttpAction<String, String> {
                 .append(": \n")
                 .append("Errors reported in package manager response:\n");
 
-        boolean found = false;
-        while (m.find()) {
-            failureMessage.append(m.group("path")).append(": ")
-                    .append(
-                            m.group("errorMessage")
-                                    .replaceAll("[\n\r]]", " --- "))
-                    .append("\n\n");
-            found = true;
-        }
-
-        if (!found) {
-            failureMessage.append("None - full package manager response:\n\n").append(response.getBody());
+        if (log == null) {
+            failureMessage.append("None - the package manager response could not be read.");
+        } else if (log.getErrors().isEmpty()) {
+            failureMessage.append("None - last ").append(log.getTail().length()).append(" of ").append(log.getCharacters())
+                    .append(" characters of the package manager response:\n\n").append(log.getTail());
+        } else {
+            for (String error : log.getErrors()) {
+                failureMessage.append(error).append("\n\n");
+            }
+            if (log.getOmittedErrors() != 0) {
+                failureMessage.append("... and ").append(log.getOmittedErrors()).append(" more errors.\n");
+            }
         }
 
         return failureMessage.toString();
@@ -99,19 +123,28 @@ public class InstallPackageAction extends RetryableHttpAction<String, String> {
 
     @NotNull
     @Override
-    protected HttpResponse<String> perform() throws UnirestException {
-        if (!packageManagerApiIsAvailable(getConfiguration()).within(getTotalBackoffTimeInSeconds(), SECONDS)) {
-            throw new HttpActionFailureException("Unable to install " + file + " - the package manager API was unavailable for "
-                    + getTotalBackoffTimeInSeconds() + " seconds.");
-        }
+    protected HttpResponse<InstallationLog> perform() throws UnirestException {
+        awaitPackageManagerApi("install " + name);
 
-        String url = new URIBuilder(getConfiguration().getServerUri()).setPath("/crx/packmgr/service/console.html" + packagePath)
+        String path = new URIBuilder().setPath("/crx/packmgr/service/console.html" + packagePath)
                 .addParameter("cmd", "install").toString();
 
-        return Unirest.post(url)
+        // The response is only complete once the package is installed.
+        return getConfiguration().getClient().post(path)
+                .socketTimeout(LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS)
                 .field("autosave", deploySaveThreshold)
                 .field("recursive", Boolean.toString(deploySubpackages))
-                .basicAuth("admin", getConfiguration().getPassword()).asString();
+                .asObject(this::parseInstallationLog);
+    }
 
+    @NotNull
+    private InstallationLog parseInstallationLog(@NotNull RawResponse response) {
+        Charset charset = isEmpty(response.getCharSet()) ? UTF_8 : Charset.forName(response.getCharSet());
+        try (Reader reader = new InputStreamReader(response.getContent(), charset)) {
+            return InstallationLog.parse(reader, subject(), getConfiguration().getLog());
+        } catch (IOException e) {
+            // E.g. the connection was reset while the installation log was streamed - re-try.
+            throw new UnirestException(e);
+        }
     }
 }
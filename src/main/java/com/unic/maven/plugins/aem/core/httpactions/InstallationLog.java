@@ -0,0 +1,243 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.apache.commons.logging.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.regex.Pattern.compile;
+
+/**
+ * The outcome of a package installation, parsed incrementally from the HTML log returned by the package manager console.
+ * The log of a large content package can be hundreds of megabytes, thus only a bounded amount of it is retained: the error
+ * entries (<code>E</code>), up to a maximum number, and the tail of the log for diagnostic purposes.
+ */
+class InstallationLog {
+    private static final String[] ENTRY_MARKERS = {"</b>&nbsp;", "<\\/b>&nbsp;"};
+    private static final String[] ERROR_START_MARKERS = {"<b>E</b>&nbsp;", "<b>E<\\/b>&nbsp;"};
+    private static final String[] ERROR_END_MARKERS = {"</span>", "<\\/span>"};
+    private static final String SUCCESS_MARKER = "Package imported";
+    private static final String FAILURE_MARKER = "with errors";
+    private static final int MAX_MARKER_LENGTH = 16;
+
+    private static final Pattern ERROR_ENTRY_PATTERN = compile("(?<path>[^ ]+) \\((?<errorMessage>(?s).*)\\)");
+    private static final int MAX_ERRORS = 100;
+    private static final int MAX_ERROR_LENGTH = 4 * 1024;
+    private static final int MAX_TAIL_LENGTH = 8 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final long REPORTING_INTERVAL_IN_NANOS = SECONDS.toNanos(10);
+
+    private final String name;
+    private final Log log;
+    private final StringBuilder pending = new StringBuilder(CHUNK_SIZE + MAX_MARKER_LENGTH);
+    private final StringBuilder tail = new StringBuilder(MAX_TAIL_LENGTH + CHUNK_SIZE);
+    private final List<String> errors = new ArrayList<>();
+
+    private StringBuilder currentError = null;
+    private int scanned = 0;
+    private boolean imported = false, withErrors = false;
+    private long characters = 0, entries = 0, omittedErrors = 0;
+    private long lastReportAt = nanoTime();
+
+    /**
+     * Consumes the entire log from the given reader.
+     *
+     * @param name the name of the installed package, used for progress reporting. Must not be <code>null</code>.
+     * @return never <code>null</code>.
+     */
+    @NotNull
+    static InstallationLog parse(@NotNull Reader reader, @NotNull String name, @NotNull Log log) throws IOException {
+        InstallationLog installationLog = new InstallationLog(name, log);
+        char[] chunk = new char[CHUNK_SIZE];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            installationLog.consume(chunk, read);
+        }
+        installationLog.finish();
+        return installationLog;
+    }
+
+    private InstallationLog(String name, Log log) {
+        this.name = name;
+        this.log = log;
+    }
+
+    private void consume(char[] chunk, int length) {
+        characters += length;
+        pending.append(chunk, 0, length);
+        tail.append(chunk, 0, length);
+        if (tail.length() > MAX_TAIL_LENGTH) {
+            tail.delete(0, tail.length() - MAX_TAIL_LENGTH);
+        }
+
+        // The success and failure markers are flags, i.e. matching them again in the retained overlap is harmless.
+        imported |= pending.indexOf(SUCCESS_MARKER) != -1;
+        withErrors |= pending.indexOf(FAILURE_MARKER) != -1;
+        scanErrors();
+        countEntries();
+
+        // Retain enough characters to find markers spanning chunk boundaries.
+        int retainFrom = max(0, min(scanned, pending.length() - (MAX_MARKER_LENGTH - 1)));
+        pending.delete(0, retainFrom);
+        scanned -= retainFrom;
+
+        reportProgress();
+    }
+
+    private void scanErrors() {
+        while (true) {
+            if (currentError == null) {
+                int[] start = indexOfAny(ERROR_START_MARKERS, scanned);
+                if (start == null) {
+                    scanned = max(scanned, pending.length() - (MAX_MARKER_LENGTH - 1));
+                    return;
+                }
+                currentError = new StringBuilder();
+                scanned = start[0] + start[1];
+            }
+
+            int[] end = indexOfAny(ERROR_END_MARKERS, scanned);
+            if (end == null) {
+                int consumable = max(scanned, pending.length() - (MAX_MARKER_LENGTH - 1));
+                appendToCurrentError(scanned, consumable);
+                scanned = consumable;
+                return;
+            }
+            appendToCurrentError(scanned, end[0]);
+            completeCurrentError();
+            scanned = end[0] + end[1];
+        }
+    }
+
+    private void countEntries() {
+        // Entries are counted in the part of the buffer that is not retained, such that no entry is counted twice.
+        int limit = pending.length() - (MAX_MARKER_LENGTH - 1);
+        for (String marker : ENTRY_MARKERS) {
+            int index = pending.indexOf(marker);
+            while (index != -1 && index < limit) {
+                ++entries;
+                index = pending.indexOf(marker, index + marker.length());
+            }
+        }
+    }
+
+    private void finish() {
+        // Everything that is still pending was not counted nor scanned yet.
+        for (String marker : ENTRY_MARKERS) {
+            int from = max(0, pending.length() - (MAX_MARKER_LENGTH - 1));
+            int index = pending.indexOf(marker, from);
+            while (index != -1) {
+                ++entries;
+                index = pending.indexOf(marker, index + marker.length());
+            }
+        }
+        if (currentError != null) {
+            appendToCurrentError(scanned, pending.length());
+            completeCurrentError();
+        }
+        pending.setLength(0);
+    }
+
+    private void appendToCurrentError(int from, int to) {
+        int length = min(to - from, MAX_ERROR_LENGTH - currentError.length());
+        if (length > 0) {
+            currentError.append(pending, from, from + length);
+        }
+    }
+
+    private void completeCurrentError() {
+        if (errors.size() < MAX_ERRORS) {
+            Matcher m = ERROR_ENTRY_PATTERN.matcher(currentError);
+            errors.add(m.matches() ?
+                    m.group("path") + ": " + m.group("errorMessage").replaceAll("[\n\r]", " --- ") :
+                    currentError.toString());
+        } else {
+            ++omittedErrors;
+        }
+        currentError = null;
+    }
+
+    /**
+     * @return the start index and the length of the first occurrence of any of the markers, or <code>null</code>.
+     */
+    private int[] indexOfAny(String[] markers, int from) {
+        int[] first = null;
+        for (String marker : markers) {
+            int index = pending.indexOf(marker, from);
+            if (index != -1 && (first == null || index < first[0])) {
+                first = new int[]{index, marker.length()};
+            }
+        }
+        return first;
+    }
+
+    private void reportProgress() {
+        long now = nanoTime();
+        if (now - lastReportAt < REPORTING_INTERVAL_IN_NANOS) {
+            return;
+        }
+        lastReportAt = now;
+        log.info("Installing " + name + ": " + entries + " entries processed, " + formatByteCount(characters) + " of installation log received" +
+                (errors.isEmpty() ? "." : ", " + (errors.size() + omittedErrors) + " errors reported so far."));
+    }
+
+    /**
+     * @return whether the package manager reported a successful import without errors.
+     */
+    boolean isSuccessful() {
+        return imported && !withErrors;
+    }
+
+    /**
+     * @return the error entries reported by the package manager, up to a maximum number. Never <code>null</code>.
+     */
+    @NotNull
+    List<String> getErrors() {
+        return unmodifiableList(errors);
+    }
+
+    /**
+     * @return the number of error entries exceeding the maximum number of retained errors.
+     */
+    long getOmittedErrors() {
+        return omittedErrors;
+    }
+
+    /**
+     * @return the last characters of the log. Never <code>null</code>.
+     */
+    @NotNull
+    String getTail() {
+        return tail.toString();
+    }
+
+    /**
+     * @return the total number of characters of the log.
+     */
+    long getCharacters() {
+        return characters;
+    }
+}
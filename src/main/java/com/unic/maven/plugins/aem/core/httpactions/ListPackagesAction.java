@@ -0,0 +1,169 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import unirest.HttpResponse;
+import unirest.UnirestException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * Retrieves the packages known to the package manager, keyed by their path, e.g. <code>/etc/packages/group/name-1.0.zip</code>.
+ */
+public class ListPackagesAction extends RetryableHttpAction<String, Map<String, ListPackagesAction.InstalledPackage>> {
+
+    public ListPackagesAction(Configuration configuration) {
+        super(configuration);
+    }
+
+    @NotNull
+    @Override
+    protected String startMessage() {
+        return "Retrieving the packages known to " + getConfiguration().getServerUri() + "...";
+    }
+
+    @Nullable
+    @Override
+    protected String successMessage(@NotNull HttpResponse<String> response) {
+        return null;
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull String cause) {
+        return "Unable to list the packages, AEM responded: " + cause;
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull HttpResponse<String> response) {
+        return "Unable to list the packages. AEM responded " + response.getStatusText() + ".";
+    }
+
+    @NotNull
+    @Override
+    protected Map<String, InstalledPackage> result(@NotNull HttpResponse<String> response) {
+        Document document;
+        try {
+            // The response is not trusted any more than a package, thus neither resolve external DTDs or entities nor allow document type declarations.
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(response.getBody())));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new HttpActionFailureException(failureMessage("Unable to parse the package list: " + e.getMessage()));
+        }
+
+        Map<String, InstalledPackage> packages = new HashMap<>();
+        NodeList packageElements = document.getElementsByTagName("package");
+        for (int i = 0; i < packageElements.getLength(); ++i) {
+            Element element = (Element) packageElements.item(i);
+            String group = text(element, "group");
+            String path = "/etc/packages/" + (isEmpty(group) ? "" : group + '/') + text(element, "downloadName");
+            packages.put(path, new InstalledPackage(
+                    path,
+                    group,
+                    text(element, "name"),
+                    parseSize(text(element, "size")),
+                    !isEmpty(text(element, "lastUnpacked"))));
+        }
+        return packages;
+    }
+
+    @NotNull
+    @Override
+    protected HttpResponse<String> perform() throws UnirestException {
+        awaitPackageManagerApi("list the packages");
+
+        return getConfiguration().getClient().get("/crx/packmgr/service.jsp?cmd=ls").asString();
+    }
+
+    @NotNull
+    private static String text(@NotNull Element element, @NotNull String childName) {
+        NodeList children = element.getElementsByTagName(childName);
+        return children.getLength() == 0 ? "" : children.item(0).getTextContent().trim();
+    }
+
+    private static long parseSize(@NotNull String size) {
+        try {
+            return Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A package known to the package manager.
+     */
+    public static class InstalledPackage {
+        private final String path;
+        private final String group;
+        private final String name;
+        private final long size;
+        private final boolean installed;
+
+        InstalledPackage(String path, String group, String name, long size, boolean installed) {
+            this.path = path;
+            this.group = group;
+            this.name = name;
+            this.size = size;
+            this.installed = installed;
+        }
+
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        @NotNull
+        public String getGroup() {
+            return group;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the size of the package binary in bytes, or -1 if unknown.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return whether the package was installed (unpacked), as opposed to being uploaded only.
+         */
+        public boolean isInstalled() {
+            return installed;
+        }
+    }
+}
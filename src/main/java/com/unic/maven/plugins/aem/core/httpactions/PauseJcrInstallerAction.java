@@ -14,7 +14,6 @@ package com.unic.maven.plugins.aem.core.httpactions;
 
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpResponse;
-import unirest.Unirest;
 import unirest.UnirestException;
 
 
@@ -33,6 +32,15 @@ public class PauseJcrInstallerAction extends RetryableHttpAction<String, String>
         return "Trying to pause the JCR installer...";
     }
 
+    /**
+     * The JCR installer is paused and resumed around each deployment. Pausing it must not be rejected by, or open, the circuit that the
+     * actual deployment relies on.
+     */
+    @Override
+    protected boolean usesCircuitBreaker() {
+        return false;
+    }
+
     @Override
     protected boolean hasRecoverableError(HttpResponse<String> response) {
         int status = response.getStatus();
@@ -69,7 +77,7 @@ public class PauseJcrInstallerAction extends RetryableHttpAction<String, String>
     @NotNull
     @Override
     protected HttpResponse<String> perform() throws UnirestException {
-        return Unirest.post(getConfiguration().getServerUri() + "/system/sling")
+        return getConfiguration().getClient().post("/system/sling")
             .field(":operation", "import")
             .field(":contentType", "json")
             .field(":content", "{\n" +
@@ -86,6 +94,6 @@ public class PauseJcrInstallerAction extends RetryableHttpAction<String, String>
                     "    }\n" +
                     "  }\n" +
                     "}")
-            .basicAuth("admin", getConfiguration().getPassword()).asString();
+            .asString();
     }
 }
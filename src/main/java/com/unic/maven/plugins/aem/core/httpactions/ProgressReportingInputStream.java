@@ -0,0 +1,114 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.apache.commons.logging.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Counts the bytes read from a stream of known length and periodically logs the progress, throughput and estimated
+ * remaining time. Used to report the progress of package uploads. Reading fails once the uploading thread was interrupted,
+ * which aborts the upload rather than transferring the remainder of the file.
+ */
+class ProgressReportingInputStream extends FilterInputStream {
+    private static final long REPORTING_INTERVAL_IN_NANOS = SECONDS.toNanos(10);
+
+    private final String name;
+    private final long length;
+    private final Log log;
+    private final long startedAt = nanoTime();
+
+    private long bytesRead = 0;
+    private long lastReportAt = startedAt;
+
+    ProgressReportingInputStream(@NotNull InputStream in, @NotNull String name, long length, @NotNull Log log) {
+        super(in);
+        this.name = name;
+        this.length = length;
+        this.log = log;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            advance(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            advance(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        advance(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    long getElapsedTimeInMillis() {
+        return NANOSECONDS.toMillis(nanoTime() - startedAt);
+    }
+
+    /**
+     * @return the average throughput in bytes per second since the stream was opened.
+     */
+    long getBytesPerSecond() {
+        long elapsedNanos = nanoTime() - startedAt;
+        return elapsedNanos == 0 ? 0 : (long) (bytesRead / (elapsedNanos / (double) SECONDS.toNanos(1)));
+    }
+
+    private void advance(long bytes) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The upload of " + name + " was interrupted.");
+        }
+        bytesRead += bytes;
+        long now = nanoTime();
+        if (now - lastReportAt < REPORTING_INTERVAL_IN_NANOS) {
+            return;
+        }
+        lastReportAt = now;
+
+        long bytesPerSecond = getBytesPerSecond();
+        String eta = bytesPerSecond == 0 ? "unknown" : ((length - bytesRead) / bytesPerSecond) + " seconds";
+        log.info("Uploading " + name + ": " + formatByteCount(bytesRead) + " of " + formatByteCount(length) +
+                " (" + (length == 0 ? 100 : bytesRead * 100 / length) + "%) at " + formatByteCount(bytesPerSecond) + "/s, " +
+                "remaining time: " + eta + ".");
+    }
+}
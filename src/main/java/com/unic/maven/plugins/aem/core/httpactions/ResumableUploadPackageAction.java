@@ -0,0 +1,300 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.unic.maven.plugins.aem.util.Expectation;
+import com.unic.maven.plugins.aem.util.PollingProfile;
+import org.apache.http.entity.ContentType;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import unirest.HttpResponse;
+import unirest.JsonNode;
+import unirest.UnirestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.regex.Pattern;
+
+import static com.unic.maven.plugins.aem.util.AemHttpClient.LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS;
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.regex.Pattern.compile;
+import static java.util.regex.Pattern.quote;
+
+/**
+ * Uploads a package in chunks to a staging location in the repository using the chunked upload support of the Sling POST servlet,
+ * and moves the completely uploaded package to its location in <code>/etc/packages</code>, from which the package manager
+ * installs it. The repository tracks the number of bytes received, thus an interrupted upload is resumed from the last
+ * acknowledged chunk instead of re-sending the entire package. This applies both to re-tries of a failed chunk and to
+ * re-tries of the entire action, or even subsequent deployments of the same file.
+ * <p>
+ * Staged uploads are identified by the digest and name of the file. Staged uploads of a previous version of the file, i.e. with the
+ * same name but a different digest, can never be resumed and are deleted before the upload starts.
+ * </p>
+ */
+public class ResumableUploadPackageAction extends RetryableHttpAction<String, String> {
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final String STAGING_PATH = "/var/aem-maven-plugin/uploads";
+    private static final int MAX_RECONNECT_TIME_IN_MINUTES = 2;
+    private static final long REPORTING_INTERVAL_IN_NANOS = SECONDS.toNanos(10);
+
+    private final File file;
+    private final String packagePath;
+    private final String stagingName;
+    private final int chunkSize;
+    private long transferredBytes = 0;
+    private long resumedAt = -1;
+    private boolean staleUploadsDeleted = false;
+
+    /**
+     * @param packagePath the path the package manager stores the package at, e.g. <code>/etc/packages/group/name-1.0.zip</code>.
+     * @param digest      the digest of the file. Identifies the staged upload, such that only an upload of the same content is resumed.
+     * @param chunkSize   the number of bytes uploaded per request. Up to one chunk is re-sent after a failure.
+     */
+    public ResumableUploadPackageAction(Configuration configuration, File file, String packagePath, String digest, int chunkSize) {
+        super(configuration);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be greater than 0, got " + chunkSize + ".");
+        }
+        this.file = file;
+        this.packagePath = packagePath;
+        this.stagingName = digest.substring(0, min(16, digest.length())) + '-' + file.getName();
+        this.chunkSize = chunkSize;
+    }
+
+    @NotNull
+    @Override
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.UPLOAD;
+    }
+
+    @NotNull
+    @Override
+    protected String subject() {
+        return file.getName();
+    }
+
+    @Override
+    protected long transferredBytes() {
+        return transferredBytes;
+    }
+
+    @Override
+    protected String result(@NotNull HttpResponse<String> response) {
+        return packagePath;
+    }
+
+    @Override
+    protected boolean hasUnrecoverableError(@NotNull HttpResponse<String> response) {
+        return response.getStatus() != 200 && response.getStatus() != 201;
+    }
+
+    @NotNull
+    @Override
+    protected String startMessage() {
+        return "Uploading " + file + " to " + getConfiguration().getServerUri() + " in chunks of " + formatByteCount(chunkSize) + "...";
+    }
+
+    @NotNull
+    @Override
+    protected String successMessage(@NotNull HttpResponse<String> response) {
+        return "Successfully uploaded " + file.getAbsolutePath() + " to " + packagePath + " (" + formatByteCount(transferredBytes) + " transferred" +
+                (resumedAt > 0 ? ", resumed at " + formatByteCount(resumedAt) + ")" : ")");
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull String cause) {
+        return "Failed to upload " + file + ", AEM responded: " + cause;
+    }
+
+    @NotNull
+    @Override
+    protected String failureMessage(@NotNull HttpResponse<String> response) {
+        return failureMessage(response.getStatus() + " " + response.getStatusText());
+    }
+
+    @NotNull
+    @Override
+    protected HttpResponse<String> perform() throws UnirestException, InterruptedException {
+        awaitPackageManagerApi("upload " + file);
+        if (!staleUploadsDeleted) {
+            deleteStaleUploads();
+            staleUploadsDeleted = true;
+        }
+
+        long length = file.length();
+        long offset = getStagedBytes();
+        if (offset > 0 && offset < length) {
+            resumedAt = offset;
+            getConfiguration().getLog().info("Resuming the upload of " + file.getName() + " at " + formatByteCount(offset) + " of " + formatByteCount(length) + ".");
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] chunk = new byte[(int) min(chunkSize, length)];
+            long lastReportAt = nanoTime();
+            int consecutiveFailures = 0, maxConsecutiveFailures = getRetryPolicy().getMaxRetries(RetryPolicy.Failure.TRANSIENT);
+            while (offset < length) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("The upload of " + file.getName() + " was interrupted.");
+                }
+                int chunkLength = (int) min(chunk.length, length - offset);
+                in.seek(offset);
+                in.readFully(chunk, 0, chunkLength);
+                try {
+                    uploadChunk(chunk, chunkLength, offset, length);
+                    offset += chunkLength;
+                    transferredBytes += chunkLength;
+                    consecutiveFailures = 0;
+                } catch (UnirestException e) {
+                    if (++consecutiveFailures > maxConsecutiveFailures) {
+                        throw e;
+                    }
+                    // The chunk may have been received despite the failure, thus continue with what the repository acknowledges.
+                    offset = awaitStagedBytes();
+                    getConfiguration().getLog().info("Failed to upload a chunk of " + file.getName() + ": " + e.getMessage() +
+                            ", resuming at " + formatByteCount(offset) + " (" + consecutiveFailures + " / " + maxConsecutiveFailures + ")...");
+                    continue;
+                }
+
+                long now = nanoTime();
+                if (now - lastReportAt >= REPORTING_INTERVAL_IN_NANOS) {
+                    lastReportAt = now;
+                    getConfiguration().getLog().info("Uploading " + file.getName() + ": " + formatByteCount(offset) + " of " + formatByteCount(length) +
+                            " (" + (offset * 100 / length) + "%)");
+                }
+            }
+        } catch (IOException e) {
+            throw new HttpActionFailureException("Unable to read " + file + ": " + e.getMessage());
+        }
+
+        long stagedBytes = getStagedBytes();
+        if (stagedBytes != length) {
+            // The staged file is corrupt, e.g. since the file changed while it was uploaded. Start over with the next attempt.
+            getConfiguration().getClient().post(STAGING_PATH + '/' + stagingName).field(":operation", "delete").asString();
+            throw new UnirestException("The uploaded file has " + stagedBytes + " bytes, but " + file + " has " + length + " bytes.");
+        }
+
+        ensureFolderExists(packagePath.substring(0, packagePath.lastIndexOf('/')));
+        return getConfiguration().getClient().post(STAGING_PATH + '/' + stagingName)
+                .field(":operation", "move")
+                .field(":dest", packagePath)
+                .field(":replace", "true")
+                .asString();
+    }
+
+    private void uploadChunk(byte[] chunk, int chunkLength, long offset, long length) throws UnirestException {
+        HttpResponse<String> response = getConfiguration().getClient().post(STAGING_PATH)
+                .socketTimeout(LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS)
+                .field(stagingName + "@Offset", Long.toString(offset))
+                .field(stagingName + "@Length", Long.toString(length))
+                .field(stagingName, new ByteArrayInputStream(chunk, 0, chunkLength), ContentType.APPLICATION_OCTET_STREAM, stagingName)
+                .asString();
+        if (response.getStatus() != 200 && response.getStatus() != 201) {
+            throw new UnirestException("The chunk at " + offset + " was rejected with " + response.getStatus() + " " + response.getStatusText());
+        }
+    }
+
+    /**
+     * @return the number of bytes of the staged file acknowledged by the repository, i.e. the offset to resume the upload at.
+     */
+    private long getStagedBytes() throws UnirestException {
+        HttpResponse<JsonNode> response = getConfiguration().getClient().get(STAGING_PATH + '/' + stagingName + ".1.json").asJson();
+        getConfiguration().getClient().checkAuthentication(response);
+        if (response.getStatus() == 404) {
+            return 0;
+        }
+        if (response.getStatus() != 200 || response.getParsingError().isPresent()) {
+            throw new UnirestException("Unable to retrieve the state of the staged upload, AEM responded " + response.getStatus() + " " + response.getStatusText());
+        }
+        JSONObject content = response.getBody().getObject().optJSONObject("jcr:content");
+        if (content == null) {
+            return 0;
+        }
+        if (content.has("sling:length")) {
+            // The upload is incomplete: The jcr:content node has the sling:chunks mixin and holds the received chunks as child nodes,
+            // while its jcr:data remains empty until the last chunk was received.
+            return content.getLong("sling:length");
+        }
+        // The upload is complete, Sling renders the length of binary properties.
+        return content.optLong(":jcr:data", 0);
+    }
+
+    /**
+     * Deletes the staged uploads of other versions of the file. Failures are logged, as they do not affect the upload.
+     */
+    private void deleteStaleUploads() {
+        Pattern staleName = compile("[0-9a-fA-F]+-" + quote(file.getName()));
+        try {
+            HttpResponse<JsonNode> response = getConfiguration().getClient().get(STAGING_PATH + ".1.json").asJson();
+            getConfiguration().getClient().checkAuthentication(response);
+            if (response.getStatus() != 200 || response.getParsingError().isPresent()) {
+                return;
+            }
+            JSONObject staged = response.getBody().getObject();
+            for (String name : staged.keySet()) {
+                if (name.equals(stagingName) || !staleName.matcher(name).matches() || staged.optJSONObject(name) == null) {
+                    continue;
+                }
+                HttpResponse<String> deletion = getConfiguration().getClient().post(STAGING_PATH + '/' + name)
+                        .field(":operation", "delete")
+                        .asString();
+                if (deletion.getStatus() == 200) {
+                    getConfiguration().getLog().info("Deleted the staged upload " + name + " of a previous version of " + file.getName() + ".");
+                }
+            }
+        } catch (UnirestException | JSONException e) {
+            getConfiguration().getLog().debug("Unable to delete the stale staged uploads of " + file.getName() + ".", e);
+        }
+    }
+
+    /**
+     * Waits until the state of the staged upload can be retrieved again, e.g. after a network interruption.
+     */
+    private long awaitStagedBytes() throws UnirestException {
+        final long[] stagedBytes = {0};
+        boolean available = new Expectation<Object>() {
+            @Override
+            protected Outcome fulfill() {
+                try {
+                    stagedBytes[0] = getStagedBytes();
+                    return Outcome.FULFILLED;
+                } catch (UnirestException e) {
+                    return Outcome.RETRY;
+                }
+            }
+        }.polling(PollingProfile.RESPONSIVE).within(MAX_RECONNECT_TIME_IN_MINUTES, MINUTES);
+
+        if (!available) {
+            throw new UnirestException("The state of the staged upload of " + file.getName() + " was unavailable for " +
+                    MAX_RECONNECT_TIME_IN_MINUTES + " minutes.");
+        }
+        return stagedBytes[0];
+    }
+
+    private void ensureFolderExists(@NotNull String path) throws UnirestException {
+        if (getConfiguration().getClient().get(path + ".json").asString().getStatus() != 404) {
+            return;
+        }
+        HttpResponse<String> response = getConfiguration().getClient().post(path).field("jcr:primaryType", "sling:Folder").asString();
+        if (response.getStatus() != 200 && response.getStatus() != 201) {
+            throw new UnirestException("Unable to create the package folder " + path + ", AEM responded " + response.getStatus() + " " + response.getStatusText());
+        }
+    }
+}
@@ -14,13 +14,16 @@ package com.unic.maven.plugins.aem.core.httpactions;
 
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpResponse;
-import unirest.Unirest;
 import unirest.UnirestException;
 
+import static java.lang.Math.max;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 /**
  * Resumes the JCR installer by deleting the "do not install signal" content (AEM 6+)
  */
 public class ResumeJcrInstallerAction extends RetryableHttpAction<String, String> {
+    private static final long MIN_BASE_DELAY_IN_MILLIS = SECONDS.toMillis(20);
 
     public ResumeJcrInstallerAction(Configuration configuration) {
         super(configuration);
@@ -53,9 +56,18 @@ public class ResumeJcrInstallerAction extends RetryableHttpAction<String, String
     @NotNull
     @Override
     protected HttpResponse<String> perform() throws UnirestException {
-        return Unirest.post(getConfiguration().getServerUri() + "/system/sling/installer")
+        return getConfiguration().getClient().post("/system/sling/installer")
                 .field(":operation", "delete")
-                .basicAuth("admin", getConfiguration().getPassword()).asString();
+                .asString();
+    }
+
+    /**
+     * The JCR installer is resumed after a failed deployment, too, which may have opened the circuit of the instance. The installer must
+     * not stay paused because of that, thus this action is attempted regardless of the circuit.
+     */
+    @Override
+    protected boolean usesCircuitBreaker() {
+        return false;
     }
 
     /**
@@ -63,10 +75,15 @@ public class ResumeJcrInstallerAction extends RetryableHttpAction<String, String
      * even a successful deletion is likely to receive a HTTP 500 response, as the system state changes before the deletion response
      * is created. This task thus needs to wait generously for the installed changes to be applied in order to make sure that the JCR
      * installer pause
-     * signal was indeed successfully removed.
+     * signal was indeed successfully removed. Unless a policy is configured for this action, the base delay is thus at least 20 seconds.
      */
+    @NotNull
     @Override
-    protected int getBasicBackoffTimeInSeconds() {
-        return 20;
+    protected RetryPolicy getRetryPolicy() {
+        RetryPolicy policy = super.getRetryPolicy();
+        if (getConfiguration().hasRetryPolicy(getClass()) || policy.getBaseDelayInMillis() >= MIN_BASE_DELAY_IN_MILLIS) {
+            return policy;
+        }
+        return policy.withDelays(MIN_BASE_DELAY_IN_MILLIS, policy.getBackoffFactor(), max(MIN_BASE_DELAY_IN_MILLIS, policy.getMaxDelayInMillis()));
     }
 }
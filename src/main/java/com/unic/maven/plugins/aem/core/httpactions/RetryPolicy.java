@@ -0,0 +1,241 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Defines how a {@link RetryableHttpAction} re-tries failures: Each re-try is preceded by a delay starting at the base delay and
+ * growing by the backoff factor up to the maximum delay, randomly varied by up to +/- the jitter fraction. Failures are
+ * {@link Failure classified}, and each kind of failure has its own number of re-tries. All attempts of an action, including the
+ * delays, must complete within the budget. If an instance is unreachable, the circuit breaker of the instance opens, and all actions
+ * on the instance fail immediately for the circuit open time.
+ * <p>
+ * Policies are immutable. A policy can be configured per instance and per action type, see
+ * {@link RetryableHttpAction.Configuration#withRetryPolicy(Class, RetryPolicy)}.
+ * </p>
+ */
+public class RetryPolicy {
+    /**
+     * The kind of a failure.
+     */
+    public enum Failure {
+        /**
+         * The instance could not be reached, e.g. the connection was refused. Occurs while an instance restarts, but also if it is down.
+         */
+        CONNECTION,
+        /**
+         * The instance was reached, but the request failed, e.g. due to a read timeout or a server error.
+         */
+        TRANSIENT,
+        /**
+         * The instance rejected the request, e.g. since the package is invalid. Re-trying does not help, thus such failures are not re-tried.
+         */
+        SEMANTIC
+    }
+
+    /**
+     * Re-tries three times after 10, 20 and 40 seconds, and waits up to 80 seconds for the package manager to become available.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(SECONDS.toMillis(10), 2, MINUTES.toMillis(2), 0.2, 3, 3,
+            MINUTES.toMillis(30), SECONDS.toMillis(80), MINUTES.toMillis(1));
+
+    private final long baseDelayInMillis;
+    private final double backoffFactor;
+    private final long maxDelayInMillis;
+    private final double jitter;
+    private final int maxTransientRetries;
+    private final int maxConnectionRetries;
+    private final long budgetInMillis;
+    private final long availabilityTimeoutInMillis;
+    private final long circuitOpenTimeInMillis;
+
+    private RetryPolicy(long baseDelayInMillis, double backoffFactor, long maxDelayInMillis, double jitter, int maxTransientRetries,
+                        int maxConnectionRetries, long budgetInMillis, long availabilityTimeoutInMillis, long circuitOpenTimeInMillis) {
+        if (baseDelayInMillis < 0 || backoffFactor < 1 || maxDelayInMillis < baseDelayInMillis || jitter < 0 || jitter > 1 ||
+                maxTransientRetries < 0 || maxConnectionRetries < 0 || budgetInMillis < 0 || availabilityTimeoutInMillis < 0 || circuitOpenTimeInMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry policy: base delay " + baseDelayInMillis + " ms, backoff factor " + backoffFactor +
+                    ", maximum delay " + maxDelayInMillis + " ms, jitter " + jitter + ", retries " + maxTransientRetries + " / " + maxConnectionRetries +
+                    ", budget " + budgetInMillis + " ms, availability timeout " + availabilityTimeoutInMillis + " ms, circuit open time " +
+                    circuitOpenTimeInMillis + " ms.");
+        }
+        this.baseDelayInMillis = baseDelayInMillis;
+        this.backoffFactor = backoffFactor;
+        this.maxDelayInMillis = maxDelayInMillis;
+        this.jitter = jitter;
+        this.maxTransientRetries = maxTransientRetries;
+        this.maxConnectionRetries = maxConnectionRetries;
+        this.budgetInMillis = budgetInMillis;
+        this.availabilityTimeoutInMillis = availabilityTimeoutInMillis;
+        this.circuitOpenTimeInMillis = circuitOpenTimeInMillis;
+    }
+
+    /**
+     * @param baseDelayInMillis the delay before the first re-try.
+     * @param backoffFactor     the factor by which the delay grows with each re-try, 1 for a fixed delay.
+     * @param maxDelayInMillis  the upper limit of the delay.
+     * @return a copy of this policy with the given delays, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withDelays(long baseDelayInMillis, double backoffFactor, long maxDelayInMillis) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param jitter the fraction, between 0 and 1, by which each delay is randomly varied.
+     * @return a copy of this policy with the given jitter, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withJitter(double jitter) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param maxTransientRetries  the maximum number of re-tries after {@link Failure#TRANSIENT transient} failures.
+     * @param maxConnectionRetries the maximum number of re-tries after {@link Failure#CONNECTION connection} failures.
+     * @return a copy of this policy with the given number of re-tries, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withRetries(int maxTransientRetries, int maxConnectionRetries) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param budgetInMillis the maximum time all attempts of an action may take, including the delays, or 0 for no limit.
+     * @return a copy of this policy with the given budget, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withBudget(long budgetInMillis) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param availabilityTimeoutInMillis the maximum time to wait for the package manager API to become available, e.g. during a restart.
+     * @return a copy of this policy with the given timeout, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withAvailabilityTimeout(long availabilityTimeoutInMillis) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param circuitOpenTimeInMillis the time for which all actions on an unreachable instance fail immediately, or 0 to disable
+     *                                the circuit breaker.
+     * @return a copy of this policy with the given circuit open time, never <code>null</code>.
+     */
+    @NotNull
+    public RetryPolicy withCircuitOpenTime(long circuitOpenTimeInMillis) {
+        return new RetryPolicy(baseDelayInMillis, backoffFactor, maxDelayInMillis, jitter, maxTransientRetries, maxConnectionRetries,
+                budgetInMillis, availabilityTimeoutInMillis, circuitOpenTimeInMillis);
+    }
+
+    /**
+     * @param throwable must not be <code>null</code>.
+     * @return whether the given exception signals a {@link Failure#CONNECTION connection} or a {@link Failure#TRANSIENT transient} failure.
+     */
+    @NotNull
+    static Failure classify(@NotNull Throwable throwable) {
+        Throwable cause = getRootCause(throwable);
+        // Refused connections, unreachable hosts and connect timeouts. HttpHostConnectException is a ConnectException.
+        if (cause instanceof ConnectException || cause instanceof NoRouteToHostException ||
+                cause instanceof UnknownHostException || cause instanceof ConnectTimeoutException) {
+            return Failure.CONNECTION;
+        }
+        return Failure.TRANSIENT;
+    }
+
+    /**
+     * @param failures the number of failures so far, starting at 1.
+     * @return the delay before the next attempt.
+     */
+    long getDelayInMillis(int failures) {
+        long delay = (long) min(maxDelayInMillis, baseDelayInMillis * pow(backoffFactor, max(0, failures - 1)));
+        if (jitter == 0 || delay == 0) {
+            return delay;
+        }
+        return max(0, round(delay * (1 + jitter * ThreadLocalRandom.current().nextDouble(-1, 1))));
+    }
+
+    /**
+     * @return the maximum number of re-tries after a failure of the given kind.
+     */
+    int getMaxRetries(@NotNull Failure failure) {
+        switch (failure) {
+            case CONNECTION:
+                return maxConnectionRetries;
+            case TRANSIENT:
+                return maxTransientRetries;
+            default:
+                return 0;
+        }
+    }
+
+    long getBaseDelayInMillis() {
+        return baseDelayInMillis;
+    }
+
+    double getBackoffFactor() {
+        return backoffFactor;
+    }
+
+    long getMaxDelayInMillis() {
+        return maxDelayInMillis;
+    }
+
+    long getBudgetInMillis() {
+        return budgetInMillis;
+    }
+
+    long getAvailabilityTimeoutInMillis() {
+        return availabilityTimeoutInMillis;
+    }
+
+    long getCircuitOpenTimeInMillis() {
+        return circuitOpenTimeInMillis;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "baseDelayInMillis=" + baseDelayInMillis +
+                ", backoffFactor=" + backoffFactor +
+                ", maxDelayInMillis=" + maxDelayInMillis +
+                ", jitter=" + jitter +
+                ", maxTransientRetries=" + maxTransientRetries +
+                ", maxConnectionRetries=" + maxConnectionRetries +
+                ", budgetInMillis=" + budgetInMillis +
+                ", availabilityTimeoutInMillis=" + availabilityTimeoutInMillis +
+                ", circuitOpenTimeInMillis=" + circuitOpenTimeInMillis +
+                '}';
+    }
+}
@@ -12,21 +12,25 @@
  */
 package com.unic.maven.plugins.aem.core.httpactions;
 
+import com.unic.maven.plugins.aem.util.AemHttpClient;
 import com.unic.maven.plugins.aem.util.Expectation;
+import com.unic.maven.plugins.aem.util.PollingProfile;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.impl.SimpleLog;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import unirest.HttpResponse;
-import unirest.Unirest;
 import unirest.UnirestException;
 
 import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
-import static java.lang.Math.pow;
+import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.sleep;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public abstract class RetryableHttpAction<ResponseType, ResultType> {
     private static final int DEFAULT_DEPLOY_RETRIES = 3;
@@ -35,40 +39,91 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
 
     private int retries = 0;
 
+    private long availabilityWaitInMillis = 0, backoffInMillis = 0;
+
+    private final Map<RetryPolicy.Failure, Integer> failures = new EnumMap<>(RetryPolicy.Failure.class);
+
+    private RetryPolicy.Failure lastFailure = null;
+
     RetryableHttpAction(Configuration configuration) {
         this.configuration = configuration;
     }
 
     public ResultType run() {
+        RetryPolicy retryPolicy = getRetryPolicy();
+        CircuitBreaker circuitBreaker = usesCircuitBreaker() ? configuration.getCircuitBreaker() : null;
+        if (circuitBreaker != null && retryPolicy.getCircuitOpenTimeInMillis() > 0 &&
+                !circuitBreaker.allowsRequests(retryPolicy.getCircuitOpenTimeInMillis())) {
+            throw new HttpActionFailureException(failureMessage(configuration.getServerUri() + " was unreachable recently, not re-trying for " +
+                    MILLISECONDS.toSeconds(retryPolicy.getCircuitOpenTimeInMillis()) + " seconds after it became unreachable"));
+        }
+
         log(startMessage());
 
-        while (true) {
-            ++retries;
+        long startedAt = currentTimeMillis();
+        boolean succeeded = false, reached = false;
+        try {
+            while (true) {
+                abortIfInterrupted();
+                ++retries;
 
-            HttpResponse<ResponseType> response;
-            try {
-                response = perform();
-            } catch (UnirestException | InterruptedException e) {
-                // Protocol / format level error or Thread error
-                handleFailure(getRootCause(e).getMessage());
-                continue;
-            }
+                HttpResponse<ResponseType> response;
+                try {
+                    response = perform();
+                    configuration.getClient().checkAuthentication(response);
+                } catch (InterruptedException e) {
+                    // We are asked to stop, e.g. since another deployment failed.
+                    Thread.currentThread().interrupt();
+                    fail("the action was interrupted");
+                    return null;
+                } catch (UnirestException e) {
+                    // Protocol / format level error
+                    abortIfInterrupted();
+                    handleFailure(retryPolicy, startedAt, RetryPolicy.classify(e), getRootCause(e).getMessage());
+                    continue;
+                }
+                reached = true;
 
-            // Internal AEM installation error, recover (backoff)
-            if (hasRecoverableError(response)) {
-                handleFailure(response.getStatusText());
-                continue;
-            }
+                // Internal AEM installation error, recover (backoff)
+                if (hasRecoverableError(response)) {
+                    handleFailure(retryPolicy, startedAt, RetryPolicy.Failure.TRANSIENT, response.getStatusText());
+                    continue;
+                }
 
-            // Semantic error, for instance invalid package.
-            // This cannot be fixed with a re-try -> fail.
-            if (hasUnrecoverableError(response)) {
-                fail(failureMessage(response));
-            }
+                // Semantic error, for instance invalid package.
+                // This cannot be fixed with a re-try -> fail.
+                if (hasUnrecoverableError(response)) {
+                    fail(failureMessage(response));
+                }
 
-            log(successMessage(response));
+                log(successMessage(response));
 
-            return result(response);
+                ResultType result = result(response);
+                succeeded = true;
+                return result;
+            }
+        } finally {
+            if (circuitBreaker != null) {
+                if (reached || succeeded) {
+                    circuitBreaker.recordReachable();
+                } else if (lastFailure == RetryPolicy.Failure.CONNECTION) {
+                    circuitBreaker.recordUnreachable();
+                } else {
+                    circuitBreaker.release();
+                }
+            }
+            configuration.getMetrics().record(new DeploymentMetrics.ActionTiming(
+                    actionName(),
+                    category(),
+                    subject(),
+                    configuration.getServerUri(),
+                    startedAt,
+                    currentTimeMillis() - startedAt,
+                    availabilityWaitInMillis,
+                    backoffInMillis,
+                    retries - 1,
+                    transferredBytes(),
+                    succeeded));
         }
     }
 
@@ -86,12 +141,26 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
         return response.getStatus() != 200;
     }
 
-    private void handleFailure(@NotNull String cause) {
-        if (retries > configuration.getRetries()) {
+    /**
+     * Waits before the next attempt, or fails if the failure must not be re-tried according to the retry policy.
+     */
+    private void handleFailure(@NotNull RetryPolicy retryPolicy, long startedAt, @NotNull RetryPolicy.Failure failure, @NotNull String cause) {
+        lastFailure = failure;
+        int failuresOfKind = failures.merge(failure, 1, Integer::sum);
+        int maxRetries = retryPolicy.getMaxRetries(failure);
+        if (failuresOfKind > maxRetries) {
             fail(cause);
         }
-        configuration.getLog().info(failureMessage(cause) + ", re-trying (" + retries + " / " + configuration.getRetries() + ") ...");
-        backoff(retries);
+
+        long delay = retryPolicy.getDelayInMillis(retries);
+        long budget = retryPolicy.getBudgetInMillis();
+        if (budget > 0 && currentTimeMillis() + delay - startedAt > budget) {
+            fail(cause + " (the retry budget of " + MILLISECONDS.toSeconds(budget) + " seconds is exhausted)");
+        }
+
+        configuration.getLog().info(failureMessage(cause) + ", re-trying in " + MILLISECONDS.toSeconds(delay) + " seconds (" +
+                failuresOfKind + " / " + maxRetries + ") ...");
+        backoff(delay);
     }
 
     private void fail(@NotNull String cause) {
@@ -99,26 +168,47 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
     }
 
     /**
-     * Exponential backoff for package installation re-tries: Package installation
-     * may cause framework restarts, during which the package manager API is unavailable. A restart
-     * may take minutes.
-     *
-     * @param retries how many retries have already been executed.
+     * Stops re-trying once the thread was interrupted, e.g. since the executor performing the action was shut down after another
+     * action failed. The interrupt status is retained.
+     */
+    private void abortIfInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            fail("the action was interrupted");
+        }
+    }
+
+    /**
+     * Backoff for re-tries: Package installation may cause framework restarts, during which the package manager API is unavailable.
+     * A restart may take minutes.
      */
-    private void backoff(int retries) {
+    private void backoff(long delayInMillis) {
+        long start = currentTimeMillis();
         try {
-            sleep(SECONDS.toMillis((long) (getBasicBackoffTimeInSeconds() * pow(2, retries - 1))));
+            sleep(delayInMillis);
         } catch (InterruptedException e) {
-            // continue
+            Thread.currentThread().interrupt();
+            fail("the action was interrupted while waiting to re-try");
+        } finally {
+            backoffInMillis += currentTimeMillis() - start;
         }
     }
 
-    protected int getBasicBackoffTimeInSeconds() {
-        return 10;
+    /**
+     * @return whether this action is rejected while the {@link CircuitBreaker circuit} of the instance is open and whether its outcome
+     * opens or closes the circuit. Actions that must be attempted regardless, e.g. to restore the instance state after a failed
+     * deployment, return <code>false</code>.
+     */
+    protected boolean usesCircuitBreaker() {
+        return true;
     }
 
-    int getTotalBackoffTimeInSeconds() {
-        return (int) (getBasicBackoffTimeInSeconds() * pow(2, configuration.getRetries()) - 1);
+    /**
+     * @return the retry policy of this action, i.e. the policy configured for the action type or the default policy of the instance.
+     * Never <code>null</code>.
+     */
+    @NotNull
+    protected RetryPolicy getRetryPolicy() {
+        return configuration.getRetryPolicy(getClass());
     }
 
     @Nullable
@@ -126,6 +216,59 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
         return null;
     }
 
+    /**
+     * @return the name of this action used in the {@link DeploymentMetrics}, e.g. "UploadPackage". Never <code>null</code>.
+     */
+    @NotNull
+    protected String actionName() {
+        return getClass().getSimpleName().replaceFirst("Action$", "");
+    }
+
+    /**
+     * @return the deployment phase this action belongs to, used to aggregate the {@link DeploymentMetrics}. Never <code>null</code>.
+     */
+    @NotNull
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.OTHER;
+    }
+
+    /**
+     * @return what this action is performed on, e.g. the name of the uploaded file, or <code>null</code>.
+     */
+    @Nullable
+    protected String subject() {
+        return null;
+    }
+
+    /**
+     * @return the number of payload bytes transferred by this action, e.g. the size of an uploaded file.
+     */
+    protected long transferredBytes() {
+        return 0;
+    }
+
+    /**
+     * Waits for the package manager API to become available, e.g. after a package installation caused a framework restart.
+     *
+     * @param description describes the action, e.g. "install package.zip". Must not be <code>null</code>.
+     * @throws HttpActionFailureException if the API is not available within the {@link RetryPolicy#getAvailabilityTimeoutInMillis() availability timeout}.
+     */
+    protected void awaitPackageManagerApi(@NotNull String description) {
+        long start = currentTimeMillis();
+        long timeout = getRetryPolicy().getAvailabilityTimeoutInMillis();
+        try {
+            if (!packageManagerApiIsAvailable(configuration).within(timeout, MILLISECONDS)) {
+                abortIfInterrupted();
+                // The instance may be busy, e.g. restarting, rather than unreachable, thus this must not open the circuit.
+                lastFailure = RetryPolicy.Failure.TRANSIENT;
+                throw new HttpActionFailureException("Unable to " + description + " - the package manager API was unavailable for "
+                        + MILLISECONDS.toSeconds(timeout) + " seconds.");
+            }
+        } finally {
+            availabilityWaitInMillis += currentTimeMillis() - start;
+        }
+    }
+
     @Nullable
     protected abstract String startMessage();
 
@@ -146,10 +289,9 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
             @Override
             protected Outcome fulfill() {
                 try {
-                    return Unirest.get(configuration.getServerUri().toString() + "/crx/packmgr/service")
-                            .basicAuth("admin", configuration.getPassword()).asString().getStatus() == 405 ?
-                            Outcome.FULFILLED :
-                            Outcome.RETRY;
+                    HttpResponse<String> response = configuration.getClient().get("/crx/packmgr/service").asString();
+                    configuration.getClient().checkAuthentication(response);
+                    return response.getStatus() == 405 ? Outcome.FULFILLED : Outcome.RETRY;
                 } catch (UnirestException e) {
                     // During deployment, the HTTP implementation itself may restart, resulting in network-level errors, such
                     // as connection refused. As this is expected, continue waiting for API recovery.
@@ -161,7 +303,7 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
             protected void firstFailure() {
                 configuration.getLog().info("Waiting for the package manager API to become available again...");
             }
-        };
+        }.polling(PollingProfile.RESPONSIVE);
     }
 
     public final Configuration getConfiguration() {
@@ -177,7 +319,11 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
         private final Log log;
         private final URI serverUri;
         private final String password;
-        private final int retries;
+        private final DeploymentMetrics metrics;
+        private final AemHttpClient client;
+        private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+        private final Map<Class<?>, RetryPolicy> retryPolicies = new ConcurrentHashMap<>();
+        private RetryPolicy retryPolicy;
 
         @SuppressWarnings("unused")
         public Configuration(URI serverUri, String password) {
@@ -185,26 +331,81 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
         }
 
         public Configuration(URI serverUri, String password, int retries, Log log) {
+            this(serverUri, password, retries, log, new DeploymentMetrics());
+        }
+
+        public Configuration(URI serverUri, String password, int retries, Log log, DeploymentMetrics metrics) {
             this.log = log;
             this.serverUri = serverUri;
             this.password = password;
-            this.retries = retries;
+            this.retryPolicy = RetryPolicy.DEFAULT.withRetries(retries, retries);
+            this.metrics = metrics;
+            this.client = AemHttpClient.forInstance(serverUri).withCredentials("admin", password);
         }
 
         public Log getLog() {
             return log;
         }
 
-        URI getServerUri() {
+        public URI getServerUri() {
             return serverUri;
         }
 
-        String getPassword() {
-            return password;
+        /**
+         * @return the client authenticated as the admin user, never <code>null</code>.
+         */
+        public AemHttpClient getClient() {
+            return client;
+        }
+
+        /**
+         * @return the circuit breaker shared by all actions using this configuration, never <code>null</code>.
+         */
+        @NotNull
+        CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        /**
+         * @param retryPolicy the retry policy of all actions on the instance, unless a policy is configured for the action type.
+         *                    Must not be <code>null</code>.
+         * @return this configuration, never <code>null</code>.
+         */
+        @NotNull
+        public Configuration withRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param actionType  the type of the actions the policy applies to, e.g. <code>InstallPackageAction.class</code>. Must not be <code>null</code>.
+         * @param retryPolicy must not be <code>null</code>.
+         * @return this configuration, never <code>null</code>.
+         */
+        @NotNull
+        public Configuration withRetryPolicy(@NotNull Class<? extends RetryableHttpAction> actionType, @NotNull RetryPolicy retryPolicy) {
+            this.retryPolicies.put(actionType, retryPolicy);
+            return this;
+        }
+
+        /**
+         * @return the retry policy configured for the given action type, or the default policy of the instance. Never <code>null</code>.
+         */
+        @NotNull
+        RetryPolicy getRetryPolicy(@NotNull Class<?> actionType) {
+            RetryPolicy policy = retryPolicies.get(actionType);
+            return policy == null ? retryPolicy : policy;
+        }
+
+        /**
+         * @return whether a retry policy is configured for the given action type.
+         */
+        boolean hasRetryPolicy(@NotNull Class<?> actionType) {
+            return retryPolicies.containsKey(actionType);
         }
 
-        int getRetries() {
-            return retries;
+        public DeploymentMetrics getMetrics() {
+            return metrics;
         }
 
         @Override
@@ -213,7 +414,7 @@ public abstract class RetryableHttpAction<ResponseType, ResultType> {
                     "log=" + log +
                     ", serverUri=" + serverUri +
                     ", password='" + password + '\'' +
-                    ", retries=" + retries +
+                    ", retryPolicy=" + retryPolicy +
                     '}';
         }
     }
@@ -12,18 +12,30 @@
  */
 package com.unic.maven.plugins.aem.core.httpactions;
 
+import org.apache.http.entity.ContentType;
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpResponse;
 import unirest.JsonNode;
-import unirest.Unirest;
+import unirest.MultipartBody;
 import unirest.UnirestException;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static com.unic.maven.plugins.aem.util.AemHttpClient.LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS;
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+/**
+ * Uploads a package to the package manager. The package is streamed from the file system by the multipart entity of the HTTP client,
+ * which copies it to the connection using its own fixed-size buffer, i.e. the memory consumption does not depend on the package size.
+ * The upload progress is reported periodically.
+ */
 public class UploadPackageAction extends RetryableHttpAction<JsonNode, String> {
     private final File file;
+    private ProgressReportingInputStream upload = null;
 
     public UploadPackageAction(Configuration configuration, File file) {
         super(configuration);
@@ -36,10 +48,31 @@ public class UploadPackageAction extends RetryableHttpAction<JsonNode, String> {
         return response.getBody().getObject().getString("path");
     }
 
+    @NotNull
+    @Override
+    protected DeploymentMetrics.ActionTiming.Category category() {
+        return DeploymentMetrics.ActionTiming.Category.UPLOAD;
+    }
+
+    @NotNull
+    @Override
+    protected String subject() {
+        return file.getName();
+    }
+
+    @Override
+    protected long transferredBytes() {
+        return upload == null ? file.length() : upload.getBytesRead();
+    }
+
     @NotNull
     @Override
     protected String successMessage(@NotNull HttpResponse<JsonNode> response) {
-        return "Successfully uploaded " + file.getAbsolutePath();
+        if (upload == null) {
+            return "Successfully uploaded " + file.getAbsolutePath();
+        }
+        return "Successfully uploaded " + file.getAbsolutePath() + " (" + formatByteCount(upload.getBytesRead()) + " in " +
+                MILLISECONDS.toSeconds(upload.getElapsedTimeInMillis()) + " seconds, " + formatByteCount(upload.getBytesPerSecond()) + "/s)";
     }
 
     @Override
@@ -68,15 +101,22 @@ public class UploadPackageAction extends RetryableHttpAction<JsonNode, String> {
     @NotNull
     @Override
     protected HttpResponse<JsonNode> perform() throws UnirestException {
-        if (!packageManagerApiIsAvailable(getConfiguration()).within(getTotalBackoffTimeInSeconds(), SECONDS)) {
-            throw new HttpActionFailureException("Unable to upload " + file + " - the package manager API was unavailable for "
-                    + getTotalBackoffTimeInSeconds() + " seconds.");
-        }
+        awaitPackageManagerApi("upload " + file);
 
-        HttpResponse<JsonNode> response = Unirest.post(getConfiguration().getServerUri() + "/crx/packmgr/service/.json/?cmd=upload")
-                .field("force", true)
-                .field("package", file)
-                .basicAuth("admin", getConfiguration().getPassword()).asJson();
+        // The package manager may take a while to store a large package before responding.
+        MultipartBody request = getConfiguration().getClient().post("/crx/packmgr/service/.json/?cmd=upload")
+                .socketTimeout(LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS)
+                .field("force", true);
+
+        HttpResponse<JsonNode> response;
+        try (InputStream in = new FileInputStream(file)) {
+            upload = new ProgressReportingInputStream(in, file.getName(), file.length(), getConfiguration().getLog());
+            response = request
+                    .field("package", upload, ContentType.APPLICATION_OCTET_STREAM, file.getName())
+                    .asJson();
+        } catch (IOException e) {
+            throw new HttpActionFailureException("Unable to read " + file + ": " + e.getMessage());
+        }
 
         if (response.getParsingError().isPresent()) {
             // Unirest does not throw an exception but returns a null JSON body when the JSON cannot be parsed.
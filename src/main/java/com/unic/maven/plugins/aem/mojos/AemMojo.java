@@ -12,18 +12,18 @@
  */
 package com.unic.maven.plugins.aem.mojos;
 
+import com.unic.maven.plugins.aem.util.AemHttpClient;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.jetbrains.annotations.NotNull;
-import unirest.Unirest;
 
 import java.io.File;
+import java.net.URI;
 
 import static java.io.File.separator;
 import static java.lang.System.getProperty;
-import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * @author Olaf Otto
@@ -121,11 +121,9 @@ public abstract class AemMojo extends AbstractMojo {
 
     @Override
     public final void execute() throws MojoExecutionException, MojoFailureException {
-        try {
-            Unirest.config().connectTimeout((int) SECONDS.toMillis(10)).socketTimeout((int) SECONDS.toMillis(10));
+        // The connection pools must not outlive the execution, e.g. in a long-lived Maven daemon.
+        try (AemHttpClient.Session ignored = AemHttpClient.openSession()) {
             runMojo();
-        } finally {
-            Unirest.shutDown();
         }
     }
 
@@ -195,6 +193,14 @@ public abstract class AemMojo extends AbstractMojo {
         return baseUrl + ':' + getHttpPort() + getContextPath();
     }
 
+    /**
+     * @return a client for the {@link #getAemBaseUrl() AEM instance}, authenticated as the admin user. Never null.
+     */
+    @NotNull
+    AemHttpClient getHttpClient() {
+        return AemHttpClient.forInstance(URI.create(getAemBaseUrl())).withCredentials("admin", getAdminPassword());
+    }
+
     /**
      * Logs the {@link ProcessBuilder#command()} list.
      */
@@ -12,44 +12,59 @@
  */
 package com.unic.maven.plugins.aem.mojos;
 
+import com.unic.maven.plugins.aem.util.AemHttpClient;
 import com.unic.maven.plugins.aem.util.Expectation;
+import com.unic.maven.plugins.aem.util.PollingProfile;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.jetbrains.annotations.NotNull;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import unirest.HttpResponse;
-import unirest.JsonNode;
-import unirest.Unirest;
+import unirest.RawResponse;
 import unirest.UnirestException;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import static com.unic.maven.plugins.aem.util.Expectation.Outcome.FULFILLED;
 import static com.unic.maven.plugins.aem.util.Expectation.Outcome.RETRY;
+import static java.lang.Math.max;
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
 
 /**
  * Tests whether all bundles are initialized (are either active or, if they are fragments, resolved) and determines that the system has finished initializing by ensuring
  * that no service changes (such as restarting or activating services) occurred since the {@link #initializationGracePeriod grace period}.
+ * Alternatively, the {@link #awaitComponents component check} and the {@link #healthCheckTags health checks} determine that the system has finished initializing
+ * once all components are satisfied, respectively all health checks pass.
  *
  * @author Olaf Otto
  */
 @Mojo(name = "awaitInitialization", threadSafe = true, requiresProject = false)
 public class AwaitInitialization extends AemMojo {
-    /**
-     * OSGi spec bundle states.
-     */
-    private static final int
-            BUNDLE_ACTIVE = 32,
-            BUNDLE_RESOLVED = 4;
-
     /**
      * Felix event admin topics for services start with this namespace.
      */
@@ -74,8 +89,72 @@ public class AwaitInitialization extends AemMojo {
     @Parameter(property = "ignore.bundlesRegex")
     protected String[] ignoreBundlesRegex = new String[]{};
 
+    /**
+     * Await all Declarative Services components to be satisfied, i.e. to neither lack a reference nor to have failed to activate.
+     * AEM is then considered initialized as soon as all bundles are active and all components are satisfied, rather than once no
+     * service changed during the {@link #initializationGracePeriod grace period}.
+     */
+    @Parameter(defaultValue = "false", property = "init.awaitComponents")
+    protected boolean awaitComponents = false;
+
+    /**
+     * Ignores the defined components during the {@link #awaitComponents component check} by given regex checks.
+     * The regex is checked against the component's name.
+     */
+    @Parameter(property = "ignore.componentsRegex")
+    protected String[] ignoreComponentsRegex = new String[]{};
+
+    /**
+     * Await the Sling health checks with these tags to pass, i.e. to have the status OK or WARN. AEM is then considered initialized
+     * as soon as all bundles are active and all these checks pass, rather than once no service changed during the
+     * {@link #initializationGracePeriod grace period}. Can be combined with the {@link #awaitComponents component check}.
+     */
+    @Parameter(property = "init.healthCheckTags")
+    protected String[] healthCheckTags = new String[]{};
+
+    /**
+     * Each readiness probe, e.g. the retrieval of the bundle states, must complete within this number of seconds. The probes of a
+     * poll run concurrently, thus a poll takes as long as its slowest probe.
+     */
+    @Parameter(defaultValue = "10", property = "init.probeTimeout")
+    protected int probeTimeout = 10;
+
+    /**
+     * The readiness probes, in the order their results are reported.
+     */
+    private enum Probe {
+        BUNDLES("bundle states"),
+        HEALTH_CHECKS("health check results"),
+        COMPONENTS("component states"),
+        SERVICE_EVENTS("recent events");
+
+        private final String description;
+
+        Probe(String description) {
+            this.description = description;
+        }
+    }
+
+    private final ExecutorService probeExecutor = newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "aem-readiness-probe");
+        // Idle probe threads must not keep the build from terminating.
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ServiceEventLog serviceEventLog = new ServiceEventLog(this::isRelevant);
+    private HealthChecks healthChecks;
+    private Pattern ignoredBundles, ignoredComponents;
+
     @Override
     public void runMojo() throws MojoExecutionException, MojoFailureException {
+        try {
+            awaitInitialization();
+        } finally {
+            shutdownProbes();
+        }
+    }
+
+    void awaitInitialization() throws MojoExecutionException, MojoFailureException {
         getLog().info("Waiting up to " + initializationWaitTime + " minutes for all bundles and components to finish initialization...");
 
         if (ignoreBundlesRegex.length > 0) {
@@ -85,12 +164,30 @@ public class AwaitInitialization extends AemMojo {
             }
         }
 
+        if (awaitComponents && ignoreComponentsRegex.length > 0) {
+            getLog().info("Ignoring components with names matching: ");
+            for (String regex : ignoreComponentsRegex) {
+                getLog().info("- " + regex);
+            }
+        }
+
+        if (healthCheckTags.length > 0) {
+            getLog().info("Awaiting the health checks with tags " + String.join(", ", healthCheckTags) + " to pass.");
+        }
+
         if (!expectInitializedWithinConfiguredTime()) {
             failWithPendingInitializationsMessage();
         }
         getLog().info("All bundles and components are initialized.");
     }
 
+    /**
+     * Stops all readiness probes. Must be invoked once the mojo no longer probes the instance.
+     */
+    void shutdownProbes() {
+        probeExecutor.shutdownNow();
+    }
+
     boolean expectInitializedWithinConfiguredTime() {
         return aemIsInitialized().onFailure((time, unit, lastFailure) -> getLog().info(
                 "AEM did not initialize within " + time + " " + unit + "." +
@@ -99,35 +196,40 @@ public class AwaitInitialization extends AemMojo {
     }
 
     void failWithPendingInitializationsMessage() throws MojoFailureException, MojoExecutionException {
-        List<String> pendingBundles, serviceEvents;
-
-        try {
-            pendingBundles = getPendingBundlesInfo();
-        } catch (UnirestException e) {
-            throw new MojoExecutionException("Unable to retrieve the bundle states.", e);
-        }
+        Map<Probe, List<String>> pending;
 
         try {
-            serviceEvents = getServiceEventInfoSince(getTimeBeforeGracePeriodInMillis());
+            pending = probe();
         } catch (UnirestException e) {
-            throw new MojoExecutionException("Unable to retrieve the recent events.", e);
+            throw new MojoExecutionException("Unable to retrieve the initialization state.", e);
         }
 
         StringBuilder message = new StringBuilder();
 
-        if (!pendingBundles.isEmpty()) {
-            message.append("The following bundles failed to initialize within ").append(initializationWaitTime).append(" minutes:\n");
-            for (String bundleInfo : pendingBundles) {
-                message.append(bundleInfo).append("\n");
+        for (Map.Entry<Probe, List<String>> entry : pending.entrySet()) {
+            List<String> info = entry.getValue();
+            if (info.isEmpty()) {
+                continue;
             }
-        }
-
-        if (!serviceEvents.isEmpty()) {
-            message.append("The following service changes have been detected in the last ")
-                    .append(initializationGracePeriod)
-                    .append(" seconds:\n");
-            for (String eventInfo : serviceEvents) {
-                message.append(eventInfo).append("\n");
+            switch (entry.getKey()) {
+                case BUNDLES:
+                    message.append("The following bundles failed to initialize within ").append(initializationWaitTime).append(" minutes:\n");
+                    break;
+                case HEALTH_CHECKS:
+                    message.append("The following ").append(info.size()).append(" health checks did not pass within ")
+                            .append(initializationWaitTime).append(" minutes:\n");
+                    break;
+                case COMPONENTS:
+                    message.append("The following ").append(info.size()).append(" components were not satisfied within ")
+                            .append(initializationWaitTime).append(" minutes:\n");
+                    break;
+                default:
+                    message.append("The following service changes have been detected in the last ")
+                            .append(initializationGracePeriod)
+                            .append(" seconds:\n");
+            }
+            for (String line : info) {
+                message.append(line).append("\n");
             }
         }
 
@@ -141,10 +243,11 @@ public class AwaitInitialization extends AemMojo {
             @Override
             protected Expectation.Outcome fulfill() {
                 try {
-                    if (!getPendingBundlesInfo().isEmpty() || !getServiceEventInfoSince(getTimeBeforeGracePeriodInMillis()).isEmpty()) {
-                        return RETRY;
+                    for (List<String> pending : probe().values()) {
+                        if (!pending.isEmpty()) {
+                            return RETRY;
+                        }
                     }
-
                     return FULFILLED;
                 } catch (UnirestException | JSONException e) {
                     lastFailure = e;
@@ -156,83 +259,240 @@ public class AwaitInitialization extends AemMojo {
             protected Exception failureContext() {
                 return this.lastFailure;
             }
-        };
+        }.polling(PollingProfile.RESPONSIVE);
+    }
+
+    /**
+     * Runs all configured readiness probes concurrently, such that a poll takes as long as the slowest probe rather than as long as all
+     * probes together. Each probe must complete within the {@link #probeTimeout probe timeout}.
+     *
+     * @return the pending initializations reported by each probe, in the order of the probes. Never null.
+     * @throws UnirestException if a probe failed or timed out.
+     */
+    @NotNull
+    private Map<Probe, List<String>> probe() throws UnirestException {
+        if (ignoredBundles == null) {
+            ignoredBundles = anyOf(ignoreBundlesRegex);
+            ignoredComponents = anyOf(ignoreComponentsRegex);
+        }
+        if (healthChecks == null && healthCheckTags.length > 0) {
+            healthChecks = new HealthChecks(healthCheckTags);
+        }
+
+        Map<Probe, Future<List<String>>> probes = new EnumMap<>(Probe.class);
+        probes.put(Probe.BUNDLES, submit(Probe.BUNDLES, this::getPendingBundlesInfo));
+        if (healthChecks != null) {
+            probes.put(Probe.HEALTH_CHECKS, submit(Probe.HEALTH_CHECKS, this::getFailingHealthChecksInfo));
+        }
+        if (awaitComponents) {
+            probes.put(Probe.COMPONENTS, submit(Probe.COMPONENTS, this::getPendingComponentsInfo));
+        }
+        if (awaitsServiceEvents()) {
+            long since = getTimeBeforeGracePeriodInMillis();
+            probes.put(Probe.SERVICE_EVENTS, submit(Probe.SERVICE_EVENTS, () -> getServiceEventInfoSince(since)));
+        }
+
+        long deadline = nanoTime() + SECONDS.toNanos(probeTimeout);
+        Map<Probe, List<String>> pending = new EnumMap<>(Probe.class);
+        try {
+            for (Map.Entry<Probe, Future<List<String>>> probe : probes.entrySet()) {
+                pending.put(probe.getKey(), await(probe.getKey(), probe.getValue(), deadline));
+            }
+        } finally {
+            // Do not leave probes running if another probe failed.
+            for (Future<List<String>> future : probes.values()) {
+                future.cancel(true);
+            }
+        }
+        return pending;
+    }
+
+    @NotNull
+    private Future<List<String>> submit(@NotNull Probe probe, @NotNull Callable<List<String>> callable) {
+        return probeExecutor.submit(() -> {
+            long start = nanoTime();
+            try {
+                return callable.call();
+            } finally {
+                if (getLog().isDebugEnabled()) {
+                    getLog().debug("The " + probe.description + " probe took " + NANOSECONDS.toMillis(nanoTime() - start) + " ms.");
+                }
+            }
+        });
+    }
+
+    @NotNull
+    private List<String> await(@NotNull Probe probe, @NotNull Future<List<String>> future, long deadline) throws UnirestException {
+        try {
+            return future.get(max(0, deadline - nanoTime()), NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new UnirestException("Unable to retrieve the " + probe.description + " within " + probeTimeout + " seconds.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnirestException || cause instanceof JSONException) {
+                throw (RuntimeException) cause;
+            }
+            throw new UnirestException(new RuntimeException("Unable to retrieve the " + probe.description + ".", cause));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnirestException(e);
+        }
+    }
+
+    /**
+     * @return whether initialization is determined by the absence of service changes during the grace period, i.e. whether neither
+     * components nor health checks are awaited.
+     */
+    private boolean awaitsServiceEvents() {
+        return !awaitComponents && healthCheckTags.length == 0;
+    }
+
+    private int getProbeTimeoutInMillis() {
+        return (int) SECONDS.toMillis(probeTimeout);
     }
 
     private long getTimeBeforeGracePeriodInMillis() {
         return currentTimeMillis() - SECONDS.toMillis(initializationGracePeriod);
     }
 
+    /**
+     * @return the information of the bundles that are not initialized and not ignored. The bundle list is streamed, and only the
+     * pending bundles are retained, see {@link BundleState#readPending(Reader)}. Never null.
+     */
     @NotNull
     private List<String> getPendingBundlesInfo() throws UnirestException {
-        JSONArray bundleStates =
-                getJson("/system/console/bundles.json")
-                        .getBody()
-                        .getObject()
-                        .getJSONArray("data");
-
         List<String> pendingBundles = new ArrayList<>();
-
-        for (int i = 0; i < bundleStates.length(); ++i) {
-            JSONObject bundleData = bundleStates.getJSONObject(i);
-            if (pendingBundle(bundleData)) {
-                String bundleInfo = bundleData.getString("symbolicName") + ", state: " + bundleData.getString("state");
-                if (getLog().isDebugEnabled()) {
-                    getLog().debug("Pending bundle info: " + bundleInfo);
-                }
-                pendingBundles.add(bundleInfo);
+        for (BundleState bundle : readConsoleList("/system/console/bundles.json", BundleState::readPending)) {
+            if (ignoreBundle(bundle.getSymbolicName())) {
+                continue;
             }
+            String bundleInfo = bundle.toString();
+            if (getLog().isDebugEnabled()) {
+                getLog().debug("Pending bundle info: " + bundleInfo);
+            }
+            pendingBundles.add(bundleInfo);
         }
         return pendingBundles;
     }
 
-    private boolean pendingBundle(JSONObject bundleData) {
-        final int state = bundleData.getInt("stateRaw");
-        final boolean isFragment = bundleData.getBoolean("fragment");
-        final String bundleSymbolicName = bundleData.getString("symbolicName");
+    private boolean ignoreBundle(String bundleSymbolicName) {
+        if (ignoredBundles.matcher(bundleSymbolicName).matches()) {
+            getLog().debug("Ignoring inactive bundle " + bundleSymbolicName + " for initialization check.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the information of the Declarative Services components that are not satisfied and not ignored, see
+     * {@link ComponentState#isPending()}. Never null.
+     */
+    @NotNull
+    private List<String> getPendingComponentsInfo() throws UnirestException {
+        List<String> pendingComponents = new ArrayList<>();
+        for (ComponentState component : readConsoleList("/system/console/components.json", ComponentState::readPending)) {
+            if (ignoredComponents.matcher(component.getName()).matches()) {
+                getLog().debug("Ignoring unsatisfied component " + component.getName() + " for initialization check.");
+                continue;
+            }
+            pendingComponents.add(component.toString());
+        }
+        if (getLog().isDebugEnabled() && !pendingComponents.isEmpty()) {
+            getLog().debug(pendingComponents.size() + " unsatisfied component(s): " + pendingComponents);
+        }
+        return pendingComponents;
+    }
 
-        return !ignoreBundle(bundleSymbolicName) &&
-                (isFragment && state != BUNDLE_RESOLVED ||
-                        !isFragment && state != BUNDLE_ACTIVE);
+    /**
+     * @return the information of the {@link #healthCheckTags awaited} health checks that did not pass. Only the checks that failed
+     * before are executed again until they pass, see {@link HealthChecks}. Never null.
+     */
+    @NotNull
+    private List<String> getFailingHealthChecksInfo() throws UnirestException {
+        List<String> failingHealthChecks = healthChecks.getFailing(getHttpClient(), getProbeTimeoutInMillis());
+        if (getLog().isDebugEnabled() && !failingHealthChecks.isEmpty()) {
+            getLog().debug(failingHealthChecks.size() + " failing health check(s): " + failingHealthChecks);
+        }
+        return failingHealthChecks;
+    }
 
+    /**
+     * @return a single pattern matching any of the given regexes, compiled once rather than for each entry and poll. Matches
+     * nothing if no regexes are given.
+     */
+    @NotNull
+    private static Pattern anyOf(@NotNull String[] regexes) {
+        if (regexes.length == 0) {
+            return Pattern.compile("(?!)");
+        }
+        StringJoiner alternatives = new StringJoiner("|");
+        for (String regex : regexes) {
+            alternatives.add("(?:" + regex + ")");
+        }
+        return Pattern.compile(alternatives.toString());
     }
 
-    private boolean ignoreBundle(String bundleSymbolicName) {
-        for (String regex : ignoreBundlesRegex) {
-            if (bundleSymbolicName.matches(regex)) {
-                getLog().debug("Ignoring inactive bundle " + bundleSymbolicName + " for initialization check.");
-                return true;
+    /**
+     * Streams a list rendered by the Felix web console, e.g. the bundles, through the given parser.
+     *
+     * @return the entries returned by the parser. Never null.
+     */
+    @NotNull
+    private <T> List<T> readConsoleList(@NotNull String path, @NotNull Function<Reader, List<T>> parser) throws UnirestException {
+        AemHttpClient client = getHttpClient();
+        HttpResponse<List<T>> response = client.get(path).socketTimeout(getProbeTimeoutInMillis()).asObject(raw -> {
+            if (raw.getStatus() != 200) {
+                return null;
+            }
+            Charset charset = isEmpty(raw.getCharSet()) ? UTF_8 : Charset.forName(raw.getCharSet());
+            try (Reader reader = new InputStreamReader(raw.getContent(), charset)) {
+                return parser.apply(reader);
+            } catch (IOException e) {
+                throw new UnirestException(e);
             }
+        });
+        client.checkAuthentication(response);
+        if (response.getStatus() != 200 || response.getBody() == null) {
+            throw new UnirestException("Unable to retrieve " + path + ", AEM responded " + response.getStatus() + " " + response.getStatusText() + ".");
         }
-        return false;
+        return response.getBody();
     }
 
+    /**
+     * @return the information of the relevant service events received at or after the given time. Only the events added to the
+     * event log since the previous invocation are retrieved and parsed, see {@link ServiceEventLog}. Never null.
+     */
     @NotNull
     private List<String> getServiceEventInfoSince(long since) throws UnirestException {
-        JSONArray events =
-                getJson("/system/console/events.json")
-                        .getBody()
-                        .getObject()
-                        .getJSONArray("data");
-
-        List<String> eventInformation = new ArrayList<>();
-
-        for (int i = 0; i < events.length(); ++i) {
-            JSONObject eventData = events.getJSONObject(i);
-            String topic = eventData.getString("topic");
-            long received = eventData.getLong("received");
-            if (
-                    received >= since &&
-                    !isIgnored(
-                            topic,
-                            eventData.getJSONObject("properties"),
-                            eventData.getString("info")
-                    )
-            ) {
-                eventInformation.add(eventData.getString("info"));
-            }
+        AemHttpClient client = getHttpClient();
+        HttpResponse<Integer> response = client.get("/system/console/events.json").socketTimeout(getProbeTimeoutInMillis()).asObject(this::updateServiceEventLog);
+        client.checkAuthentication(response);
+        if (response.getStatus() != 200) {
+            throw new UnirestException("Unable to retrieve the event log, AEM responded " + response.getStatus() + " " + response.getStatusText() + ".");
+        }
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Processed " + response.getBody() + " new event(s).");
+        }
+        return serviceEventLog.getEventInfoSince(since);
+    }
+
+    /**
+     * @return the number of new events, or <code>null</code> if the event log could not be retrieved.
+     */
+    private Integer updateServiceEventLog(@NotNull RawResponse response) {
+        if (response.getStatus() != 200) {
+            return null;
         }
-        return eventInformation;
+        Charset charset = isEmpty(response.getCharSet()) ? UTF_8 : Charset.forName(response.getCharSet());
+        try (Reader reader = new InputStreamReader(response.getContent(), charset)) {
+            return serviceEventLog.update(reader);
+        } catch (IOException e) {
+            throw new UnirestException(e);
+        }
+    }
+
+    private boolean isRelevant(@NotNull JSONObject event) {
+        return !isIgnored(event.optString("topic"), event.optJSONObject("properties"), event.optString("info"));
     }
 
     /**
@@ -248,18 +508,6 @@ public class AwaitInitialization extends AemMojo {
                info != null && info.contains("objectClass=org.osgi.service.component.runtime.ServiceComponentRuntime");
     }
 
-    private HttpResponse<JsonNode> getJson(String path) throws UnirestException {
-        HttpResponse<JsonNode> response = Unirest.get(getAemBaseUrl() + path)
-                .basicAuth("admin", getAdminPassword())
-                .asJson();
-        // Unirest does not throw an exception but returns a null JSON body when the JSON cannot be parsed.
-        // We favor an exception.
-        if (response.getParsingError().isPresent()) {
-            throw new UnirestException(new RuntimeException("Unable to parse JSON response from " + getAemBaseUrl() + path, response.getParsingError().get()));
-        }
-        return response;
-    }
-
     int getInitializationWaitTime() {
         return initializationWaitTime;
     }
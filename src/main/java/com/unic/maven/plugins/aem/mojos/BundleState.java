@@ -0,0 +1,93 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.unic.maven.plugins.aem.mojos.ConsoleData.getBoolean;
+import static com.unic.maven.plugins.aem.mojos.ConsoleData.getInt;
+import static com.unic.maven.plugins.aem.mojos.ConsoleData.getString;
+
+/**
+ * The state of an OSGi bundle as listed by the Felix web console (<code>/system/console/bundles.json</code>).
+ */
+class BundleState {
+    /**
+     * OSGi spec bundle states.
+     */
+    private static final int
+            BUNDLE_ACTIVE = 32,
+            BUNDLE_RESOLVED = 4;
+
+    private static final Set<String> PROPERTIES = new HashSet<>(Arrays.asList("symbolicName", "state", "stateRaw", "fragment"));
+
+    private final String symbolicName;
+    private final String state;
+    private final int stateRaw;
+    private final boolean fragment;
+
+    /**
+     * Streams the bundle list and only retains the bundles that are not initialized, i.e. neither active nor, if they are fragments,
+     * resolved. Of each bundle, only the symbolic name and the state are read, and no JSON object is built.
+     *
+     * @param reader the JSON representation of the bundle list. Must not be <code>null</code>.
+     * @return the pending bundles in the order they are listed. Never <code>null</code>.
+     * @throws JSONException if the bundle list is not valid JSON.
+     */
+    @NotNull
+    static List<BundleState> readPending(@NotNull Reader reader) {
+        return ConsoleData.read(reader, PROPERTIES, BundleState::of, bundle -> !bundle.isInitialized());
+    }
+
+    @NotNull
+    private static BundleState of(@NotNull Map<String, Object> values) {
+        String symbolicName = getString(values, "symbolicName");
+        int stateRaw = getInt(values, "stateRaw", -1);
+        if (symbolicName == null || stateRaw == -1) {
+            throw new JSONException("A bundle must have a symbolicName and a stateRaw, got " + values);
+        }
+        return new BundleState(symbolicName, getString(values, "state"), stateRaw, getBoolean(values, "fragment"));
+    }
+
+    private BundleState(String symbolicName, String state, int stateRaw, boolean fragment) {
+        this.symbolicName = symbolicName;
+        this.state = state;
+        this.stateRaw = stateRaw;
+        this.fragment = fragment;
+    }
+
+    /**
+     * @return whether the bundle is active or, if it is a fragment, resolved.
+     */
+    boolean isInitialized() {
+        return fragment ? stateRaw == BUNDLE_RESOLVED : stateRaw == BUNDLE_ACTIVE;
+    }
+
+    @NotNull
+    String getSymbolicName() {
+        return symbolicName;
+    }
+
+    @Override
+    public String toString() {
+        return symbolicName + ", state: " + state;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.unic.maven.plugins.aem.mojos.ConsoleData.getString;
+import static java.util.Locale.ROOT;
+
+/**
+ * The state of a Declarative Services component as listed by the Felix web console (<code>/system/console/components.json</code>).
+ * A component is pending if its references are not satisfied or if its activation failed. Components that are disabled, or that
+ * require a configuration which does not exist, are not pending: They remain in this state until they are explicitly enabled or
+ * configured, which does not happen during initialization.
+ */
+class ComponentState {
+    private static final Set<String> PROPERTIES = new HashSet<>(Arrays.asList("name", "state"));
+
+    private final String name;
+    private final String state;
+
+    /**
+     * Streams the component list and only retains the pending components.
+     *
+     * @param reader the JSON representation of the component list. Must not be <code>null</code>.
+     * @return the pending components in the order they are listed. Never <code>null</code>.
+     * @throws JSONException if the component list is not valid JSON.
+     */
+    @NotNull
+    static List<ComponentState> readPending(@NotNull Reader reader) {
+        return ConsoleData.read(reader, PROPERTIES, ComponentState::of, ComponentState::isPending);
+    }
+
+    @NotNull
+    private static ComponentState of(@NotNull Map<String, Object> values) {
+        String name = getString(values, "name");
+        String state = getString(values, "state");
+        if (name == null || state == null) {
+            throw new JSONException("A component must have a name and a state, got " + values);
+        }
+        return new ComponentState(name, state);
+    }
+
+    private ComponentState(String name, String state) {
+        this.name = name;
+        this.state = state;
+    }
+
+    /**
+     * @return whether the component is unsatisfied for lack of a reference, or failed to activate.
+     */
+    boolean isPending() {
+        String state = this.state.toLowerCase(ROOT);
+        return state.startsWith("unsatisfied") && !state.contains("configuration") || state.startsWith("failed");
+    }
+
+    @NotNull
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name + ", state: " + state;
+    }
+}
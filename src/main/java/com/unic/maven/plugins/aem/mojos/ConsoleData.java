@@ -0,0 +1,175 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Streams the <code>data</code> array of the JSON lists rendered by the Felix web console, e.g. <code>/system/console/bundles.json</code>.
+ * No JSON object is built for the list or its entries: Of each entry, only the requested properties are retained, and only the
+ * requested entries are kept. The values of all other properties are skipped without being created.
+ */
+class ConsoleData {
+    private ConsoleData() {
+    }
+
+    /**
+     * @param reader     the JSON representation of the list. Must not be <code>null</code>.
+     * @param properties the properties to read from each entry. Must not be <code>null</code>.
+     * @param entry      creates an entry from the read properties. The properties are only valid during the invocation.
+     * @param retain     selects the entries to return.
+     * @return the retained entries in the order they are listed. Never <code>null</code>.
+     * @throws JSONException if the list is not valid JSON.
+     */
+    @NotNull
+    static <T> List<T> read(@NotNull Reader reader,
+                            @NotNull Set<String> properties,
+                            @NotNull Function<Map<String, Object>, T> entry,
+                            @NotNull Predicate<T> retain) {
+        JSONTokener tokener = new JSONTokener(reader);
+        List<T> entries = new ArrayList<>();
+        Map<String, Object> values = new HashMap<>();
+
+        expect(tokener, '{');
+        while (nextMember(tokener, '}')) {
+            String key = nextKey(tokener);
+            if (!"data".equals(key)) {
+                skipValue(tokener);
+                continue;
+            }
+            expect(tokener, '[');
+            while (nextMember(tokener, ']')) {
+                values.clear();
+                expect(tokener, '{');
+                while (nextMember(tokener, '}')) {
+                    String property = nextKey(tokener);
+                    if (properties.contains(property)) {
+                        values.put(property, tokener.nextValue());
+                    } else {
+                        skipValue(tokener);
+                    }
+                }
+                T t = entry.apply(values);
+                if (retain.test(t)) {
+                    entries.add(t);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void expect(@NotNull JSONTokener tokener, char expected) {
+        if (tokener.nextClean() != expected) {
+            throw tokener.syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * @return whether another member of the current object or array follows, consuming the separating comma, if any.
+     */
+    private static boolean nextMember(@NotNull JSONTokener tokener, char end) {
+        char c = tokener.nextClean();
+        if (c == ',') {
+            c = tokener.nextClean();
+        }
+        if (c == end) {
+            return false;
+        }
+        if (c == 0) {
+            throw tokener.syntaxError("Expected '" + end + "'");
+        }
+        tokener.back();
+        return true;
+    }
+
+    /**
+     * Skips the next value without creating it, e.g. without building the strings of unused properties.
+     */
+    private static void skipValue(@NotNull JSONTokener tokener) {
+        char c = tokener.nextClean();
+        if (c == '"' || c == '\'') {
+            for (char quote = c, next = tokener.next(); next != quote; next = tokener.next()) {
+                if (next == 0 || next == '\n' || next == '\r') {
+                    throw tokener.syntaxError("Unterminated string");
+                }
+                if (next == '\\') {
+                    tokener.next();
+                }
+            }
+        } else if (c == '{' || c == '[') {
+            char end = c == '{' ? '}' : ']';
+            while (nextMember(tokener, end)) {
+                if (c == '{') {
+                    nextKey(tokener);
+                }
+                skipValue(tokener);
+            }
+        } else {
+            tokener.back();
+            tokener.nextValue();
+        }
+    }
+
+    @NotNull
+    private static String nextKey(@NotNull JSONTokener tokener) {
+        String key = tokener.nextValue().toString();
+        expect(tokener, ':');
+        return key;
+    }
+
+    /**
+     * @return the given property as a string, or <code>null</code> if it is missing.
+     */
+    static String getString(@NotNull Map<String, Object> values, @NotNull String property) {
+        Object value = values.get(property);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @return the given property as an int, or the default value if it is missing.
+     * @throws JSONException if the property is not a number.
+     */
+    static int getInt(@NotNull Map<String, Object> values, @NotNull String property, int defaultValue) {
+        Object value = values.get(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new JSONException("Expected " + property + " to be a number, got " + value);
+        }
+    }
+
+    /**
+     * @return whether the given property is <code>true</code>.
+     */
+    static boolean getBoolean(@NotNull Map<String, Object> values, @NotNull String property) {
+        Object value = values.get(property);
+        return Boolean.TRUE.equals(value) || "true".equals(value);
+    }
+}
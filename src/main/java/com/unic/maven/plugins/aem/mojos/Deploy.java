@@ -13,10 +13,14 @@
 package com.unic.maven.plugins.aem.mojos;
 
 import com.unic.maven.plugins.aem.core.DeployCommand;
+import com.unic.maven.plugins.aem.core.httpactions.RetryPolicy;
+import com.unic.maven.plugins.aem.util.AemHttpClient;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
@@ -31,10 +35,16 @@ import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
+import static com.unic.maven.plugins.aem.util.FileUtil.formatByteCount;
+import static java.lang.Math.max;
+import static java.lang.System.currentTimeMillis;
+import static java.util.Arrays.asList;
 import static java.util.Collections.addAll;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * Deploys a CRX package from either local files (e.g. residing within the build directory) or from configured maven artifacts.
@@ -53,6 +63,12 @@ public class Deploy extends AemMojo {
     @Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
     private RepositorySystemSession repoSession;
 
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${project}", readonly = true)
+    private MavenProject project;
+
     /**
      * The artifacts to deploy, in format
      * <code>&lt;groupId&gt;:&lt;artifactId&gt;[:&lt;extension&gt;[:&lt;classifier&gt;]]:&lt;version&gt;</code>
@@ -84,6 +100,46 @@ public class Deploy extends AemMojo {
     @Parameter(defaultValue = "3", property = "deploy.retries")
     private int deployRetries = 3;
 
+    /**
+     * The delay, in milliseconds, before the first re-try of a failed upload or installation. The delay doubles with each re-try,
+     * up to {@link #deployRetryMaxDelay}, and is randomly varied by up to +/- {@link #deployRetryJitter}.
+     */
+    @Parameter(defaultValue = "10000", property = "deploy.retryDelay")
+    private long deployRetryDelay = 10000;
+
+    /**
+     * The maximum delay, in milliseconds, between two attempts.
+     */
+    @Parameter(defaultValue = "120000", property = "deploy.retryMaxDelay")
+    private long deployRetryMaxDelay = 120000;
+
+    /**
+     * The fraction, between 0 and 1, by which the delay between two attempts is randomly varied, such that concurrent deployments do not
+     * re-try at the same time.
+     */
+    @Parameter(defaultValue = "0.2", property = "deploy.retryJitter")
+    private double deployRetryJitter = 0.2;
+
+    /**
+     * The maximum time, in seconds, all attempts of a single upload or installation may take, including the delays. 0 for no limit.
+     */
+    @Parameter(defaultValue = "1800", property = "deploy.retryBudget")
+    private long deployRetryBudget = 1800;
+
+    /**
+     * The maximum time, in seconds, to wait for the package manager to become available before an upload or installation,
+     * e.g. while the instance restarts.
+     */
+    @Parameter(defaultValue = "80", property = "deploy.availabilityTimeout")
+    private long deployAvailabilityTimeout = 80;
+
+    /**
+     * Once an instance was found to be unreachable, all further uploads and installations on the instance fail immediately for this number
+     * of seconds, instead of each waiting for the instance. 0 disables this.
+     */
+    @Parameter(defaultValue = "60", property = "deploy.circuitOpenTime")
+    private long deployCircuitOpenTime = 60;
+
     /**
      * Enable the "Pause/resume JCR Installer" feature. By default it is disabled.
      * This feature is only available for AEM 6.1+.
@@ -92,53 +148,325 @@ public class Deploy extends AemMojo {
     @Parameter(property = "pause.jcrInstaller")
     private boolean pauseJcrInstaller = false;
 
+    /**
+     * Deploy to these AEM instances instead of the instance defined by {@link #baseUrl}, {@link #httpPort} and {@link #contextPath}.
+     * Each target is the scheme, host, port and context path of an instance, e.g. <code>http://publish1.acme.com:4503</code>.
+     * All instances must share the same {@link #adminPassword admin password}. The instances are deployed to concurrently,
+     * see {@link #deployParallelism}.
+     */
+    @Parameter(property = "deploy.targets")
+    private String[] deployTargets = new String[] {};
+
+    /**
+     * The maximum number of {@link #deployTargets target instances} deployed to concurrently.
+     */
+    @Parameter(defaultValue = "4", property = "deploy.parallelism")
+    private int deployParallelism = 4;
+
+    /**
+     * Upload the following packages while the current package is installing. The packages are still installed in the configured order.
+     * This hides the upload time of large packages behind the installation time of their predecessors.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.pipelined")
+    private boolean deployPipelined = false;
+
+    /**
+     * Skip packages that have not changed since they were last deployed. The digest of each deployed package is recorded in the
+     * build directory, and a package is skipped if its digest matches the recorded digest and the package manager reports the package
+     * as installed with the same size.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.skipUnchanged")
+    private boolean deploySkipUnchanged = false;
+
+    /**
+     * When {@link #deploySkipUnchanged skipping unchanged packages} and {@link #deploySubpackages deploying subpackages}, install a changed container package
+     * without its subpackages and then install only those embedded subpackages that changed since they were last deployed or that are not installed.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.skipUnchangedSubpackages")
+    private boolean deploySkipUnchangedSubpackages = false;
+
+    /**
+     * Derive the installation order from the dependencies declared in the packages' <code>META-INF/vault/properties.xml</code>
+     * instead of using the configured order. Dependencies not satisfied by the deployed packages must already be installed on the
+     * target instance. Cyclic or missing dependencies fail the deployment before any package is uploaded.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.resolveDependencies")
+    private boolean deployResolveDependencies = false;
+
+    /**
+     * The maximum number of packages installed concurrently on the same instance when
+     * {@link #deployResolveDependencies resolving dependencies}. Only packages that do not depend on each other
+     * are installed concurrently.
+     */
+    @Parameter(defaultValue = "1", property = "deploy.packageParallelism")
+    private int deployPackageParallelism = 1;
+
+    /**
+     * Poll the package state until an installation completed, instead of depending on a single connection being held open for the entire
+     * installation. This is robust against proxies or load balancers terminating long requests, as a lost connection does not re-start the
+     * installation.
+     * Note that errors of individual package entries are only detected by the default, synchronous installation.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.asyncInstall")
+    private boolean deployAsyncInstall = false;
+
+    /**
+     * The maximum number of minutes an {@link #deployAsyncInstall asynchronous installation} may take. An installation that fails on the
+     * server after the connection of its request was lost is only detected once this time elapsed.
+     */
+    @Parameter(defaultValue = "10", property = "deploy.asyncInstallTimeout")
+    private int deployAsyncInstallTimeout = 10;
+
+    /**
+     * Verify all packages locally before deploying them: Each file must be an intact zip file with parseable package metadata and workspace
+     * filter, or an OSGi bundle. Invalid packages fail the deployment before anything is uploaded. The packages are verified concurrently.
+     * <p>
+     * Enabled by default: Deploying a file that is neither a content package nor an OSGi bundle thus fails, whereas previous versions
+     * uploaded such files to the package manager. Set to <code>false</code> to restore that behavior.
+     * </p>
+     */
+    @Parameter(defaultValue = "true", property = "deploy.verifyPackages")
+    private boolean deployVerifyPackages = true;
+
+    /**
+     * OSGi bundles among the deployed files and artifacts are installed directly via the system console, bypassing the package manager
+     * and the JCR installer, and the deployment only waits for the bundle to become active. Whether to refresh the packages after a bundle is
+     * installed. Refreshing re-wires the dependent bundles and may thus restart a large number of services.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.refreshPackages")
+    private boolean deployRefreshPackages = false;
+
+    /**
+     * Upload packages larger than this number of bytes in chunks of this size to a staging location in the repository, and resume an
+     * interrupted upload from the last chunk received instead of re-sending the entire package. Useful for large packages and unreliable
+     * connections. Set to 0 to upload all packages at once.
+     */
+    @Parameter(defaultValue = "0", property = "deploy.resumableUploadChunkSize")
+    private int deployResumableUploadChunkSize = 0;
+
+    /**
+     * Keep the package last deployed to each instance in the build directory, and deploy only the changed, added and removed content of a
+     * new version in a synthetic delta package. The entire package is deployed if it was not deployed to the instance before, or if
+     * anything but its content changed, e.g. its filter.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.deltaPackages")
+    private boolean deployDeltaPackages = false;
+
+    /**
+     * In a multi-module build, defer the deployment of each module to the end of the reactor build and deploy the files of all
+     * modules together, once the last project of the reactor has been built. The JCR installer is thus paused and resumed only once
+     * per instance, and the instances are checked for readiness only once. The files are deployed in reactor order, using the
+     * configuration of the first module deploying to the same {@link #deployTargets targets}. All modules deferring their deployment must
+     * thus configure it identically, apart from the {@link #deployFiles files} and {@link #deployArtifacts artifacts}, otherwise the
+     * deployment fails. The digests of {@link #deploySkipUnchanged unchanged packages} are recorded in the build directory of that first
+     * module. If a project of the reactor fails, the deferred files are not deployed and the build fails.
+     */
+    @Parameter(defaultValue = "false", property = "deploy.atEnd")
+    private boolean deployAtEnd = false;
+
     @Override
     public void runMojo() throws MojoFailureException {
+        if (deployAtEnd && session != null && project != null) {
+            deployAtEndOfReactor();
+            return;
+        }
+        createDeployCommand(getFilesToDeploy()).execute();
+    }
+
+    /**
+     * Adds the files of this module to the {@link ReactorDeploySession}. The files of all modules are deployed once the last project of
+     * the reactor has been built, see {@link #deployDeferred(Collection)}.
+     */
+    private void deployAtEndOfReactor() throws MojoFailureException {
+        List<File> files = getFilesToDeploy();
+        ReactorDeploySession.of(session).add(project, this, getTargetUris().toString(), files);
+        getLog().info("Deferring the deployment of " + files.size() + " file(s) of " + project.getArtifactId() +
+                " to the end of the reactor build.");
+    }
+
+    /**
+     * Deploys the files deferred by all modules, each group of requests with the configuration of the module that requested the
+     * first deployment to the group's targets.
+     *
+     * @param requestsByTarget the deferred deployments, grouped by their target instances in reactor order. Must not be null.
+     * @throws MojoFailureException if the modules deploying to the same targets configure the deployment differently.
+     */
+    static void deployDeferred(@NotNull Collection<List<ReactorDeploySession.Request>> requestsByTarget) throws MojoFailureException {
+        for (List<ReactorDeploySession.Request> requests : requestsByTarget) {
+            verifyIdenticalConfiguration(requests);
+        }
+        // The deployment runs after the mojo executions, thus it scopes the connection pools itself.
+        try (AemHttpClient.Session ignored = AemHttpClient.openSession()) {
+            for (List<ReactorDeploySession.Request> requests : requestsByTarget) {
+                List<File> allFiles = new ArrayList<>();
+                List<String> projects = new ArrayList<>();
+                for (ReactorDeploySession.Request request : requests) {
+                    allFiles.addAll(request.getFiles());
+                    projects.add(request.getProject().getArtifactId());
+                }
+                Deploy mojo = requests.get(0).getMojo();
+                mojo.getLog().info("Deploying " + allFiles.size() + " file(s) of " + projects.size() + " module(s): " + String.join(", ", projects));
+                mojo.createDeployCommand(allFiles).execute();
+            }
+        }
+    }
+
+    /**
+     * The files of all modules are deployed with the configuration of the first module, thus all modules must configure the deployment
+     * identically.
+     *
+     * @throws MojoFailureException if any of the given requests configures the deployment differently than the first request.
+     */
+    private static void verifyIdenticalConfiguration(@NotNull List<ReactorDeploySession.Request> requests) throws MojoFailureException {
+        ReactorDeploySession.Request first = requests.get(0);
+        for (ReactorDeploySession.Request request : requests) {
+            if (!request.getMojo().getDeploymentConfiguration().equals(first.getMojo().getDeploymentConfiguration())) {
+                throw new MojoFailureException("The deployment configuration of " + request.getProject().getArtifactId() +
+                        " differs from the configuration of " + first.getProject().getArtifactId() + ", which is used to deploy the files " +
+                        "of all modules at the end of the build. Configure the deployment of all modules deploying at the end of the " +
+                        "build identically.");
+            }
+        }
+    }
+
+    /**
+     * @return the configuration of this mojo applying to a deployment, apart from the files and the target instances. Never null.
+     */
+    @NotNull
+    private List<Object> getDeploymentConfiguration() {
+        return asList(getAdminPassword(), deploySaveThreshold, deploySubpackages, deployRetries, deployRetryDelay, deployRetryMaxDelay,
+                deployRetryJitter, deployRetryBudget, deployAvailabilityTimeout, deployCircuitOpenTime, pauseJcrInstaller,
+                deployParallelism, deployPipelined, deploySkipUnchanged, deploySkipUnchangedSubpackages,
+                deployResolveDependencies, deployPackageParallelism, deployAsyncInstall, deployAsyncInstallTimeout, deployVerifyPackages,
+                deployRefreshPackages, deployResumableUploadChunkSize, deployDeltaPackages);
+    }
+
+    /**
+     * @return the files of the resolved {@link #deployArtifacts} followed by the {@link #deployFiles}. Never null.
+     * @throws MojoFailureException if any artifact cannot be resolved.
+     */
+    @NotNull
+    List<File> getFilesToDeploy() throws MojoFailureException {
         List<File> files = new LinkedList<>();
         for (Artifact artifact : resolveArtifactsToDeploy()) {
             files.add(artifact.getFile());
         }
 
         addAll(files, deployFiles);
+        return files;
+    }
 
+    /**
+     * @return a command deploying the given files according to the configuration of this mojo. Never null.
+     * @throws MojoFailureException if any of the {@link #deployTargets} is not a valid URI.
+     */
+    @NotNull
+    DeployCommand createDeployCommand(@NotNull List<File> files) throws MojoFailureException {
+        return new DeployCommand(
+                new MavenLogAdapter(getLog()),
+                getTargetUris(),
+                getAdminPassword(),
+                deployRetries,
+                files,
+                deploySaveThreshold,
+                deploySubpackages,
+                pauseJcrInstaller,
+                deployParallelism)
+                .withPipelinedUploads(deployPipelined)
+                .withWorkingDirectory(targetDirectory)
+                .withSkipUnchangedPackages(deploySkipUnchanged)
+                .withSkipUnchangedSubpackages(deploySkipUnchangedSubpackages)
+                .withDependencyResolution(deployResolveDependencies, deployPackageParallelism)
+                .withAsynchronousInstallation(deployAsyncInstall, deployAsyncInstallTimeout)
+                .withPackageVerification(deployVerifyPackages)
+                .withBundlePackageRefresh(deployRefreshPackages)
+                .withResumableUploads(deployResumableUploadChunkSize)
+                .withDeltaPackages(deployDeltaPackages)
+                .withRetryPolicy(RetryPolicy.DEFAULT
+                        .withRetries(deployRetries, deployRetries)
+                        .withDelays(deployRetryDelay, 2, max(deployRetryDelay, deployRetryMaxDelay))
+                        .withJitter(deployRetryJitter)
+                        .withBudget(SECONDS.toMillis(deployRetryBudget))
+                        .withAvailabilityTimeout(SECONDS.toMillis(deployAvailabilityTimeout))
+                        .withCircuitOpenTime(SECONDS.toMillis(deployCircuitOpenTime)));
+    }
+
+    /**
+     * @return the URIs of the configured {@link #deployTargets}, or the {@link #getAemBaseUrl() AEM base URL} if
+     * no targets are configured. Never null.
+     * @throws MojoFailureException if any of the URLs is not a valid URI.
+     */
+    @NotNull
+    private List<URI> getTargetUris() throws MojoFailureException {
+        List<URI> targets = new ArrayList<>();
+        if (deployTargets.length == 0) {
+            targets.add(toUri(getAemBaseUrl()));
+        }
+        for (String target : deployTargets) {
+            targets.add(toUri(target));
+        }
+        return targets;
+    }
+
+    @NotNull
+    private static URI toUri(@NotNull String url) throws MojoFailureException {
         try {
-            new DeployCommand(
-                    new MavenLogAdapter(getLog()),
-                    new URI(getAemBaseUrl()),
-                    getAdminPassword(),
-                    deployRetries,
-                    files,
-                    deploySaveThreshold,
-                    deploySubpackages,
-                    pauseJcrInstaller).execute();
+            return new URI(url);
         } catch (URISyntaxException e) {
-            throw new MojoFailureException("Illegal AEM base URL", e);
+            throw new MojoFailureException("Illegal AEM base URL " + url, e);
         }
     }
 
     /**
-     * Resolves the configured deployArtifacts from either the local or remote repositories.
+     * Resolves the configured deployArtifacts from either the local or remote repositories. All artifacts are resolved in a single
+     * batch, allowing the repository system to download missing artifacts concurrently.
      *
-     * @return never null.
+     * @return the resolved artifacts in the configured order, never null.
      * @throws MojoFailureException if any file resolution fails
      */
     @NotNull
     private List<Artifact> resolveArtifactsToDeploy() throws MojoFailureException {
-        List<Artifact> resolvedArtifacts = new ArrayList<>();
+        if (deployArtifacts.length == 0) {
+            return new ArrayList<>();
+        }
+
+        List<ArtifactRequest> requests = new ArrayList<>(deployArtifacts.length);
         for (String artifact : deployArtifacts) {
             try {
-                ArtifactRequest request = new ArtifactRequest().setArtifact(new DefaultArtifact(artifact));
-                request.setRepositories(projectRepos);
-                ArtifactResult artifactResult = this.repositorySystem.resolveArtifact(repoSession, request);
-                if (!artifactResult.isResolved()) {
-                    throw new MojoFailureException("Unable to resolve file " + artifact + ".");
+                requests.add(new ArtifactRequest().setArtifact(new DefaultArtifact(artifact)).setRepositories(projectRepos));
+            } catch (IllegalArgumentException e) {
+                throw new MojoFailureException("Unable to resolve file " + artifact + ": " + e.getMessage(), e);
+            }
+        }
+
+        long start = currentTimeMillis();
+        List<ArtifactResult> results;
+        try {
+            results = this.repositorySystem.resolveArtifacts(repoSession, requests);
+        } catch (ArtifactResolutionException e) {
+            List<String> unresolved = new ArrayList<>();
+            for (ArtifactResult result : e.getResults()) {
+                if (!result.isResolved()) {
+                    unresolved.add(result.getRequest().getArtifact().toString());
                 }
-                resolvedArtifacts.add(artifactResult.getArtifact());
-            } catch (ArtifactResolutionException e) {
-                throw new MojoFailureException("Unable to resolve file " + artifact + ".", e);
             }
+            throw new MojoFailureException("Unable to resolve file(s) " + String.join(", ", unresolved) + ".", e);
         }
+
+        List<Artifact> resolvedArtifacts = new ArrayList<>(results.size());
+        long totalSize = 0;
+        for (ArtifactResult result : results) {
+            if (!result.isResolved()) {
+                throw new MojoFailureException("Unable to resolve file " + result.getRequest().getArtifact() + ".");
+            }
+            Artifact artifact = result.getArtifact();
+            resolvedArtifacts.add(artifact);
+            totalSize += artifact.getFile().length();
+            getLog().debug("Resolved " + artifact + " (" + formatByteCount(artifact.getFile().length()) + ") from " +
+                    (result.getRepository() == null ? "an unknown repository" : result.getRepository().getId()) + ".");
+        }
+        getLog().info("Resolved " + resolvedArtifacts.size() + " artifact(s) with a total size of " + formatByteCount(totalSize) +
+                " in " + (currentTimeMillis() - start) + " ms.");
         return resolvedArtifacts;
     }
-
 }
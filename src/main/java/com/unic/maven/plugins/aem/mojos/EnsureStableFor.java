@@ -24,10 +24,10 @@ public class EnsureStableFor extends AwaitInitialization {
     private int expectedStableTimeInSeconds;
 
     @Override
-    public void runMojo() throws MojoExecutionException, MojoFailureException {
+    void awaitInitialization() throws MojoExecutionException, MojoFailureException {
         long waitUntilInMillis = currentTimeMillis() + MINUTES.toMillis(getInitializationWaitTime());
 
-        super.runMojo();
+        super.awaitInitialization();
 
         // At this point we now that AEM is initialized. Otherwise, the MOJO would have failed already.
         long stableSince = currentTimeMillis();
@@ -0,0 +1,139 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import com.unic.maven.plugins.aem.util.AemHttpClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import unirest.HttpRequest;
+import unirest.HttpResponse;
+import unirest.JsonNode;
+import unirest.UnirestException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates the Sling health checks with the given tags using the health check executor servlet (<code>/system/health</code>). A check
+ * passes if its status is <code>OK</code> or <code>WARN</code>. Once all checks were evaluated, subsequent evaluations only execute the
+ * checks that failed before. When these pass, all checks are evaluated again, such that a check that regressed in the meantime is not
+ * missed.
+ */
+class HealthChecks {
+    private static final String EXECUTOR_PATH = "/system/health";
+
+    private final String tags;
+    private Set<String> failing = null;
+
+    /**
+     * @param tags the tags of the health checks to evaluate. Must not be <code>null</code> or empty.
+     */
+    HealthChecks(@NotNull String[] tags) {
+        if (tags.length == 0) {
+            throw new IllegalArgumentException("At least one health check tag is required.");
+        }
+        this.tags = String.join(",", tags);
+    }
+
+    /**
+     * Thread-safe. The checks are evaluated without holding a lock, only the set of failing checks is updated atomically.
+     *
+     * @param socketTimeoutInMillis the maximum time to wait for the results.
+     * @return the information of the failing health checks. Empty if all checks pass. Never <code>null</code>.
+     */
+    @NotNull
+    List<String> getFailing(@NotNull AemHttpClient client, int socketTimeoutInMillis) throws UnirestException {
+        Set<String> previouslyFailing = getPreviouslyFailing();
+        if (previouslyFailing != null) {
+            Map<String, String> stillFailing = evaluate(client, client.get(EXECUTOR_PATH + ".json").socketTimeout(socketTimeoutInMillis)
+                    .queryString("names", String.join(",", previouslyFailing)));
+            // If none of the checks exist anymore, e.g. since they were re-registered under a different name, evaluate all checks.
+            if (!stillFailing.isEmpty() && !stillFailing.containsKey(null)) {
+                setFailing(stillFailing.keySet());
+                return new ArrayList<>(stillFailing.values());
+            }
+        }
+
+        Map<String, String> allFailing = evaluate(client, client.get(EXECUTOR_PATH + '/' + tags + ".json").socketTimeout(socketTimeoutInMillis));
+        setFailing(allFailing.isEmpty() || allFailing.containsKey(null) ? null : allFailing.keySet());
+        return new ArrayList<>(allFailing.values());
+    }
+
+    @Nullable
+    private synchronized Set<String> getPreviouslyFailing() {
+        return failing;
+    }
+
+    private synchronized void setFailing(@Nullable Set<String> failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * @return the information of the failing checks by their name. If no checks were executed, e.g. since the checks are not
+     * registered yet, a single entry with a <code>null</code> name. Never <code>null</code>.
+     */
+    @NotNull
+    private Map<String, String> evaluate(@NotNull AemHttpClient client, @NotNull HttpRequest<?> request) throws UnirestException {
+        HttpResponse<JsonNode> response = request.asJson();
+        client.checkAuthentication(response);
+        // The executor responds with 503 if a check fails, but still renders the results.
+        if (response.getStatus() != 200 && response.getStatus() != 503 || response.getParsingError().isPresent()) {
+            throw new UnirestException("Unable to evaluate the health checks with tags " + tags + ", AEM responded " +
+                    response.getStatus() + " " + response.getStatusText() + ".");
+        }
+
+        JSONArray results = response.getBody().getObject().optJSONArray("results");
+        if (results == null) {
+            throw new JSONException("The health check executor did not render any results: " + response.getBody());
+        }
+
+        Map<String, String> failing = new LinkedHashMap<>();
+        if (results.length() == 0) {
+            failing.put(null, "No health checks with tags " + tags + " are registered.");
+            return failing;
+        }
+        for (int i = 0; i < results.length(); ++i) {
+            JSONObject result = results.getJSONObject(i);
+            String status = result.optString("status");
+            if (!"OK".equals(status) && !"WARN".equals(status)) {
+                String name = result.getString("name");
+                failing.put(name, name + ", status: " + status + getMessage(result));
+            }
+        }
+        return failing;
+    }
+
+    /**
+     * @return the first message of the given result that is not merely informational, if any.
+     */
+    @NotNull
+    private static String getMessage(@NotNull JSONObject result) {
+        JSONArray messages = result.optJSONArray("messages");
+        if (messages == null) {
+            return "";
+        }
+        for (int i = 0; i < messages.length(); ++i) {
+            JSONObject message = messages.optJSONObject(i);
+            if (message != null && !"DEBUG".equals(message.optString("status")) && !"OK".equals(message.optString("status"))) {
+                return ", " + message.optString("message");
+            }
+        }
+        return "";
+    }
+}
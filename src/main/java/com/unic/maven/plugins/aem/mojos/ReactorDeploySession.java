@@ -0,0 +1,278 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.BuildFailure;
+import org.apache.maven.execution.BuildSummary;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparingInt;
+
+/**
+ * Collects the deployments of all modules of a reactor build, such that they can be executed at once at the end of the build,
+ * i.e. with a single JCR installer pause and resume cycle per instance. Thread-safe, as modules may be built concurrently.
+ * <p>
+ * The collected deployments are executed once the last project of the reactor has been built, as reported to the execution listener.
+ * Thus, neither the number of deferring modules nor their configuration has to be known in advance. If a project failed or was
+ * skipped, e.g. under <code>--fail-at-end</code>, nothing is deployed and the build fails, as the deferred files are incomplete.
+ * </p>
+ */
+class ReactorDeploySession {
+    private static final Map<MavenExecutionRequest, ReactorDeploySession> SESSIONS = new WeakHashMap<>();
+
+    private final List<MavenProject> projects;
+    private final List<Request> requests = new ArrayList<>();
+    private final Set<MavenProject> builtProjects = new HashSet<>();
+    private boolean failed = false;
+
+    /**
+     * @return the deploy session of the given maven session, never null.
+     */
+    @NotNull
+    static synchronized ReactorDeploySession of(@NotNull MavenSession session) {
+        // Parallel builds clone the session per module, but all clones share the execution request.
+        return SESSIONS.computeIfAbsent(session.getRequest(), request -> {
+            ReactorDeploySession reactorSession = new ReactorDeploySession(session.getProjects());
+            // The projects built before the first module deferred its deployment are not reported to the listener.
+            for (MavenProject project : session.getProjects()) {
+                BuildSummary summary = session.getResult().getBuildSummary(project);
+                if (summary != null) {
+                    reactorSession.builtProjects.add(project);
+                    reactorSession.failed |= summary instanceof BuildFailure;
+                }
+            }
+            // Maven obtains the listener from the request for each event, thus it is notified about all subsequent events.
+            request.setExecutionListener(reactorSession.new BuildEndListener(request.getExecutionListener()));
+            return reactorSession;
+        });
+    }
+
+    private ReactorDeploySession(List<MavenProject> projects) {
+        this.projects = new ArrayList<>(projects);
+    }
+
+    /**
+     * Adds the deployment of a module. It is executed once the last project of the reactor has been built.
+     */
+    synchronized void add(@NotNull MavenProject project, @NotNull Deploy mojo, @NotNull String target, @NotNull List<File> files) {
+        requests.add(new Request(project, mojo, target, files));
+    }
+
+    /**
+     * Records that the given project was built, and removes all added deployments from this session if it was the last project of
+     * the reactor.
+     *
+     * @param succeeded whether the project was built successfully.
+     * @return the deployments to execute, grouped by their target instances in reactor order, if this was the last project of the
+     * reactor. Never null.
+     */
+    @NotNull
+    private synchronized Collection<List<Request>> built(@NotNull MavenProject project, boolean succeeded) {
+        builtProjects.add(project);
+        failed |= !succeeded;
+        if (builtProjects.size() < projects.size()) {
+            return emptyList();
+        }
+        // Modules may be built concurrently, thus the order of the requests may differ from the reactor order.
+        requests.sort(comparingInt(request -> projects.indexOf(request.project)));
+        Map<String, List<Request>> requestsByTarget = new LinkedHashMap<>();
+        for (Request request : requests) {
+            requestsByTarget.computeIfAbsent(request.target, target -> new ArrayList<>()).add(request);
+        }
+        requests.clear();
+        return requestsByTarget.values();
+    }
+
+    private synchronized boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Executes the deferred deployments once the last reactor project was built, and fails the build if they fail or cannot be
+     * executed. Delegates all events to the listener previously registered with the execution request.
+     */
+    private class BuildEndListener implements ExecutionListener {
+        private final ExecutionListener delegate;
+
+        private BuildEndListener(@Nullable ExecutionListener delegate) {
+            this.delegate = delegate == null ? new AbstractExecutionListener() {
+            } : delegate;
+        }
+
+        private void built(@NotNull ExecutionEvent event, boolean succeeded) {
+            Collection<List<Request>> requestsByTarget = ReactorDeploySession.this.built(event.getProject(), succeeded);
+            if (requestsByTarget.isEmpty()) {
+                return;
+            }
+            Deploy mojo = requestsByTarget.iterator().next().get(0).getMojo();
+            try {
+                if (hasFailed()) {
+                    List<String> modules = new ArrayList<>();
+                    for (List<Request> requests : requestsByTarget) {
+                        for (Request request : requests) {
+                            modules.add(request.getProject().getArtifactId());
+                        }
+                    }
+                    throw new MojoFailureException("The deployment of " + String.join(", ", modules) + " was deferred to the end of " +
+                            "the build, but the files were not deployed since not all projects of the reactor were built successfully.");
+                }
+                Deploy.deployDeferred(requestsByTarget);
+            } catch (MojoFailureException | RuntimeException e) {
+                mojo.getLog().error(e.getMessage());
+                event.getSession().getResult().addException(e);
+            }
+        }
+
+        @Override
+        public void projectSucceeded(ExecutionEvent event) {
+            delegate.projectSucceeded(event);
+            built(event, true);
+        }
+
+        @Override
+        public void projectFailed(ExecutionEvent event) {
+            delegate.projectFailed(event);
+            built(event, false);
+        }
+
+        @Override
+        public void projectSkipped(ExecutionEvent event) {
+            delegate.projectSkipped(event);
+            built(event, false);
+        }
+
+        @Override
+        public void projectDiscoveryStarted(ExecutionEvent event) {
+            delegate.projectDiscoveryStarted(event);
+        }
+
+        @Override
+        public void sessionStarted(ExecutionEvent event) {
+            delegate.sessionStarted(event);
+        }
+
+        @Override
+        public void sessionEnded(ExecutionEvent event) {
+            delegate.sessionEnded(event);
+        }
+
+        @Override
+        public void projectStarted(ExecutionEvent event) {
+            delegate.projectStarted(event);
+        }
+
+        @Override
+        public void mojoSkipped(ExecutionEvent event) {
+            delegate.mojoSkipped(event);
+        }
+
+        @Override
+        public void mojoStarted(ExecutionEvent event) {
+            delegate.mojoStarted(event);
+        }
+
+        @Override
+        public void mojoSucceeded(ExecutionEvent event) {
+            delegate.mojoSucceeded(event);
+        }
+
+        @Override
+        public void mojoFailed(ExecutionEvent event) {
+            delegate.mojoFailed(event);
+        }
+
+        @Override
+        public void forkStarted(ExecutionEvent event) {
+            delegate.forkStarted(event);
+        }
+
+        @Override
+        public void forkSucceeded(ExecutionEvent event) {
+            delegate.forkSucceeded(event);
+        }
+
+        @Override
+        public void forkFailed(ExecutionEvent event) {
+            delegate.forkFailed(event);
+        }
+
+        @Override
+        public void forkedProjectStarted(ExecutionEvent event) {
+            delegate.forkedProjectStarted(event);
+        }
+
+        @Override
+        public void forkedProjectSucceeded(ExecutionEvent event) {
+            delegate.forkedProjectSucceeded(event);
+        }
+
+        @Override
+        public void forkedProjectFailed(ExecutionEvent event) {
+            delegate.forkedProjectFailed(event);
+        }
+    }
+
+    /**
+     * The files a module deploys to a target.
+     */
+    static class Request {
+        private final MavenProject project;
+        private final Deploy mojo;
+        private final String target;
+        private final List<File> files;
+
+        private Request(MavenProject project, Deploy mojo, String target, List<File> files) {
+            this.project = project;
+            this.mojo = mojo;
+            this.target = target;
+            this.files = files;
+        }
+
+        @NotNull
+        MavenProject getProject() {
+            return project;
+        }
+
+        /**
+         * @return the mojo that requested the deployment, providing the deployment configuration. Never null.
+         */
+        @NotNull
+        Deploy getMojo() {
+            return mojo;
+        }
+
+        @NotNull
+        List<File> getFiles() {
+            return files;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static java.lang.Math.max;
+
+/**
+ * Incrementally consumes the event log of the Felix web console (<code>/system/console/events.json</code>). The log is streamed and
+ * parsed event by event, and only the events not seen by a previous poll are processed. The web console lists the newest events first,
+ * thus parsing stops at the first event that was already seen, i.e. the parsing effort of a poll only depends on the number of new events.
+ * Note that the entire log is still transferred: Closing the response consumes its remainder, such that the connection can be re-used.
+ * Should the log list the oldest events first, all events are parsed, but still only the new events are processed.
+ * <p>
+ * Event ids are increasing numbers. If the newest event has a lower id than the events seen before, the event log was reset,
+ * e.g. since the instance restarted, and all events are processed again.
+ * </p>
+ * <p>
+ * The log is thread-safe, as a poll may still update it after the poll timed out.
+ * </p>
+ */
+class ServiceEventLog {
+    private final Predicate<JSONObject> filter;
+    private final Deque<Event> events = new ArrayDeque<>();
+    private long highestSeenId = -1;
+    private Boolean newestFirst = null;
+
+    /**
+     * @param filter selects the relevant events. Must not be <code>null</code>.
+     */
+    ServiceEventLog(@NotNull Predicate<JSONObject> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Consumes the new events from the given event log.
+     *
+     * @param reader the JSON representation of the event log. Must not be <code>null</code>.
+     * @return the number of new events.
+     * @throws JSONException if the event log is not valid JSON.
+     */
+    synchronized int update(@NotNull Reader reader) {
+        JSONTokener tokener = new JSONTokener(reader);
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("The event log must be a JSON object");
+        }
+
+        List<Event> newEvents = new ArrayList<>();
+        while (true) {
+            char c = tokener.nextClean();
+            if (c == '}' || c == 0) {
+                break;
+            }
+            if (c == ',') {
+                continue;
+            }
+            tokener.back();
+            String key = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            if (!"data".equals(key)) {
+                tokener.nextValue();
+                continue;
+            }
+            long highestId = readEvents(tokener, newEvents);
+            if (newestFirst != Boolean.TRUE && highestId != -1 && highestId < highestSeenId) {
+                // The event log was reset, but the events were skipped as their ids were seen before. Process them with the next poll.
+                reset();
+                return 0;
+            }
+            // The remainder of the log is irrelevant.
+            break;
+        }
+
+        // The events are retained in chronological order, i.e. the oldest first.
+        newEvents.sort((first, second) -> Long.compare(first.id, second.id));
+        for (Event event : newEvents) {
+            highestSeenId = max(highestSeenId, event.id);
+            if (event.relevant) {
+                events.addLast(event);
+            }
+        }
+        return newEvents.size();
+    }
+
+    /**
+     * @return the highest id of the read events, or -1 if no event was read.
+     */
+    private long readEvents(@NotNull JSONTokener tokener, @NotNull List<Event> newEvents) {
+        if (tokener.nextClean() != '[') {
+            throw tokener.syntaxError("The event data must be a JSON array");
+        }
+
+        long previousId = -1, highestId = -1;
+        boolean first = true;
+        while (true) {
+            char c = tokener.nextClean();
+            if (c == ']' || c == 0) {
+                return highestId;
+            }
+            if (c == ',') {
+                continue;
+            }
+            tokener.back();
+            JSONObject data = (JSONObject) tokener.nextValue();
+            long id = data.optLong("id", -1);
+
+            if (first && id < highestSeenId && newestFirst == Boolean.TRUE) {
+                // The newest event is older than the events seen before - the event log was reset.
+                reset();
+            }
+            if (!first && newestFirst == null && previousId != -1 && id != -1) {
+                newestFirst = id < previousId;
+            }
+            first = false;
+            previousId = id;
+            highestId = max(highestId, id);
+
+            if (id != -1 && id <= highestSeenId) {
+                if (newestFirst == Boolean.TRUE) {
+                    // All further events were seen before.
+                    return highestId;
+                }
+                continue;
+            }
+            newEvents.add(new Event(id, data.optLong("received"), data.optString("info"), filter.test(data)));
+        }
+    }
+
+    private void reset() {
+        events.clear();
+        highestSeenId = -1;
+    }
+
+    /**
+     * @param since the time, in milliseconds since the epoch.
+     * @return the information of the relevant events received at or after the given time, oldest first. Never <code>null</code>.
+     */
+    @NotNull
+    synchronized List<String> getEventInfoSince(long since) {
+        // Events before the given time are no longer required, as the time only advances between polls.
+        Iterator<Event> iterator = events.iterator();
+        while (iterator.hasNext() && iterator.next().received < since) {
+            iterator.remove();
+        }
+        List<String> info = new ArrayList<>(events.size());
+        for (Event event : events) {
+            if (event.received >= since) {
+                info.add(event.info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * An event retained from the log.
+     */
+    private static class Event {
+        private final long id;
+        private final long received;
+        private final String info;
+        private final boolean relevant;
+
+        private Event(long id, long received, String info, boolean relevant) {
+            this.id = id;
+            this.received = received;
+            this.info = info;
+            this.relevant = relevant;
+        }
+    }
+}
@@ -109,6 +109,7 @@ public class Start extends AwaitInitialization {
         try {
             doExecute();
         } finally {
+            shutdownProbes();
             if (!this.followStdOutAndErrBeyondMojoExecution) {
                 executorService.shutdownNow();
             }
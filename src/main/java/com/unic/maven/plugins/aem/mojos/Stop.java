@@ -12,6 +12,7 @@
  */
 package com.unic.maven.plugins.aem.mojos;
 
+import com.unic.maven.plugins.aem.util.AemHttpClient;
 import com.unic.maven.plugins.aem.util.Expectation;
 import com.unic.maven.plugins.aem.util.FileUtil;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -20,11 +21,11 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpResponse;
-import unirest.Unirest;
 import unirest.UnirestException;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 
 import static com.unic.maven.plugins.aem.util.AwaitableProcess.awaitable;
 import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
@@ -98,8 +99,7 @@ public class Stop extends Kill {
 
         try {
             HttpResponse<String> response =
-                    Unirest.post("http://localhost:" + getHttpPort() + getContextPath() + "/system/console/vmstat")
-                            .basicAuth("admin", getAdminPassword())
+                    getLocalHttpClient().post("/system/console/vmstat")
                             .field("shutdown_type", "stop").asString();
 
 
@@ -121,14 +121,19 @@ public class Stop extends Kill {
         return false;
     }
 
+    @NotNull
+    private AemHttpClient getLocalHttpClient() {
+        return AemHttpClient.forInstance(URI.create("http://localhost:" + getHttpPort() + getContextPath()))
+                .withCredentials("admin", getAdminPassword());
+    }
+
     @NotNull
     private Expectation<?> systemConsoleIsAvailable() {
         return new Expectation<Object>() {
             @Override
             protected Outcome fulfill() {
                 try {
-                    return Unirest.get("http://localhost:" + getHttpPort() + getContextPath() + "/system/console/vmstat")
-                            .basicAuth("admin", getAdminPassword())
+                    return getLocalHttpClient().get("/system/console/vmstat")
                             .asString()
                             .getStatus() == 200 ? FULFILLED : RETRY;
                 } catch (UnirestException e) {
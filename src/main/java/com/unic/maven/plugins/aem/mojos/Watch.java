@@ -0,0 +1,166 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.unic.maven.plugins.aem.util.ExceptionUtil.getRootCause;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.Thread.sleep;
+
+/**
+ * Continuously re-deploys the packages configured for {@link Deploy} whenever they change, e.g. when they are re-built
+ * by a separate maven execution. Only the changed packages are deployed. A change is deployed once the file has not been
+ * modified for the {@link #watchDebounce debounce time}, i.e. once it was completely written. The artifacts are resolved
+ * once, and the HTTP connections to the instances are kept open between the deployments.
+ * Runs until the maven process is terminated, e.g. via Ctrl+C.
+ */
+@Mojo(name = "watch", threadSafe = true, requiresProject = false)
+public class Watch extends Deploy {
+    /**
+     * The interval, in milliseconds, at which the files are checked for changes.
+     */
+    @Parameter(defaultValue = "1000", property = "watch.interval")
+    private long watchInterval = 1000;
+
+    /**
+     * The time, in milliseconds, a changed file must remain unmodified before it is deployed.
+     */
+    @Parameter(defaultValue = "2000", property = "watch.debounce")
+    private long watchDebounce = 2000;
+
+    /**
+     * Whether to deploy all packages when the watch starts, in addition to deploying them when they change.
+     */
+    @Parameter(defaultValue = "false", property = "watch.deployInitially")
+    private boolean watchDeployInitially = false;
+
+    @Override
+    public void runMojo() throws MojoFailureException {
+        List<File> files = getFilesToDeploy();
+        if (files.isEmpty()) {
+            throw new MojoFailureException("Unable to watch - no artifacts or files to deploy are configured.");
+        }
+
+        Map<File, FileState> deployed = new LinkedHashMap<>();
+        for (File file : files) {
+            deployed.put(file, FileState.of(file));
+        }
+
+        if (watchDeployInitially) {
+            deploy(files);
+        }
+
+        getLog().info("Watching " + files.size() + " file(s) for changes, press Ctrl+C to stop...");
+        Map<File, FileState> pending = new LinkedHashMap<>();
+        Map<File, Long> lastChangedAt = new LinkedHashMap<>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = currentTimeMillis();
+            for (File file : files) {
+                FileState state = FileState.of(file);
+                FileState known = pending.containsKey(file) ? pending.get(file) : deployed.get(file);
+                if (!state.equals(known)) {
+                    pending.put(file, state);
+                    lastChangedAt.put(file, now);
+                }
+            }
+
+            List<File> changed = new ArrayList<>();
+            for (File file : files) {
+                FileState state = pending.get(file);
+                if (state != null && state.exists() && now - lastChangedAt.get(file) >= watchDebounce) {
+                    changed.add(file);
+                }
+            }
+
+            if (!changed.isEmpty()) {
+                for (File file : changed) {
+                    deployed.put(file, pending.remove(file));
+                    lastChangedAt.remove(file);
+                }
+                deploy(changed);
+                getLog().info("Watching " + files.size() + " file(s) for changes...");
+            }
+
+            try {
+                sleep(watchInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Deploys the given files. A failed deployment does not end the watch, since the next change may fix the cause.
+     */
+    private void deploy(@NotNull List<File> files) throws MojoFailureException {
+        getLog().info("Deploying " + files.size() + " changed file(s): " + files);
+        long start = currentTimeMillis();
+        try {
+            createDeployCommand(files).execute();
+            getLog().info("Deployed " + files.size() + " file(s) in " + (currentTimeMillis() - start) + " ms.");
+        } catch (RuntimeException e) {
+            getLog().error("Unable to deploy " + files + ": " + getRootCause(e).getMessage());
+        }
+    }
+
+    /**
+     * The modification date and size of a file, used to detect changes.
+     */
+    private static class FileState {
+        private final long lastModified;
+        private final long length;
+
+        @NotNull
+        private static FileState of(@NotNull File file) {
+            // Both are 0 if the file does not exist, e.g. while it is re-built.
+            return new FileState(file.lastModified(), file.length());
+        }
+
+        private FileState(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean exists() {
+            return lastModified != 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(lastModified) + Long.hashCode(length);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import unirest.GetRequest;
+import unirest.HttpRequest;
+import unirest.HttpRequestWithBody;
+import unirest.HttpResponse;
+import unirest.Unirest;
+import unirest.UnirestException;
+import unirest.UnirestInstance;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.regex.Pattern.compile;
+import static org.codehaus.plexus.util.StringUtils.isEmpty;
+
+/**
+ * Performs HTTP requests against an AEM instance. All clients of the same origin (scheme, host and port) share
+ * a pool of keep-alive connections. Connections are thus re-used across requests and actions, and no global HTTP client state
+ * is modified, i.e. concurrently executing mojos do not affect each other.
+ * <p>
+ * The connection pools live while a {@link Session} is open, i.e. while a mojo executes, and are shut down once the last
+ * session is closed. Neither the pools nor their threads thus outlive the execution in long-lived Maven JVMs, e.g. of the
+ * Maven daemon or an IDE. A pool is created again on demand, even by a client created during a previous session.
+ * </p>
+ * <p>
+ * Requests use the {@link #DEFAULT_SOCKET_TIMEOUT_IN_MILLIS default socket timeout}. Long-running operations, such as package
+ * installations, override the timeout per request, e.g. via <code>client.post(path).socketTimeout(LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS)</code>.
+ * </p>
+ * <p>
+ * Clients with credentials log in once per instance and user and authenticate all subsequent GET requests, e.g. when polling, with the
+ * resulting login token, rather than performing a repository login for every request via basic authentication. The token is renewed after
+ * {@link #LOGIN_TOKEN_MAX_AGE_IN_MINUTES}, or once a request was rejected as unauthenticated, see {@link #checkAuthentication(HttpResponse)}.
+ * While the login is not available, e.g. during the startup of the instance, requests fall back to basic authentication.
+ * POST requests always use basic authentication: The Granite CSRF filter rejects modifying requests authenticated by the login token cookie
+ * unless they carry a CSRF token, and such a rejection does not invalidate the login token.
+ * </p>
+ */
+public class AemHttpClient {
+    public static final int DEFAULT_CONNECT_TIMEOUT_IN_MILLIS = (int) SECONDS.toMillis(10);
+    public static final int DEFAULT_SOCKET_TIMEOUT_IN_MILLIS = (int) SECONDS.toMillis(10);
+
+    /**
+     * The socket timeout for operations blocking until AEM completed a lengthy task, e.g. the installation of a large content package.
+     */
+    public static final int LONG_RUNNING_SOCKET_TIMEOUT_IN_MILLIS = (int) MINUTES.toMillis(10);
+
+    private static final int MAX_CONNECTIONS_PER_ORIGIN = 20;
+    private static final Map<String, UnirestInstance> CONNECTION_POOLS = new HashMap<>();
+
+    private static final String LOGIN_PATH = "/libs/granite/core/content/login.html/j_security_check";
+    private static final Pattern LOGIN_TOKEN_COOKIE = compile("login-token=([^;]+)");
+    private static final int LOGIN_TOKEN_MAX_AGE_IN_MINUTES = 30;
+    private static final long LOGIN_RETRY_INTERVAL_IN_NANOS = SECONDS.toNanos(30);
+    private static final Map<String, LoginToken> LOGIN_TOKENS = new ConcurrentHashMap<>();
+    private static int openSessions = 0;
+
+    private final String baseUrl;
+    private final String origin;
+    private final String user, password;
+    private final String loginTokenKey;
+
+    /**
+     * @param baseUri the URI of the instance including the context path, if any, e.g. <code>http://localhost:4502</code>. Must not be <code>null</code>.
+     * @return a client without credentials. Never <code>null</code>.
+     */
+    @NotNull
+    public static AemHttpClient forInstance(@NotNull URI baseUri) {
+        String baseUrl = baseUri.toString();
+        return new AemHttpClient(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl,
+                baseUri.getScheme() + "://" + baseUri.getAuthority(), null, null);
+    }
+
+    /**
+     * Opens a session, e.g. for the execution of a mojo. The connection pools are shut down once all sessions are closed.
+     *
+     * @return the session, to be closed at the end of the execution. Never <code>null</code>.
+     */
+    @NotNull
+    public static synchronized Session openSession() {
+        ++openSessions;
+        return new Session();
+    }
+
+    /**
+     * Shuts down all connection pools and discards the login tokens, regardless of any open sessions.
+     */
+    public static synchronized void shutDownAll() {
+        for (UnirestInstance connectionPool : CONNECTION_POOLS.values()) {
+            connectionPool.shutDown();
+        }
+        CONNECTION_POOLS.clear();
+        LOGIN_TOKENS.clear();
+    }
+
+    @NotNull
+    private static synchronized UnirestInstance getConnectionPool(@NotNull String origin) {
+        return CONNECTION_POOLS.computeIfAbsent(origin, o -> {
+            UnirestInstance connectionPool = Unirest.spawnInstance();
+            connectionPool.config()
+                    .connectTimeout(DEFAULT_CONNECT_TIMEOUT_IN_MILLIS)
+                    .socketTimeout(DEFAULT_SOCKET_TIMEOUT_IN_MILLIS)
+                    .concurrency(MAX_CONNECTIONS_PER_ORIGIN, MAX_CONNECTIONS_PER_ORIGIN)
+                    // The pool is shared by all users of the origin. Cookies, in particular the login token, are thus only sent explicitly.
+                    .enableCookieManagement(false);
+            return connectionPool;
+        });
+    }
+
+    private AemHttpClient(String baseUrl, String origin, String user, String password) {
+        this.baseUrl = baseUrl;
+        this.origin = origin;
+        this.user = user;
+        this.password = password;
+        this.loginTokenKey = isEmpty(user) ? null : baseUrl + '|' + user + '|' + digest(user + ':' + password);
+    }
+
+    /**
+     * @return a client using the same connections, authenticating all requests with the given credentials. Never <code>null</code>.
+     */
+    @NotNull
+    public AemHttpClient withCredentials(@NotNull String user, @NotNull String password) {
+        return new AemHttpClient(baseUrl, origin, user, password);
+    }
+
+    /**
+     * @param path the path relative to the base URI, including the query, if any, e.g. <code>/system/console/bundles.json</code>.
+     *             Must not be <code>null</code>.
+     * @return never <code>null</code>.
+     */
+    @NotNull
+    public GetRequest get(@NotNull String path) {
+        return get(path, true);
+    }
+
+    /**
+     * @param useLoginToken whether to authenticate with the login token, if available, instead of basic authentication.
+     */
+    @NotNull
+    GetRequest get(@NotNull String path, boolean useLoginToken) {
+        return authenticate(getConnectionPool(origin).get(baseUrl + path), useLoginToken);
+    }
+
+    /**
+     * @param path the path relative to the base URI, including the query, if any, e.g. <code>/crx/packmgr/service/.json/?cmd=upload</code>.
+     *             Must not be <code>null</code>.
+     * @return never <code>null</code>.
+     */
+    @NotNull
+    public HttpRequestWithBody post(@NotNull String path) {
+        return authenticate(getConnectionPool(origin).post(baseUrl + path), false);
+    }
+
+    /**
+     * Discards the login token if the given response of a request made by this client indicates that the request was not
+     * authenticated, e.g. since the token expired or the instance was re-created. The next request logs in again. Invoked by
+     * all code re-trying requests, such that an invalid token is transparently replaced.
+     *
+     * @param response must not be <code>null</code>.
+     */
+    public void checkAuthentication(@NotNull HttpResponse<?> response) {
+        if (response.getStatus() == 401 && !isEmpty(user)) {
+            LoginToken loginToken = LOGIN_TOKENS.get(loginTokenKey);
+            if (loginToken != null) {
+                loginToken.invalidate();
+            }
+        }
+    }
+
+    /**
+     * @param useLoginToken whether to authenticate with the login token, if available, instead of basic authentication.
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private <T extends HttpRequest> T authenticate(@NotNull T request, boolean useLoginToken) {
+        if (isEmpty(user)) {
+            return request;
+        }
+        String token = useLoginToken ? getLoginToken() : null;
+        return token == null ? (T) request.basicAuth(user, password) : (T) request.header("Cookie", "login-token=" + token);
+    }
+
+    /**
+     * @return a valid login token, logging in if required, or <code>null</code> if the login failed recently.
+     */
+    @Nullable
+    private String getLoginToken() {
+        LoginToken loginToken = LOGIN_TOKENS.computeIfAbsent(loginTokenKey, key -> new LoginToken());
+        // Concurrent requests await a single login.
+        synchronized (loginToken) {
+            if (loginToken.isValid()) {
+                return loginToken.value;
+            }
+            if (loginToken.hasFailedRecently()) {
+                return null;
+            }
+            String token = login();
+            if (token == null) {
+                loginToken.failed();
+            } else {
+                loginToken.update(token);
+            }
+            return token;
+        }
+    }
+
+    @Nullable
+    private String login() {
+        try {
+            HttpResponse<String> response = getConnectionPool(origin).post(baseUrl + LOGIN_PATH)
+                    .field("j_username", user)
+                    .field("j_password", password)
+                    .field("j_validate", "true")
+                    .asString();
+            List<String> cookies = response.getHeaders().get("Set-Cookie");
+            if (response.getStatus() != 200 || cookies == null) {
+                return null;
+            }
+            for (String cookie : cookies) {
+                Matcher matcher = LOGIN_TOKEN_COOKIE.matcher(cookie);
+                if (matcher.find()) {
+                    return matcher.group(1);
+                }
+            }
+            return null;
+        } catch (UnirestException e) {
+            // E.g. while the instance is starting, the request falls back to basic authentication.
+            return null;
+        }
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 digest of the given credentials. The login tokens are shared for the lifetime of the JVM, thus
+     * they are not keyed by the plain password. Never <code>null</code>.
+     */
+    @NotNull
+    private static String digest(@NotNull String credentials) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest(credentials.getBytes(UTF_8))) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @NotNull
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Scopes the lifetime of the connection pools, see {@link #openSession()}.
+     */
+    public static class Session implements AutoCloseable {
+        private boolean closed = false;
+
+        private Session() {
+        }
+
+        /**
+         * Shuts down all connection pools if no other session is open. Closing a session more than once has no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (AemHttpClient.class) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (--openSessions == 0) {
+                    shutDownAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * A login token shared by all clients of the same instance and user.
+     */
+    private static class LoginToken {
+        private String value = null;
+        private long obtainedAt = 0, failedAt = 0;
+        private boolean failed = false;
+
+        private synchronized boolean isValid() {
+            return value != null && nanoTime() - obtainedAt < MINUTES.toNanos(LOGIN_TOKEN_MAX_AGE_IN_MINUTES);
+        }
+
+        private synchronized boolean hasFailedRecently() {
+            return failed && nanoTime() - failedAt < LOGIN_RETRY_INTERVAL_IN_NANOS;
+        }
+
+        private synchronized void update(@NotNull String value) {
+            this.value = value;
+            this.obtainedAt = nanoTime();
+            this.failed = false;
+        }
+
+        private synchronized void failed() {
+            this.value = null;
+            this.failedAt = nanoTime();
+            this.failed = true;
+        }
+
+        private synchronized void invalidate() {
+            this.value = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AemHttpClient{" +
+                "baseUrl='" + baseUrl + '\'' +
+                ", user='" + user + '\'' +
+                '}';
+    }
+}
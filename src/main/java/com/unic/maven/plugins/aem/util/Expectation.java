@@ -18,13 +18,17 @@ import org.jetbrains.annotations.Nullable;
 import java.util.concurrent.TimeUnit;
 
 import static com.unic.maven.plugins.aem.util.Expectation.Outcome.*;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * @author Olaf Otto
  */
 public abstract class Expectation<CauseOfFailureType> {
     private FailureCallback<CauseOfFailureType> callback = null;
+    private PollingProfile pollingProfile = PollingProfile.FIXED;
 
     public enum Outcome {
         /**
@@ -52,6 +56,10 @@ public abstract class Expectation<CauseOfFailureType> {
     public Expectation<CauseOfFailureType> and(@NotNull final Expectation<?> other) {
         final Expectation<CauseOfFailureType> self = this;
         return new Expectation<CauseOfFailureType>() {
+            {
+                polling(self.pollingProfile);
+            }
+
             @Override
             protected Outcome fulfill() {
                 Outcome first = self.fulfill(), second = other.fulfill();
@@ -79,23 +87,44 @@ public abstract class Expectation<CauseOfFailureType> {
     }
 
     /**
+     * Set the profile defining the intervals between attempts. Defaults to {@link PollingProfile#FIXED}.
+     *
+     * @param pollingProfile must not be <code>null</code>
+     * @return this instance, never <code>null</code>.
+     */
+    public Expectation<CauseOfFailureType> polling(@NotNull PollingProfile pollingProfile) {
+        this.pollingProfile = pollingProfile;
+        return this;
+    }
+
+    /**
+     * Attempts to {@link #fulfill()} this expectation until it is either fulfilled, unsatisfiable or the given time has elapsed.
+     * The time is measured from the invocation of this method using a monotonic clock, i.e. it includes the time spent in
+     * {@link #fulfill()}. The expectation is attempted at least once and, if time remains, one last time at the deadline.
+     *
      * @param unit must not be <code>null</code>.
      */
     public boolean within(long amount, @NotNull TimeUnit unit) {
-        long waited = 0;
+        final long deadline = nanoTime() + unit.toNanos(amount);
         Outcome outcome = null;
+        int attempts = 0;
 
         try {
-            while (waited < unit.toMillis(amount) && (outcome = fulfill()) == RETRY) {
-                if (waited == 0) {
+            while ((outcome = fulfill()) == RETRY) {
+                if (++attempts == 1) {
                     firstFailure();
                 }
 
-                sleep(getRetryIntervalInMillis());
-                waited += getRetryIntervalInMillis();
+                long remainingNanos = deadline - nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                // Round up, such that the last attempt does not happen before the deadline.
+                sleep(min(pollingProfile.getIntervalInMillis(attempts), NANOSECONDS.toMillis(remainingNanos - 1) + 1));
             }
         } catch (InterruptedException e) {
-            // We are asked to stop.
+            // We are asked to stop. Retain the interrupt status, such that the caller stops as well.
+            Thread.currentThread().interrupt();
         }
         boolean succeeded = outcome == FULFILLED;
         if (!succeeded) {
@@ -104,10 +133,6 @@ public abstract class Expectation<CauseOfFailureType> {
         return succeeded;
     }
 
-    private int getRetryIntervalInMillis() {
-        return 2000;
-    }
-
     protected abstract Outcome fulfill();
 
     /**
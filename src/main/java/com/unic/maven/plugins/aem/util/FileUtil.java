@@ -41,6 +41,18 @@ public class FileUtil {
         return jarFiles[0].getName();
     }
 
+    /**
+     * @return the given number of bytes in a human-readable form, e.g. <code>12.3 MB</code>. Never <code>null</code>.
+     */
+    @NotNull
+    public static String formatByteCount(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int exponent = (int) (Math.log(bytes) / Math.log(1024));
+        return String.format("%.1f %sB", bytes / Math.pow(1024, exponent), "KMGTPE".charAt(exponent - 1));
+    }
+
     private FileUtil() {
     }
 }
@@ -15,10 +15,11 @@ package com.unic.maven.plugins.aem.util;
 import org.jetbrains.annotations.NotNull;
 import unirest.HttpRequest;
 import unirest.HttpResponse;
-import unirest.Unirest;
 import unirest.UnirestException;
 
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 
 import static org.codehaus.plexus.util.StringUtils.isEmpty;
@@ -34,6 +35,10 @@ public class HttpExpectation extends Expectation<Object> {
     private int expectedStatusCode = 200;
     private HttpMethod method = HttpMethod.GET;
     private String expectedResponseContent;
+    /**
+     * The client re-used by all polls of this expectation. Not copied, as the copy may target another URL or user.
+     */
+    private AemHttpClient client;
 
     @NotNull
     public static HttpExpectation expect(int statusCode) {
@@ -70,12 +75,12 @@ public class HttpExpectation extends Expectation<Object> {
 
     @Override
     protected Outcome fulfill() {
-        HttpRequest<?> request = method == HttpMethod.GET ? Unirest.get(this.url.toExternalForm()) : Unirest.post(this.url.toExternalForm());
         try {
-            if (!isEmpty(this.user)) {
-                request = request.basicAuth(this.user, this.password);
-            }
+            AemHttpClient client = getClient();
+            String path = this.url.getFile();
+            HttpRequest<?> request = method == HttpMethod.GET ? client.get(path) : client.post(path);
             HttpResponse<String> response = request.asString();
+            client.checkAuthentication(response);
             if (response.getStatus() == this.expectedStatusCode) {
                 if (this.expectedResponseContent == null) {
                     return Outcome.FULFILLED;
@@ -84,12 +89,21 @@ public class HttpExpectation extends Expectation<Object> {
                     return Outcome.FULFILLED;
                 }
             }
-        } catch (UnirestException e) {
+        } catch (UnirestException | URISyntaxException e) {
             // ignore
         }
         return Outcome.RETRY;
     }
 
+    @NotNull
+    private AemHttpClient getClient() throws URISyntaxException {
+        if (this.client == null) {
+            AemHttpClient client = AemHttpClient.forInstance(new URI(this.url.getProtocol(), this.url.getAuthority(), null, null, null));
+            this.client = isEmpty(this.user) ? client : client.withCredentials(this.user, this.password);
+        }
+        return this.client;
+    }
+
     @NotNull
     private HttpExpectation copy() {
         HttpExpectation copy = new HttpExpectation();
@@ -0,0 +1,85 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+
+/**
+ * Defines the intervals at which an {@link Expectation} is re-tried: Starting with the initial interval, each interval
+ * is the previous interval multiplied by the backoff factor, up to the maximum interval. Each interval is randomly varied by
+ * up to +/- the jitter fraction, in order to avoid concurrent pollers hitting a system at the same time.
+ */
+public class PollingProfile {
+    /**
+     * Re-tries every two seconds.
+     */
+    public static final PollingProfile FIXED = new PollingProfile(2000, 1, 2000, 0);
+
+    /**
+     * Re-tries quickly at first and backs off to two seconds, such that quick state transitions are detected early
+     * while long waits do not cause excessive load.
+     */
+    public static final PollingProfile RESPONSIVE = new PollingProfile(250, 1.5, 2000, 0.1);
+
+    private final long initialIntervalInMillis;
+    private final double backoffFactor;
+    private final long maxIntervalInMillis;
+    private final double jitter;
+
+    /**
+     * @param initialIntervalInMillis the interval after the first attempt.
+     * @param backoffFactor           the factor by which the interval grows after each attempt, 1 for a fixed interval.
+     * @param maxIntervalInMillis     the upper limit of the interval.
+     * @param jitter                  the fraction, between 0 and 1, by which each interval is randomly varied.
+     */
+    public PollingProfile(long initialIntervalInMillis, double backoffFactor, long maxIntervalInMillis, double jitter) {
+        if (initialIntervalInMillis <= 0 || backoffFactor < 1 || maxIntervalInMillis < initialIntervalInMillis || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid polling profile: initial interval " + initialIntervalInMillis + " ms, backoff factor " +
+                    backoffFactor + ", maximum interval " + maxIntervalInMillis + " ms, jitter " + jitter + ".");
+        }
+        this.initialIntervalInMillis = initialIntervalInMillis;
+        this.backoffFactor = backoffFactor;
+        this.maxIntervalInMillis = maxIntervalInMillis;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param attempt the number of attempts made so far, starting at 1.
+     * @return the time to wait before the next attempt.
+     */
+    long getIntervalInMillis(int attempt) {
+        long interval = (long) min(maxIntervalInMillis, initialIntervalInMillis * pow(backoffFactor, max(0, attempt - 1)));
+        if (jitter == 0) {
+            return interval;
+        }
+        return max(1, round(interval * (1 + jitter * ThreadLocalRandom.current().nextDouble(-1, 1))));
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "PollingProfile{" +
+                "initialIntervalInMillis=" + initialIntervalInMillis +
+                ", backoffFactor=" + backoffFactor +
+                ", maxIntervalInMillis=" + maxIntervalInMillis +
+                ", jitter=" + jitter +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+
+import static com.unic.maven.plugins.aem.core.ZipFiles.contentPackage;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaPackageTest {
+    private static final String PAGE = "jcr_root/content/site/en/.content.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base, delta;
+
+    @Before
+    public void setUp() throws IOException {
+        base = contentPackage()
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"English\" hideInNav=\"{Boolean}true\">" +
+                        "<teaser jcr:primaryType=\"nt:unstructured\" text=\"Hello\"/></jcr:content>"))
+                .with("jcr_root/content/site/en/logo.png", "png")
+                .writeTo(folder.newFile("base.zip"));
+        delta = new File(folder.getRoot(), "delta.zip");
+    }
+
+    @Test
+    public void identicalPackagesHaveNoChanges() throws IOException {
+        DeltaPackage deltaPackage = DeltaPackage.create(base, base, delta);
+
+        assertNotNull(deltaPackage);
+        assertFalse(deltaPackage.hasChanges());
+        assertFalse(delta.exists());
+    }
+
+    @Test
+    public void changedPropertiesAreUpdated() throws IOException {
+        File current = contentPackage()
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"Welcome\" hideInNav=\"{Boolean}true\">" +
+                        "<teaser jcr:primaryType=\"nt:unstructured\" text=\"Hello\"/></jcr:content>"))
+                .with("jcr_root/content/site/en/logo.png", "png")
+                .writeTo(folder.newFile("current.zip"));
+
+        DeltaPackage deltaPackage = DeltaPackage.create(base, current, delta);
+
+        assertNotNull(deltaPackage);
+        assertEquals(singletonList("/content/site/en"), deltaPackage.getUpdatedRoots());
+        assertTrue(deltaPackage.getRemovedRoots().isEmpty());
+        try (ZipFile zip = new ZipFile(delta)) {
+            assertNotNull(zip.getEntry(PAGE));
+            assertNull(zip.getEntry("jcr_root/content/site/en/logo.png"));
+            assertNotNull(zip.getEntry("META-INF/vault/filter.xml"));
+        }
+    }
+
+    @Test
+    public void removedEntriesAreDeleted() throws IOException {
+        File current = contentPackage()
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"English\" hideInNav=\"{Boolean}true\">" +
+                        "<teaser jcr:primaryType=\"nt:unstructured\" text=\"Hello\"/></jcr:content>"))
+                .writeTo(folder.newFile("current.zip"));
+
+        DeltaPackage deltaPackage = DeltaPackage.create(base, current, delta);
+
+        assertNotNull(deltaPackage);
+        assertTrue(deltaPackage.getUpdatedRoots().isEmpty());
+        assertEquals(singletonList("/content/site/en/logo.png"), deltaPackage.getRemovedRoots());
+    }
+
+    @Test
+    public void removedPropertyRequiresTheEntirePackage() throws IOException {
+        File current = contentPackage()
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"English\">" +
+                        "<teaser jcr:primaryType=\"nt:unstructured\" text=\"Hello\"/></jcr:content>"))
+                .with("jcr_root/content/site/en/logo.png", "png")
+                .writeTo(folder.newFile("current.zip"));
+
+        assertNull(DeltaPackage.create(base, current, delta));
+    }
+
+    @Test
+    public void removedChildNodeRequiresTheEntirePackage() throws IOException {
+        File current = contentPackage()
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"English\" hideInNav=\"{Boolean}true\"/>"))
+                .with("jcr_root/content/site/en/logo.png", "png")
+                .writeTo(folder.newFile("current.zip"));
+
+        assertNull(DeltaPackage.create(base, current, delta));
+    }
+
+    @Test
+    public void changedFilterRequiresTheEntirePackage() throws IOException {
+        File current = contentPackage()
+                .with("META-INF/vault/filter.xml", ZipFiles.FILTER.replace("/content/site", "/content/other"))
+                .with(PAGE, page("<jcr:content jcr:primaryType=\"cq:PageContent\" jcr:title=\"English\" hideInNav=\"{Boolean}true\">" +
+                        "<teaser jcr:primaryType=\"nt:unstructured\" text=\"Hello\"/></jcr:content>"))
+                .with("jcr_root/content/site/en/logo.png", "png")
+                .writeTo(folder.newFile("current.zip"));
+
+        assertNull(DeltaPackage.create(base, current, delta));
+    }
+
+    private static String page(String content) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<jcr:root xmlns:jcr=\"http://www.jcp.org/jcr/1.0\" xmlns:cq=\"http://www.day.com/jcr/cq/1.0\" " +
+                "xmlns:nt=\"http://www.jcp.org/jcr/nt/1.0\" jcr:primaryType=\"cq:Page\">" + content + "</jcr:root>\n";
+    }
+}
@@ -0,0 +1,388 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.unic.maven.plugins.aem.core.httpactions.RetryPolicy;
+import org.apache.commons.logging.impl.SimpleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.unic.maven.plugins.aem.core.ZipFiles.contentPackage;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Deploys packages to a stand-in for the package manager, which lists, uploads and installs packages.
+ */
+public class DeployCommandTest {
+    private static final String LOGO = "jcr_root/content/site/en/logo.png";
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=([^;\\s]+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The size of the packages known to the package manager, by path. Only installed packages are listed.
+     */
+    private final Map<String, Integer> installed = new LinkedHashMap<>();
+    private final List<String> installations = synchronizedList(new ArrayList<>());
+    private final Map<String, Integer> uploaded = new LinkedHashMap<>();
+    private final List<String> uploads = synchronizedList(new ArrayList<>());
+    private final List<String> skipped = new ArrayList<>();
+    private File workingDirectory;
+    private ExecutorService executor;
+    private HttpServer server;
+
+    /**
+     * Invoked with the package path before an upload or installation is completed, e.g. to delay it.
+     */
+    private volatile Hook beforeUpload = packagePath -> {
+    }, beforeInstallation = packagePath -> {
+    };
+    private volatile String installationLog = "Package imported.";
+
+    @Before
+    public void setUp() throws IOException {
+        workingDirectory = folder.newFolder("target");
+        executor = newCachedThreadPool();
+        // Uploads and installations may be performed concurrently.
+        server = standIn(this::handle, executor);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void packageDeployedAsDeltaIsSkippedWhenUnchanged() throws IOException {
+        deploy(sitePackage("1.0.0", "logo"));
+        File changed = sitePackage("1.0.1", "new logo");
+
+        deploy(changed);
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-delta-1.0.1.zip"), installations);
+
+        deploy(changed);
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-delta-1.0.1.zip"), installations);
+        assertEquals(singletonList(changed.getName()), skipped);
+    }
+
+    @Test
+    public void packageWithUnchangedContentIsSkippedWhenDeployedAgain() throws IOException {
+        deploy(sitePackage("1.0.0", "logo"));
+        File unchanged = sitePackage("1.0.1", "logo");
+
+        deploy(unchanged);
+        deploy(unchanged);
+        assertEquals(singletonList("/etc/packages/acme/site-1.0.0.zip"), installations);
+        assertEquals(singletonList(unchanged.getName()), skipped);
+
+        // The unchanged package remains the base of the next delta package.
+        deploy(sitePackage("1.0.2", "new logo"));
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-delta-1.0.2.zip"), installations);
+    }
+
+    @Test
+    public void removedDeltaPackageIsDeployedAgain() throws IOException {
+        deploy(sitePackage("1.0.0", "logo"));
+        File changed = sitePackage("1.0.1", "new logo");
+        deploy(changed);
+
+        installed.remove("/etc/packages/acme/site-delta-1.0.1.zip");
+        deploy(changed);
+
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-delta-1.0.1.zip",
+                "/etc/packages/acme/site-1.0.1.zip"), installations);
+    }
+
+    @Test
+    public void failureOnOneInstanceDoesNotAbortTheDeploymentToTheOthers() throws IOException {
+        HttpServer failing = standIn(exchange -> {
+            readAll(exchange.getRequestBody());
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/crx/packmgr/service")) {
+                respond(exchange, 405, "");
+            } else if (path.equals("/crx/packmgr/service/.json/")) {
+                respond(exchange, 200, "{\"success\":false,\"msg\":\"Package is invalid\"}");
+            } else {
+                respond(exchange, 404, "");
+            }
+        }, null);
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort());
+        URI failingUri = URI.create("http://localhost:" + failing.getAddress().getPort());
+        File file = sitePackage("1.0.0", "logo");
+
+        try {
+            new DeployCommand(new SimpleLog("test"), Arrays.asList(failingUri, uri), "admin", 1, singletonList(file), 1024, false, false, 2)
+                    .withRetryPolicy(RetryPolicy.DEFAULT.withRetries(1, 1).withDelays(10, 2, 10))
+                    .execute();
+            fail("Expected a " + DeployFailureException.class.getSimpleName());
+        } catch (DeployFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Deployment failed on 1 of 2 instances:"));
+            assertTrue(e.getMessage(), e.getMessage().contains(failingUri + ": Failed to upload " + file + ", AEM responded: Package is invalid"));
+            assertFalse(e.getMessage(), e.getMessage().contains(uri + ":"));
+        } finally {
+            failing.stop(0);
+        }
+
+        assertEquals(singletonList("/etc/packages/acme/site-1.0.0.zip"), installations);
+    }
+
+    @Test
+    public void pipelinedUploadsRunAheadOfTheInstallationsInOrder() throws IOException {
+        List<File> files = Arrays.asList(sitePackage("1.0.0", "logo"), sitePackage("1.0.1", "logo"), sitePackage("1.0.2", "logo"));
+        CountDownLatch allUploaded = new CountDownLatch(files.size());
+        AtomicBoolean uploadedBeforeFirstInstallation = new AtomicBoolean();
+        beforeUpload = packagePath -> allUploaded.countDown();
+        beforeInstallation = packagePath -> {
+            if (packagePath.endsWith("-1.0.0.zip")) {
+                // The subsequent packages are uploaded while the first package is installed.
+                uploadedBeforeFirstInstallation.set(allUploaded.await(10, SECONDS));
+            }
+        };
+
+        pipelined(files).execute();
+
+        assertTrue(uploadedBeforeFirstInstallation.get());
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-1.0.1.zip",
+                "/etc/packages/acme/site-1.0.2.zip"), installations);
+    }
+
+    @Test
+    public void failedInstallationStopsThePipelinedUploads() throws Exception {
+        List<File> files = Arrays.asList(sitePackage("1.0.0", "logo"), sitePackage("1.0.1", "logo"), sitePackage("1.0.2", "logo"));
+        CountDownLatch secondUploadReceived = new CountDownLatch(1), installationFailed = new CountDownLatch(1);
+        installationLog = "Package imported with errors.";
+        beforeInstallation = packagePath -> {
+            // The installation fails while the next package is uploaded.
+            secondUploadReceived.await(10, SECONDS);
+            installationFailed.countDown();
+        };
+        beforeUpload = packagePath -> {
+            if (packagePath.endsWith("-1.0.1.zip")) {
+                secondUploadReceived.countDown();
+                // The upload completes after the deployment was aborted.
+                installationFailed.await(10, SECONDS);
+                Thread.sleep(500);
+            }
+        };
+
+        try {
+            pipelined(files).execute();
+            fail("Expected the installation to fail.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("site-1.0.0.zip"));
+        }
+        // Give the uploader the opportunity to continue.
+        Thread.sleep(1000);
+
+        assertEquals(singletonList("/etc/packages/acme/site-1.0.0.zip"), installations);
+        assertEquals(Arrays.asList("/etc/packages/acme/site-1.0.0.zip", "/etc/packages/acme/site-1.0.1.zip"), uploads);
+    }
+
+    private DeployCommand pipelined(List<File> files) {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort());
+        return new DeployCommand(new SimpleLog("test"), uri, "admin", 1, files, 1024, false, false)
+                .withPipelinedUploads(true)
+                .withRetryPolicy(RetryPolicy.DEFAULT.withRetries(1, 1).withDelays(10, 2, 10));
+    }
+
+    private void deploy(File file) {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort());
+        SimpleLog log = new SimpleLog("test") {
+            @Override
+            protected void log(int type, Object message, Throwable t) {
+                super.log(type, message, t);
+                String text = String.valueOf(message);
+                if (text.startsWith("Skipping " + file + ",")) {
+                    skipped.add(file.getName());
+                }
+            }
+        };
+        new DeployCommand(log, uri, "admin", 1, singletonList(file), 1024, false, false)
+                .withWorkingDirectory(workingDirectory)
+                .withSkipUnchangedPackages(true)
+                .withDeltaPackages(true)
+                .withRetryPolicy(RetryPolicy.DEFAULT.withRetries(1, 1).withDelays(10, 2, 10))
+                .execute();
+    }
+
+    private File sitePackage(String version, String logo) throws IOException {
+        return contentPackage()
+                .with("META-INF/vault/properties.xml", ZipFiles.PROPERTIES.replace("1.0.0", version))
+                .with(LOGO, logo)
+                .writeTo(folder.newFile("site-" + version + ".zip"));
+    }
+
+    private static HttpServer standIn(HttpHandler handler, Executor executor) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getQuery();
+        boolean post = "POST".equals(exchange.getRequestMethod());
+        // Unread request bodies break the kept-alive connection.
+        byte[] body = readAll(exchange.getRequestBody());
+
+        if (path.equals("/crx/packmgr/service")) {
+            respond(exchange, post ? 200 : 405, "");
+        } else if (path.equals("/crx/packmgr/service.jsp") && "cmd=ls".equals(query)) {
+            respond(exchange, 200, listPackages());
+        } else if (post && path.equals("/crx/packmgr/service/.json/") && "cmd=upload".equals(query)) {
+            String packagePath = upload(exchange, body);
+            await(beforeUpload, packagePath);
+            uploads.add(packagePath);
+            respond(exchange, 200, "{\"success\":true,\"msg\":\"Package uploaded\",\"path\":\"" + packagePath + "\"}");
+        } else if (post && path.startsWith("/crx/packmgr/service/console.html/etc/packages/") && "cmd=install".equals(query)) {
+            String packagePath = path.substring("/crx/packmgr/service/console.html".length());
+            await(beforeInstallation, packagePath);
+            installations.add(packagePath);
+            synchronized (this) {
+                installed.put(packagePath, uploaded.get(packagePath));
+            }
+            respond(exchange, 200, "<html><body><pre>" + installationLog + "</pre></body></html>");
+        } else {
+            respond(exchange, 404, "");
+        }
+    }
+
+    private static void await(Hook hook, String packagePath) throws IOException {
+        try {
+            hook.before(packagePath);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private synchronized String listPackages() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><crx><response><data><packages>");
+        for (Map.Entry<String, Integer> entry : installed.entrySet()) {
+            String[] segments = entry.getKey().split("/");
+            xml.append("<package><group>").append(segments[3]).append("</group>")
+                    .append("<downloadName>").append(segments[4]).append("</downloadName>")
+                    .append("<size>").append(entry.getValue()).append("</size>")
+                    .append("<lastUnpacked>Mon, 12 Oct 2026 10:00:00 +0200</lastUnpacked></package>");
+        }
+        return xml.append("</packages></data></response></crx>").toString();
+    }
+
+    /**
+     * @return the path of the uploaded package, derived from its properties like the package manager does.
+     */
+    private String upload(HttpExchange exchange, byte[] body) throws IOException {
+        byte[] bytes = readPackageField(exchange, body);
+        Properties properties = new Properties();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (entry.getName().equals("META-INF/vault/properties.xml")) {
+                    properties.loadFromXML(new ByteArrayInputStream(readAll(zip)));
+                }
+            }
+        }
+        String packagePath = "/etc/packages/" + properties.getProperty("group") + '/' +
+                properties.getProperty("name") + '-' + properties.getProperty("version") + ".zip";
+        synchronized (this) {
+            uploaded.put(packagePath, bytes.length);
+        }
+        return packagePath;
+    }
+
+    private static byte[] readPackageField(HttpExchange exchange, byte[] body) throws IOException {
+        String multipart = new String(body, ISO_8859_1);
+        Matcher boundary = BOUNDARY.matcher(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if (!boundary.find()) {
+            throw new IOException("The upload is not a multipart request.");
+        }
+        for (String part : multipart.split(Pattern.quote("--" + boundary.group(1)))) {
+            int headerEnd = part.indexOf("\r\n\r\n");
+            if (headerEnd != -1 && part.substring(0, headerEnd).contains("name=\"package\"")) {
+                return part.substring(headerEnd + 4, part.length() - 2).getBytes(ISO_8859_1);
+            }
+        }
+        throw new IOException("The upload contains no package.");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", body.startsWith("{") ? "application/json" : "text/html");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private interface Hook {
+        void before(String packagePath) throws InterruptedException;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import com.unic.maven.plugins.aem.core.DeploymentSchedule.Dependency;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.unic.maven.plugins.aem.core.ZipFiles.contentPackage;
+import static com.unic.maven.plugins.aem.core.ZipFiles.zip;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeploymentScheduleTest {
+    private static final Function<File, VaultPackage> METADATA = file -> {
+        try {
+            return VaultPackage.read(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesDependenciesWithAndWithoutGroupAndVersionRange() {
+        List<Dependency> dependencies = Dependency.parse("acme:core:[1.0,2.0), acme:ui,legacy,other:apps:1.0");
+
+        assertEquals(4, dependencies.size());
+        assertEquals("acme:core:[1.0,2.0)", dependencies.get(0).toString());
+        assertEquals("acme:ui", dependencies.get(1).toString());
+        assertEquals("legacy", dependencies.get(2).toString());
+        assertEquals("other:apps:1.0", dependencies.get(3).toString());
+    }
+
+    @Test
+    public void emptyDeclarationsHaveNoDependencies() {
+        assertTrue(Dependency.parse(null).isEmpty());
+        assertTrue(Dependency.parse("").isEmpty());
+        assertTrue(Dependency.parse(" , ").isEmpty());
+    }
+
+    @Test
+    public void dependenciesWithoutGroupMatchAnyGroup() {
+        Dependency grouped = Dependency.parse("acme:core").get(0);
+        Dependency ungrouped = Dependency.parse("core").get(0);
+
+        assertTrue(grouped.matches("acme", "core"));
+        assertFalse(grouped.matches("other", "core"));
+        assertFalse(grouped.matches("acme", "ui"));
+        assertTrue(ungrouped.matches("other", "core"));
+    }
+
+    @Test
+    public void packagesAreScheduledAfterTheirDependencies() throws IOException {
+        File ui = contentPackage("ui", "acme:core:[1.0,2.0)").writeTo(folder.newFile("ui.zip"));
+        File content = contentPackage("content", "acme:ui,acme:core").writeTo(folder.newFile("content.zip"));
+        File config = contentPackage("config", null).writeTo(folder.newFile("config.zip"));
+        File core = contentPackage("core", null).writeTo(folder.newFile("core.zip"));
+        File bundle = zip().with("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n").writeTo(folder.newFile("bundle.jar"));
+
+        DeploymentSchedule schedule = DeploymentSchedule.byDependencies(asList(ui, content, config, core, bundle), METADATA);
+
+        assertEquals(asList(asList(config, core, bundle), singletonList(ui), singletonList(content)), schedule.getLevels());
+        assertEquals(asList(config, core, bundle, ui, content), schedule.getFiles());
+        assertEquals(3, schedule.getMaximumLevelSize());
+        assertTrue(schedule.getExternalDependencies().isEmpty());
+    }
+
+    @Test
+    public void unsatisfiedDependenciesAreExternal() throws IOException {
+        File ui = contentPackage("ui", "adobe:cq-wcm-content").writeTo(folder.newFile("ui.zip"));
+
+        DeploymentSchedule schedule = DeploymentSchedule.byDependencies(singletonList(ui), METADATA);
+
+        assertEquals(singletonList(singletonList(ui)), schedule.getLevels());
+        assertEquals(1, schedule.getExternalDependencies().size());
+        Dependency dependency = schedule.getExternalDependencies().get(0);
+        assertEquals("adobe:cq-wcm-content", dependency.toString());
+        assertEquals(ui, dependency.getDependent().getFile());
+    }
+
+    @Test
+    public void cyclicDependenciesAreRejected() throws IOException {
+        File core = contentPackage("core", null).writeTo(folder.newFile("core.zip"));
+        File ui = contentPackage("ui", "acme:content").writeTo(folder.newFile("ui.zip"));
+        File content = contentPackage("content", "acme:ui").writeTo(folder.newFile("content.zip"));
+
+        try {
+            DeploymentSchedule.byDependencies(asList(core, ui, content), METADATA);
+            fail("Expected a " + DeployFailureException.class.getSimpleName());
+        } catch (DeployFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("form a cycle: acme:ui:1.0.0, acme:content:1.0.0"));
+        }
+    }
+
+    @Test
+    public void selfDependenciesAreExternal() throws IOException {
+        File core = contentPackage("core", "acme:core").writeTo(folder.newFile("core.zip"));
+
+        DeploymentSchedule schedule = DeploymentSchedule.byDependencies(singletonList(core), METADATA);
+
+        assertEquals(singletonList(singletonList(core)), schedule.getLevels());
+        assertEquals(1, schedule.getExternalDependencies().size());
+    }
+
+    @Test
+    public void restrictingOmitsEmptyLevels() throws IOException {
+        File core = contentPackage("core", null).writeTo(folder.newFile("core.zip"));
+        File config = contentPackage("config", null).writeTo(folder.newFile("config.zip"));
+        File ui = contentPackage("ui", "acme:core").writeTo(folder.newFile("ui.zip"));
+        DeploymentSchedule schedule = DeploymentSchedule.byDependencies(asList(core, config, ui), METADATA);
+
+        DeploymentSchedule restricted = schedule.restrictTo(singletonList(ui));
+
+        assertEquals(singletonList(singletonList(ui)), restricted.getLevels());
+        assertEquals(schedule.getExternalDependencies(), restricted.getExternalDependencies());
+    }
+
+    @Test
+    public void inOrderSchedulesOneFilePerLevel() {
+        File first = new File("first.zip"), second = new File("second.zip");
+
+        DeploymentSchedule schedule = DeploymentSchedule.inOrder(asList(first, second));
+
+        assertEquals(asList(singletonList(first), singletonList(second)), schedule.getLevels());
+        assertEquals(1, schedule.getMaximumLevelSize());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static com.unic.maven.plugins.aem.core.ZipFiles.FILTER;
+import static com.unic.maven.plugins.aem.core.ZipFiles.contentPackage;
+import static com.unic.maven.plugins.aem.core.ZipFiles.zip;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackageVerificationTest {
+    private static final String FILTER_XML = "META-INF/vault/filter.xml";
+    private static final String PROPERTIES_XML = "META-INF/vault/properties.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void contentPackageIsValid() throws IOException {
+        PackageVerification verification = verify(contentPackage().with("jcr_root/content/site/.content.xml", "<jcr:root/>"));
+
+        assertTrue(verification.getProblems().toString(), verification.isValid());
+        assertNotNull(verification.getMetadata());
+        assertEquals("site", verification.getMetadata().getName());
+        assertNull(verification.getBundle());
+    }
+
+    @Test
+    public void bundleIsValid() throws IOException {
+        PackageVerification verification = verify(zip().with("META-INF/MANIFEST.MF",
+                "Manifest-Version: 1.0\nBundle-SymbolicName: com.acme.core;singleton:=true\nBundle-Version: 1.2.0\n"));
+
+        assertTrue(verification.getProblems().toString(), verification.isValid());
+        assertNotNull(verification.getBundle());
+        assertEquals("com.acme.core", verification.getBundle().getSymbolicName());
+        assertNull(verification.getMetadata());
+    }
+
+    @Test
+    public void missingFileIsInvalid() {
+        PackageVerification verification = PackageVerification.verify(new File(folder.getRoot(), "missing.zip"));
+
+        assertFalse(verification.isValid());
+    }
+
+    @Test
+    public void truncatedZipIsInvalid() throws IOException {
+        File file = contentPackage().writeTo(folder.newFile("package.zip"));
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 10);
+        }
+
+        PackageVerification verification = PackageVerification.verify(file);
+
+        assertFalse(verification.isValid());
+        assertTrue(verification.getProblems().get(0), verification.getProblems().get(0).startsWith("The file is not a valid zip file"));
+    }
+
+    @Test
+    public void noZipIsInvalid() throws IOException {
+        File file = folder.newFile("package.zip");
+        Files.write(file.toPath(), "<html>Not found</html>".getBytes(UTF_8));
+
+        assertFalse(PackageVerification.verify(file).isValid());
+    }
+
+    @Test
+    public void missingMetadataIsInvalid() throws IOException {
+        PackageVerification withoutProperties = verify(contentPackage().without(PROPERTIES_XML));
+        PackageVerification withoutFilter = verify(contentPackage().without(FILTER_XML));
+
+        assertProblem(withoutProperties, "The package metadata " + PROPERTIES_XML + " is missing.");
+        assertProblem(withoutFilter, "The workspace filter " + FILTER_XML + " is missing.");
+    }
+
+    @Test
+    public void propertiesWithoutNameAreInvalid() throws IOException {
+        PackageVerification verification = verify(contentPackage().with(PROPERTIES_XML, ZipFiles.PROPERTIES.replace("key=\"name\"", "key=\"title\"")));
+
+        assertProblem(verification, "The package metadata " + PROPERTIES_XML + " does not define the package name.");
+    }
+
+    @Test
+    public void relativeFilterRootsAndEntryPathsAreInvalid() throws IOException {
+        PackageVerification verification = verify(contentPackage()
+                .with(FILTER_XML, FILTER.replace("/content/site", "content/site"))
+                .with("jcr_root/../../etc/passwd", "root"));
+
+        assertEquals(2, verification.getProblems().size());
+        assertTrue(verification.getProblems().get(0).contains("jcr_root/../../etc/passwd"));
+        assertTrue(verification.getProblems().get(1).contains("\"content/site\""));
+    }
+
+    @Test
+    public void filterWithDoctypeIsRejected() throws IOException {
+        PackageVerification verification = verify(contentPackage().with(FILTER_XML,
+                "<?xml version=\"1.0\"?>\n<!DOCTYPE workspaceFilter [<!ENTITY root SYSTEM \"file:///etc/hostname\">]>\n" +
+                        "<workspaceFilter version=\"1.0\"><filter root=\"&root;\"/></workspaceFilter>"));
+
+        assertFalse(verification.isValid());
+        assertTrue(verification.getProblems().get(0), verification.getProblems().get(0).startsWith("The workspace filter " + FILTER_XML + " cannot be parsed"));
+    }
+
+    @Test
+    public void filterWithOtherRootElementIsInvalid() throws IOException {
+        PackageVerification verification = verify(contentPackage().with(FILTER_XML, "<filters><filter root=\"/content\"/></filters>"));
+
+        assertProblem(verification, "The workspace filter " + FILTER_XML + " does not have a workspaceFilter root element.");
+    }
+
+    private PackageVerification verify(ZipFiles zip) throws IOException {
+        return PackageVerification.verify(zip.writeTo(folder.newFile()));
+    }
+
+    private static void assertProblem(PackageVerification verification, String problem) {
+        assertFalse(verification.isValid());
+        assertEquals(problem, verification.getProblems().get(0));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.unic.maven.plugins.aem.core.ZipFiles.contentPackage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubpackageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void subpackagesAreReadInContainerOrder() throws IOException {
+        File ui = contentPackage("ui", null).with("jcr_root/apps/acme/.content.xml", "<jcr:root/>").writeTo(folder.newFile("ui.zip"));
+        File content = contentPackage("content", null).writeTo(folder.newFile("content.zip"));
+        File container = contentPackage("all", null)
+                .with("jcr_root/etc/packages/acme/.content.xml", "<jcr:root/>")
+                .with("jcr_root/etc/packages/acme/ui-1.0.0.zip", Files.readAllBytes(ui.toPath()))
+                .with("jcr_root/etc/packages/acme/content-1.0.0.zip", Files.readAllBytes(content.toPath()))
+                .with("jcr_root/apps/acme/install/core.zip", "not a subpackage")
+                .writeTo(folder.newFile("all.zip"));
+
+        List<Subpackage> subpackages = Subpackage.read(container);
+
+        assertEquals(2, subpackages.size());
+        assertEquals("/etc/packages/acme/ui-1.0.0.zip", subpackages.get(0).getPath());
+        assertEquals(VaultPackage.digest(ui), subpackages.get(0).getDigest());
+        assertEquals(ui.length(), subpackages.get(0).getSize());
+        assertEquals("/etc/packages/acme/content-1.0.0.zip", subpackages.get(1).getPath());
+        assertEquals(VaultPackage.digest(content), subpackages.get(1).getDigest());
+        assertNotEquals(subpackages.get(0).getDigest(), subpackages.get(1).getDigest());
+    }
+
+    @Test
+    public void packageWithoutSubpackagesHasNone() throws IOException {
+        File file = contentPackage().with("jcr_root/content/site/.content.xml", "<jcr:root/>").writeTo(folder.newFile("site.zip"));
+
+        assertTrue(Subpackage.read(file).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void noZipIsRejected() throws IOException {
+        File file = folder.newFile("site.zip");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+        Subpackage.read(file);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Creates zip files, e.g. content packages, for tests.
+ */
+class ZipFiles {
+    static final String PROPERTIES =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" +
+            "<properties>\n" +
+            "<entry key=\"group\">acme</entry>\n" +
+            "<entry key=\"name\">site</entry>\n" +
+            "<entry key=\"version\">1.0.0</entry>\n" +
+            "</properties>\n";
+
+    static final String FILTER =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<workspaceFilter version=\"1.0\">\n" +
+            "    <filter root=\"/content/site\"/>\n" +
+            "</workspaceFilter>\n";
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+    /**
+     * @return a builder of a content package with {@link #PROPERTIES properties} and a {@link #FILTER filter}. Never <code>null</code>.
+     */
+    @NotNull
+    static ZipFiles contentPackage() {
+        return new ZipFiles()
+                .with("META-INF/vault/properties.xml", PROPERTIES)
+                .with("META-INF/vault/filter.xml", FILTER);
+    }
+
+    /**
+     * @param dependencies the dependency declaration of the package, e.g. <code>acme:core</code>. Can be <code>null</code>.
+     * @return a builder of a content package named <code>acme:name</code> with the given dependencies and a {@link #FILTER filter}.
+     * Never <code>null</code>.
+     */
+    @NotNull
+    static ZipFiles contentPackage(@NotNull String name, @Nullable String dependencies) {
+        return contentPackage().with("META-INF/vault/properties.xml", PROPERTIES
+                .replace(">site<", '>' + name + '<')
+                .replace("</properties>", dependencies == null ? "</properties>" : "<entry key=\"dependencies\">" + dependencies + "</entry>\n</properties>"));
+    }
+
+    @NotNull
+    static ZipFiles zip() {
+        return new ZipFiles();
+    }
+
+    @NotNull
+    ZipFiles with(@NotNull String name, @NotNull String content) {
+        return with(name, content.getBytes(UTF_8));
+    }
+
+    @NotNull
+    ZipFiles with(@NotNull String name, @NotNull byte[] content) {
+        entries.put(name, content);
+        return this;
+    }
+
+    @NotNull
+    ZipFiles without(@NotNull String name) {
+        entries.remove(name);
+        return this;
+    }
+
+    @NotNull
+    File writeTo(@NotNull File file) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}
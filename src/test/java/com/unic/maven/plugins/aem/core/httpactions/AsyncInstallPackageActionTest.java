@@ -0,0 +1,144 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.impl.SimpleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Installs a package via a stand-in for the package manager whose installation request does not respond in time.
+ */
+public class AsyncInstallPackageActionTest {
+    private static final String PACKAGE_PATH = "/etc/packages/acme/site-1.0.zip";
+    private static final long START_TIMEOUT_IN_MILLIS = 100;
+
+    private final AtomicInteger installations = new AtomicInteger();
+    private final AtomicLong lastUnpacked = new AtomicLong(1000);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private ExecutorService executor;
+    private HttpServer server;
+
+    /**
+     * How the installation request responds once the package was unpacked, or <code>null</code> if it does not respond.
+     */
+    private volatile String installationResponse;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // Polling the package state must not wait for the pending installation request.
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        stopped.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void installationIsAwaitedWhenTheRequestFailsWithAnErrorPage() {
+        installationResponse = "<html><body>503 Service Unavailable</body></html>";
+
+        install();
+
+        assertEquals(1, installations.get());
+        assertEquals(1001, lastUnpacked.get());
+    }
+
+    @Test
+    public void installationIsAwaitedWhenTheRequestDoesNotRespond() {
+        installationResponse = null;
+
+        install();
+
+        assertEquals(1, installations.get());
+        assertEquals(1001, lastUnpacked.get());
+    }
+
+    private void install() {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort());
+        RetryableHttpAction.Configuration configuration = new RetryableHttpAction.Configuration(uri, "admin", 1, new SimpleLog("test"))
+                .withRetryPolicy(RetryPolicy.DEFAULT.withRetries(1, 1).withDelays(10, 2, 10));
+        new AsyncInstallPackageAction(configuration, "site-1.0.zip", PACKAGE_PATH, false, 1024, 1, START_TIMEOUT_IN_MILLIS).run();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // Unread request bodies break the kept-alive connection.
+            }
+        }
+        String path = exchange.getRequestURI().getPath();
+        boolean post = "POST".equals(exchange.getRequestMethod());
+
+        if (path.equals("/crx/packmgr/service")) {
+            respond(exchange, post ? 200 : 405, "text/plain", "");
+        } else if (path.equals("/crx/packmgr/list.jsp")) {
+            respond(exchange, 200, "application/json", "{\"results\":[{\"path\":\"" + PACKAGE_PATH + "\",\"lastUnpacked\":" + lastUnpacked.get() + "}]}");
+        } else if (post && path.equals("/crx/packmgr/service/.json" + PACKAGE_PATH)) {
+            installations.incrementAndGet();
+            // The installation outlasts the start timeout.
+            Thread.sleep(START_TIMEOUT_IN_MILLIS * 3);
+            lastUnpacked.incrementAndGet();
+            if (installationResponse == null) {
+                stopped.await();
+            } else {
+                respond(exchange, 503, "text/html", installationResponse);
+            }
+        } else {
+            respond(exchange, 404, "text/plain", "");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
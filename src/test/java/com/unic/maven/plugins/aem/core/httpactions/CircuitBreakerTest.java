@@ -0,0 +1,81 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    @Test
+    public void closedCircuitAllowsRequests() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+        assertTrue(circuitBreaker.allowsRequests(60000));
+        assertTrue(circuitBreaker.allowsRequests(60000));
+    }
+
+    @Test
+    public void openCircuitRejectsRequestsForTheOpenTime() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+        circuitBreaker.recordUnreachable();
+
+        assertFalse(circuitBreaker.allowsRequests(60000));
+    }
+
+    @Test
+    public void singleProbeIsAllowedAfterTheOpenTime() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.recordUnreachable();
+
+        assertTrue(circuitBreaker.allowsRequests(0));
+        assertFalse(circuitBreaker.allowsRequests(0));
+    }
+
+    @Test
+    public void successfulProbeClosesTheCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.recordUnreachable();
+        circuitBreaker.allowsRequests(0);
+
+        circuitBreaker.recordReachable();
+
+        assertTrue(circuitBreaker.allowsRequests(60000));
+        assertTrue(circuitBreaker.allowsRequests(60000));
+    }
+
+    @Test
+    public void failedProbeReopensTheCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.recordUnreachable();
+        circuitBreaker.allowsRequests(0);
+
+        circuitBreaker.recordUnreachable();
+
+        assertFalse(circuitBreaker.allowsRequests(60000));
+        assertTrue(circuitBreaker.allowsRequests(0));
+    }
+
+    @Test
+    public void releasedProbeAllowsAnotherProbe() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.recordUnreachable();
+        circuitBreaker.allowsRequests(0);
+
+        circuitBreaker.release();
+
+        assertTrue(circuitBreaker.allowsRequests(0));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.junit.Test;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstallationLogTest {
+    private static final String HEADER = "<html><body><pre>Installing content\n";
+    private static final String FOOTER = "</pre></body></html>";
+
+    @Test
+    public void successfulImportHasNoErrors() throws IOException {
+        InstallationLog log = parse(HEADER + entry("A", "/content/site") + entry("U", "/content/site/en") +
+                "<span class=\"info\">Package imported.</span>" + FOOTER);
+
+        assertTrue(log.isSuccessful());
+        assertTrue(log.getErrors().isEmpty());
+        assertEquals(0, log.getOmittedErrors());
+    }
+
+    @Test
+    public void errorsAreParsedIntoPathAndMessage() throws IOException {
+        InstallationLog log = parse(HEADER + entry("A", "/content/site") +
+                entry("E", "/content/site/en (javax.jcr.nodetype.ConstraintViolationException: no matching child node definition\nat line 1)") +
+                entry("E", "unstructured error") +
+                "<span class=\"error\">Package imported (with errors, check logs!)</span>" + FOOTER);
+
+        assertFalse(log.isSuccessful());
+        assertEquals(asList(
+                "/content/site/en: javax.jcr.nodetype.ConstraintViolationException: no matching child node definition --- at line 1",
+                "unstructured error"), log.getErrors());
+    }
+
+    @Test
+    public void escapedMarkersOfJsonEmbeddedLogsAreRecognized() throws IOException {
+        InstallationLog log = parse(HEADER + "<span class=\"E\"><b>E<\\/b>&nbsp;/content/site (failed)<\\/span>" +
+                "Package imported (with errors)" + FOOTER);
+
+        assertFalse(log.isSuccessful());
+        assertEquals(asList("/content/site: failed"), log.getErrors());
+    }
+
+    @Test
+    public void logWithoutImportMarkerIsNotSuccessful() throws IOException {
+        InstallationLog log = parse(HEADER + entry("A", "/content/site") + FOOTER);
+
+        assertFalse(log.isSuccessful());
+        assertTrue(log.getErrors().isEmpty());
+    }
+
+    @Test
+    public void markersSpanningReadsAreRecognized() throws IOException {
+        String html = HEADER + entry("A", "/content/site") + entry("E", "/content/site/en (failed)") + "Package imported (with errors)" + FOOTER;
+
+        for (int readSize = 1; readSize < 20; ++readSize) {
+            InstallationLog log = InstallationLog.parse(new ChunkedReader(html, readSize), "site.zip", new NoOpLog());
+
+            assertFalse("Read size " + readSize, log.isSuccessful());
+            assertEquals("Read size " + readSize, asList("/content/site/en: failed"), log.getErrors());
+            assertEquals(html.length(), log.getCharacters());
+        }
+    }
+
+    @Test
+    public void retainedErrorsAndTailAreBounded() throws IOException {
+        StringBuilder html = new StringBuilder(HEADER);
+        for (int i = 0; i < 150; ++i) {
+            html.append(entry("E", "/content/site/page" + i + " (" + repeat('x', 10 * 1024) + ")"));
+        }
+        html.append("Package imported (with errors)").append(FOOTER);
+
+        InstallationLog log = parse(html.toString());
+
+        assertEquals(100, log.getErrors().size());
+        assertEquals(50, log.getOmittedErrors());
+        assertTrue(log.getErrors().get(0).startsWith("/content/site/page0 (xxx"));
+        assertEquals(4 * 1024, log.getErrors().get(0).length());
+        assertEquals(8 * 1024, log.getTail().length());
+        assertTrue(log.getTail().endsWith("Package imported (with errors)" + FOOTER));
+        assertEquals(html.length(), log.getCharacters());
+    }
+
+    @Test
+    public void unterminatedErrorIsCompletedAtTheEndOfTheLog() throws IOException {
+        InstallationLog log = parse(HEADER + "<span class=\"E\"><b>E</b>&nbsp;/content/site (truncated");
+
+        assertEquals(asList("/content/site (truncated"), log.getErrors());
+    }
+
+    private static InstallationLog parse(String html) throws IOException {
+        return InstallationLog.parse(new StringReader(html), "site.zip", new NoOpLog());
+    }
+
+    private static String entry(String action, String message) {
+        return "<span class=\"" + action + "\"><b>" + action + "</b>&nbsp;" + message + "</span><br>\n";
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder builder = new StringBuilder(times);
+        for (int i = 0; i < times; ++i) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns at most a given number of characters per read, like a network stream delivering the log in small parts.
+     */
+    private static class ChunkedReader extends FilterReader {
+        private final int readSize;
+
+        ChunkedReader(String content, int readSize) {
+            super(new StringReader(content));
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, readSize));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.impl.SimpleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Uploads a package to a stand-in for the Sling POST servlet supporting chunked uploads.
+ */
+public class ResumableUploadPackageActionTest {
+    private static final String STAGING_PATH = "/var/aem-maven-plugin/uploads";
+    private static final String PACKAGE_PATH = "/etc/packages/acme/site-1.0.zip";
+    private static final String DIGEST = "fedcba98765432100123";
+    private static final String STAGING_NAME = "fedcba9876543210-site-1.0.zip";
+    private static final String STALE_STAGING_NAME = "0123456789abcdef-site-1.0.zip";
+    private static final Pattern FIELD_NAME = Pattern.compile("name=\"([^\"]*)\"");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=([^;\\s]+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> staged = new HashMap<>();
+    private final Map<String, Long> fileLengths = new HashMap<>();
+    private final Map<String, byte[]> packages = new HashMap<>();
+    private final List<Long> receivedOffsets = new ArrayList<>();
+    private final List<String> deleted = new ArrayList<>();
+    private long failingOffset = -1;
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        staged.put(STALE_STAGING_NAME, "stale".getBytes(UTF_8));
+        fileLengths.put(STALE_STAGING_NAME, 10L);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void failedChunkIsResumedAndTheUploadIsMovedToThePackagePath() throws IOException {
+        byte[] content = "0123456789".getBytes(UTF_8);
+        File file = folder.newFile("site-1.0.zip");
+        Files.write(file.toPath(), content);
+        failingOffset = 4;
+
+        String result = new ResumableUploadPackageAction(configuration(), file, PACKAGE_PATH, DIGEST, 4).run();
+
+        assertEquals(PACKAGE_PATH, result);
+        assertEquals(Arrays.asList(0L, 4L, 4L, 8L), receivedOffsets);
+        assertArrayEquals(content, packages.get(PACKAGE_PATH));
+        assertFalse(staged.containsKey(STAGING_NAME));
+        assertEquals(singletonList(STALE_STAGING_NAME), deleted);
+    }
+
+    @Test
+    public void partiallyStagedUploadIsResumed() throws IOException {
+        byte[] content = "0123456789".getBytes(UTF_8);
+        File file = folder.newFile("site-1.0.zip");
+        Files.write(file.toPath(), content);
+        staged.put(STAGING_NAME, Arrays.copyOf(content, 4));
+        fileLengths.put(STAGING_NAME, (long) content.length);
+
+        new ResumableUploadPackageAction(configuration(), file, PACKAGE_PATH, DIGEST, 4).run();
+
+        assertEquals(Arrays.asList(4L, 8L), receivedOffsets);
+        assertArrayEquals(content, packages.get(PACKAGE_PATH));
+    }
+
+    private RetryableHttpAction.Configuration configuration() {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort());
+        return new RetryableHttpAction.Configuration(uri, "admin", 3, new SimpleLog("test"))
+                .withRetryPolicy(RetryPolicy.DEFAULT.withRetries(3, 3).withDelays(10, 2, 10));
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        boolean post = "POST".equals(exchange.getRequestMethod());
+
+        if (path.equals("/crx/packmgr/service")) {
+            respond(exchange, post ? 200 : 405, "");
+        } else if (path.equals("/etc/packages/acme.json")) {
+            respond(exchange, 200, "{}");
+        } else if (path.equals(STAGING_PATH + ".1.json")) {
+            StringBuilder json = new StringBuilder("{\"jcr:primaryType\":\"sling:Folder\"");
+            for (String name : staged.keySet()) {
+                json.append(",\"").append(name).append("\":{\"jcr:primaryType\":\"nt:file\"}");
+            }
+            respond(exchange, 200, json.append('}').toString());
+        } else if (path.startsWith(STAGING_PATH + '/') && path.endsWith(".1.json")) {
+            String name = path.substring(STAGING_PATH.length() + 1, path.length() - ".1.json".length());
+            byte[] bytes = staged.get(name);
+            respond(exchange, bytes == null ? 404 : 200, bytes == null ? "{}" : stagedFile(bytes.length, fileLengths.get(name)));
+        } else if (post && path.equals(STAGING_PATH)) {
+            receiveChunk(exchange);
+        } else if (post && path.startsWith(STAGING_PATH + '/')) {
+            String name = path.substring(STAGING_PATH.length() + 1);
+            Map<String, byte[]> fields = readFields(exchange);
+            String operation = new String(fields.get(":operation"), UTF_8);
+            if (operation.equals("delete")) {
+                deleted.add(name);
+                staged.remove(name);
+            } else if (operation.equals("move")) {
+                packages.put(new String(fields.get(":dest"), UTF_8), staged.remove(name));
+            }
+            respond(exchange, 200, "");
+        } else {
+            respond(exchange, 404, "");
+        }
+    }
+
+    /**
+     * @return the JSON rendering of a staged nt:file node. Like the Sling POST servlet, the received length of an incomplete upload is
+     * kept on the jcr:content node with the sling:chunks mixin, whose chunk child nodes are not rendered at this depth, and the jcr:data
+     * property is empty until the last chunk was received.
+     */
+    private static String stagedFile(long receivedLength, long fileLength) {
+        String content = receivedLength < fileLength ?
+                "\"jcr:mixinTypes\":[\"sling:chunks\"],\"sling:fileLength\":" + fileLength + ",\"sling:length\":" + receivedLength + ",\":jcr:data\":0" :
+                "\":jcr:data\":" + receivedLength;
+        return "{\"jcr:primaryType\":\"nt:file\",\"jcr:createdBy\":\"admin\"," +
+                "\"jcr:content\":{\"jcr:primaryType\":\"nt:resource\",\"jcr:mimeType\":\"application/octet-stream\"," + content + "}}";
+    }
+
+    private void receiveChunk(HttpExchange exchange) throws IOException {
+        Map<String, byte[]> fields = readFields(exchange);
+        long offset = Long.parseLong(new String(fields.get(STAGING_NAME + "@Offset"), UTF_8));
+        fileLengths.put(STAGING_NAME, Long.parseLong(new String(fields.get(STAGING_NAME + "@Length"), UTF_8)));
+        receivedOffsets.add(offset);
+        if (offset == failingOffset) {
+            failingOffset = -1;
+            respond(exchange, 500, "");
+            return;
+        }
+        byte[] existing = staged.getOrDefault(STAGING_NAME, new byte[0]);
+        byte[] chunk = fields.get(STAGING_NAME);
+        byte[] bytes = Arrays.copyOf(existing, (int) offset + chunk.length);
+        System.arraycopy(chunk, 0, bytes, (int) offset, chunk.length);
+        staged.put(STAGING_NAME, bytes);
+        respond(exchange, 200, "");
+    }
+
+    /**
+     * @return the URL encoded or multipart form fields of the request.
+     */
+    private static Map<String, byte[]> readFields(HttpExchange exchange) throws IOException {
+        String body = new String(readAll(exchange.getRequestBody()), ISO_8859_1);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        if (contentType == null || !contentType.startsWith("multipart/form-data")) {
+            for (String field : body.split("&")) {
+                String[] nameAndValue = field.split("=", 2);
+                fields.put(URLDecoder.decode(nameAndValue[0], "UTF-8"),
+                        URLDecoder.decode(nameAndValue.length > 1 ? nameAndValue[1] : "", "UTF-8").getBytes(UTF_8));
+            }
+            return fields;
+        }
+        Matcher boundaryParameter = BOUNDARY.matcher(contentType);
+        if (!boundaryParameter.find()) {
+            throw new IOException("The multipart request has no boundary: " + contentType);
+        }
+        String boundary = "--" + boundaryParameter.group(1);
+        for (String part : body.split(Pattern.quote(boundary))) {
+            int headerEnd = part.indexOf("\r\n\r\n");
+            Matcher name = FIELD_NAME.matcher(part);
+            if (headerEnd < 0 || !name.find() || name.start() > headerEnd) {
+                continue;
+            }
+            String value = part.substring(headerEnd + 4, part.length() - 2);
+            fields.put(name.group(1), value.getBytes(ISO_8859_1));
+        }
+        return fields;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
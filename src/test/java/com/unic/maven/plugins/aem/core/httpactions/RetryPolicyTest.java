@@ -0,0 +1,118 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import com.unic.maven.plugins.aem.core.httpactions.RetryPolicy.Failure;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import static com.unic.maven.plugins.aem.core.httpactions.RetryPolicy.DEFAULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    @Test
+    public void delaysGrowExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = DEFAULT.withJitter(0).withDelays(100, 2, 500);
+
+        assertEquals(100, policy.getDelayInMillis(1));
+        assertEquals(200, policy.getDelayInMillis(2));
+        assertEquals(400, policy.getDelayInMillis(3));
+        assertEquals(500, policy.getDelayInMillis(4));
+        assertEquals(500, policy.getDelayInMillis(100));
+    }
+
+    @Test
+    public void fixedDelayWithBackoffFactorOne() {
+        RetryPolicy policy = DEFAULT.withJitter(0).withDelays(250, 1, 250);
+
+        assertEquals(250, policy.getDelayInMillis(1));
+        assertEquals(250, policy.getDelayInMillis(5));
+    }
+
+    @Test
+    public void jitterVariesDelaysWithinBounds() {
+        RetryPolicy policy = DEFAULT.withJitter(0.5).withDelays(1000, 2, 10000);
+
+        for (int i = 0; i < 1000; ++i) {
+            long delay = policy.getDelayInMillis(2);
+            assertTrue(String.valueOf(delay), delay >= 1000 && delay <= 3000);
+        }
+    }
+
+    @Test
+    public void zeroDelayIsNotVaried() {
+        assertEquals(0, DEFAULT.withDelays(0, 2, 0).getDelayInMillis(3));
+    }
+
+    @Test
+    public void retriesArePerFailureKind() {
+        RetryPolicy policy = DEFAULT.withRetries(2, 5);
+
+        assertEquals(2, policy.getMaxRetries(Failure.TRANSIENT));
+        assertEquals(5, policy.getMaxRetries(Failure.CONNECTION));
+        assertEquals(0, policy.getMaxRetries(Failure.SEMANTIC));
+    }
+
+    @Test
+    public void copiesRetainOtherSettings() {
+        RetryPolicy policy = DEFAULT.withBudget(1000).withAvailabilityTimeout(2000).withCircuitOpenTime(3000).withDelays(10, 3, 90);
+
+        assertEquals(1000, policy.getBudgetInMillis());
+        assertEquals(2000, policy.getAvailabilityTimeoutInMillis());
+        assertEquals(3000, policy.getCircuitOpenTimeInMillis());
+        assertEquals(10, policy.getBaseDelayInMillis());
+        assertEquals(3, policy.getBackoffFactor(), 0);
+        assertEquals(90, policy.getMaxDelayInMillis());
+        assertEquals(DEFAULT.getMaxRetries(Failure.TRANSIENT), policy.getMaxRetries(Failure.TRANSIENT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoffFactorBelowOneIsRejected() {
+        DEFAULT.withDelays(100, 0.5, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumDelayBelowBaseDelayIsRejected() {
+        DEFAULT.withDelays(1000, 2, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jitterAboveOneIsRejected() {
+        DEFAULT.withJitter(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRetriesAreRejected() {
+        DEFAULT.withRetries(-1, 3);
+    }
+
+    @Test
+    public void unreachableInstancesAreConnectionFailures() {
+        assertEquals(Failure.CONNECTION, RetryPolicy.classify(new ConnectException("Connection refused")));
+        assertEquals(Failure.CONNECTION, RetryPolicy.classify(new UnknownHostException("author.example.com")));
+        assertEquals(Failure.CONNECTION, RetryPolicy.classify(new ConnectTimeoutException("connect timed out")));
+        assertEquals(Failure.CONNECTION, RetryPolicy.classify(new RuntimeException(new IOException(new ConnectException("Connection refused")))));
+    }
+
+    @Test
+    public void failuresAfterConnectingAreTransient() {
+        assertEquals(Failure.TRANSIENT, RetryPolicy.classify(new SocketTimeoutException("Read timed out")));
+        assertEquals(Failure.TRANSIENT, RetryPolicy.classify(new RuntimeException(new IOException("Connection reset"))));
+    }
+}
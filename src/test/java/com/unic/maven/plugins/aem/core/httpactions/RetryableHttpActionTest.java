@@ -0,0 +1,177 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.core.httpactions;
+
+import org.apache.commons.logging.impl.SimpleLog;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import unirest.HttpResponse;
+import unirest.UnirestException;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryableHttpActionTest {
+    private static final RetryPolicy FAIL_FAST = RetryPolicy.DEFAULT
+            .withRetries(0, 0)
+            .withDelays(0, 1, 0)
+            .withCircuitOpenTime(MINUTES.toMillis(1));
+
+    @Test
+    public void unreachableInstanceRejectsSubsequentActions() {
+        RetryableHttpAction.Configuration configuration = configuration(URI.create("http://localhost:14502"));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertFails(unreachable(configuration, attempts));
+        String cause = assertFails(unreachable(configuration, attempts));
+
+        assertEquals(1, attempts.get());
+        assertTrue(cause, cause.contains("was unreachable recently"));
+    }
+
+    @Test
+    public void openCircuitDoesNotAffectSubsequentDeployments() {
+        URI uri = URI.create("http://localhost:14504");
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertFails(unreachable(configuration(uri), attempts));
+        String cause = assertFails(unreachable(configuration(uri), attempts));
+
+        assertEquals(2, attempts.get());
+        assertFalse(cause, cause.contains("was unreachable recently"));
+    }
+
+    @Test
+    public void unavailablePackageManagerApiDoesNotOpenTheCircuit() {
+        RetryableHttpAction.Configuration configuration = configuration(URI.create("http://localhost:14505"))
+                .withRetryPolicy(FAIL_FAST.withAvailabilityTimeout(0));
+        AtomicInteger attempts = new AtomicInteger();
+        RetryableHttpAction<String, String> install = new RetryableHttpAction<String, String>(configuration) {
+            @Override
+            protected String startMessage() {
+                return null;
+            }
+
+            @Override
+            protected String successMessage(@NotNull HttpResponse<String> response) {
+                return null;
+            }
+
+            @NotNull
+            @Override
+            protected String failureMessage(@NotNull String cause) {
+                return "Unable to install: " + cause;
+            }
+
+            @NotNull
+            @Override
+            protected String failureMessage(@NotNull HttpResponse<String> response) {
+                return "Unable to install: " + response.getStatusText();
+            }
+
+            @NotNull
+            @Override
+            protected HttpResponse<String> perform() {
+                attempts.incrementAndGet();
+                awaitPackageManagerApi("install package.zip");
+                throw new IllegalStateException("The package manager API is not available.");
+            }
+        };
+
+        String cause = assertFails(install);
+        assertFails(install);
+
+        assertEquals(2, attempts.get());
+        assertTrue(cause, cause.contains("the package manager API was unavailable"));
+        assertTrue(configuration.getCircuitBreaker().allowsRequests(FAIL_FAST.getCircuitOpenTimeInMillis()));
+    }
+
+    @Test
+    public void jcrInstallerIsResumedOnceTheCircuitOpenedDuringADeployment() {
+        RetryableHttpAction.Configuration configuration = configuration(URI.create("http://localhost:14503"));
+        AtomicInteger attempts = new AtomicInteger(), resumptions = new AtomicInteger();
+        ResumeJcrInstallerAction resume = new ResumeJcrInstallerAction(configuration) {
+            @NotNull
+            @Override
+            protected HttpResponse<String> perform() throws UnirestException {
+                resumptions.incrementAndGet();
+                throw new UnirestException(new ConnectException("Connection refused"));
+            }
+        };
+
+        assertFails(unreachable(configuration, attempts));
+        String cause = assertFails(resume);
+
+        assertEquals(1, resumptions.get());
+        assertFalse(cause, cause.contains("was unreachable recently"));
+        // Resuming the installer neither closed nor re-opened the circuit.
+        assertFalse(configuration.getCircuitBreaker().allowsRequests(FAIL_FAST.getCircuitOpenTimeInMillis()));
+    }
+
+    private static RetryableHttpAction.Configuration configuration(URI uri) {
+        return new RetryableHttpAction.Configuration(uri, "admin", 0, new SimpleLog("test")).withRetryPolicy(FAIL_FAST);
+    }
+
+    /**
+     * @return an action that counts its attempts and fails as if the instance refused the connection.
+     */
+    private static RetryableHttpAction<String, String> unreachable(RetryableHttpAction.Configuration configuration, AtomicInteger attempts) {
+        return new RetryableHttpAction<String, String>(configuration) {
+            @Override
+            protected String startMessage() {
+                return null;
+            }
+
+            @Override
+            protected String successMessage(@NotNull HttpResponse<String> response) {
+                return null;
+            }
+
+            @NotNull
+            @Override
+            protected String failureMessage(@NotNull String cause) {
+                return "Unable to upload: " + cause;
+            }
+
+            @NotNull
+            @Override
+            protected String failureMessage(@NotNull HttpResponse<String> response) {
+                return "Unable to upload: " + response.getStatusText();
+            }
+
+            @NotNull
+            @Override
+            protected HttpResponse<String> perform() throws UnirestException {
+                attempts.incrementAndGet();
+                throw new UnirestException(new ConnectException("Connection refused"));
+            }
+        };
+    }
+
+    private static String assertFails(RetryableHttpAction<?, ?> action) {
+        try {
+            action.run();
+            fail("Expected a " + HttpActionFailureException.class.getSimpleName());
+            return null;
+        } catch (HttpActionFailureException e) {
+            return e.getMessage();
+        }
+    }
+}
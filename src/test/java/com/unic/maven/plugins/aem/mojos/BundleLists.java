@@ -0,0 +1,50 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Renders bundle lists in the format of the Felix web console (<code>/system/console/bundles.json</code>) for tests.
+ */
+class BundleLists {
+    private BundleLists() {
+    }
+
+    /**
+     * @param bundles the number of bundles, similar to the ~600 bundles of an AEM instance.
+     * @return a bundle list in which every 100th bundle is installed but not active, and every 50th bundle is a resolved fragment.
+     * The symbolic name of bundle <code>i</code> is <code>com.acme.bundle{i}</code>. Never <code>null</code>.
+     */
+    @NotNull
+    static String bundleList(int bundles) {
+        StringBuilder json = new StringBuilder("{\"status\":\"Bundle information: ").append(bundles)
+                .append(" bundles in total.\",\"s\":[").append(bundles).append(",0,0,0,0],\"data\":[");
+        for (int i = 0; i < bundles; ++i) {
+            boolean fragment = i % 50 == 25;
+            boolean installed = i % 100 == 99;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"Acme Bundle ").append(i).append(" - provides the services and components of module ").append(i)
+                    .append("\",\"fragment\":").append(fragment)
+                    .append(",\"stateRaw\":").append(installed ? 2 : fragment ? 4 : 32)
+                    .append(",\"state\":\"").append(installed ? "Installed" : fragment ? "Fragment" : "Active")
+                    .append("\",\"version\":\"").append(i % 7).append('.').append(i % 13).append(".0.SNAPSHOT")
+                    .append("\",\"symbolicName\":\"com.acme.bundle").append(i)
+                    .append("\",\"category\":\"acme,services\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
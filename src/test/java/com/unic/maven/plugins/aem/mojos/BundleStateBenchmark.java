@@ -0,0 +1,111 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.unic.maven.plugins.aem.mojos.BundleLists.bundleList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares the CPU time and the allocations per poll of the bundle list of the previous implementation, which parsed the entire
+ * response into a JSON tree and matched each bundle against each ignored bundle regex, with the streaming {@link BundleState#readPending(Reader)}
+ * and a precompiled pattern. Not a test, run it via its main method, e.g. from the IDE, with the test classpath.
+ */
+public class BundleStateBenchmark {
+    private static final int BUNDLES = 600;
+    private static final int WARMUP_POLLS = 2000;
+    private static final int MEASURED_POLLS = 2000;
+    private static final String[] IGNORED_BUNDLES = {"com\\.acme\\.legacy\\..*", "org\\.example\\.optional\\..*", ".*\\.test"};
+
+    public static void main(String[] args) throws IOException {
+        byte[] response = bundleList(BUNDLES).getBytes(UTF_8);
+        Pattern ignoredBundles = Pattern.compile("(?:" + String.join(")|(?:", IGNORED_BUNDLES) + ")");
+
+        Supplier<List<String>> treeParsing = () -> {
+            JSONArray bundles = new JSONObject(new String(response, UTF_8)).getJSONArray("data");
+            List<String> pending = new ArrayList<>();
+            for (int i = 0; i < bundles.length(); ++i) {
+                JSONObject bundle = bundles.getJSONObject(i);
+                int state = bundle.getInt("stateRaw");
+                boolean fragment = bundle.getBoolean("fragment");
+                String symbolicName = bundle.getString("symbolicName");
+                if (!isIgnored(symbolicName) && (fragment && state != 4 || !fragment && state != 32)) {
+                    pending.add(symbolicName + ", state: " + bundle.getString("state"));
+                }
+            }
+            return pending;
+        };
+        Supplier<List<String>> streaming = () -> {
+            try (Reader reader = new InputStreamReader(new ByteArrayInputStream(response), UTF_8)) {
+                List<String> pending = new ArrayList<>();
+                for (BundleState bundle : BundleState.readPending(reader)) {
+                    if (!ignoredBundles.matcher(bundle.getSymbolicName()).matches()) {
+                        pending.add(bundle.toString());
+                    }
+                }
+                return pending;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        if (!treeParsing.get().equals(streaming.get())) {
+            throw new IllegalStateException("Both implementations must yield the same pending bundles.");
+        }
+
+        System.out.println("Bundle list of " + BUNDLES + " bundles, " + response.length / 1024 + " KiB, " + MEASURED_POLLS + " polls:");
+        measure("JSON tree, String.matches", treeParsing);
+        measure("streaming, precompiled pattern", streaming);
+    }
+
+    private static boolean isIgnored(String symbolicName) {
+        for (String regex : IGNORED_BUNDLES) {
+            if (symbolicName.matches(regex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void measure(String name, Supplier<List<String>> poll) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int blackhole = 0;
+        for (int i = 0; i < WARMUP_POLLS; ++i) {
+            blackhole += poll.get().size();
+        }
+
+        long cpuTime = threads.getCurrentThreadCpuTime();
+        long allocatedBytes = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_POLLS; ++i) {
+            blackhole += poll.get().size();
+        }
+        cpuTime = threads.getCurrentThreadCpuTime() - cpuTime;
+        allocatedBytes = threads.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+        System.out.printf("%-32s %8.1f us CPU per poll, %8.1f KiB allocated per poll (%d)%n", name,
+                cpuTime / 1000.0 / MEASURED_POLLS, allocatedBytes / 1024.0 / MEASURED_POLLS, blackhole);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static com.unic.maven.plugins.aem.mojos.BundleLists.bundleList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BundleStateTest {
+    @Test
+    public void onlyInactiveBundlesArePending() {
+        List<BundleState> pending = BundleState.readPending(new StringReader(bundleList(300)));
+
+        assertEquals(3, pending.size());
+        assertEquals("com.acme.bundle99, state: Installed", pending.get(0).toString());
+        assertEquals("com.acme.bundle199", pending.get(1).getSymbolicName());
+        assertEquals("com.acme.bundle299", pending.get(2).getSymbolicName());
+    }
+
+    @Test
+    public void fragmentsArePendingUnlessResolved() {
+        List<BundleState> pending = BundleState.readPending(new StringReader("{\"data\":[" +
+                "{\"symbolicName\":\"resolved\",\"state\":\"Fragment\",\"stateRaw\":4,\"fragment\":true}," +
+                "{\"symbolicName\":\"installed\",\"state\":\"Installed\",\"stateRaw\":2,\"fragment\":true}," +
+                "{\"symbolicName\":\"resolvedBundle\",\"state\":\"Resolved\",\"stateRaw\":4,\"fragment\":false}]}"));
+
+        assertEquals(2, pending.size());
+        assertEquals("installed", pending.get(0).getSymbolicName());
+        assertEquals("resolvedBundle", pending.get(1).getSymbolicName());
+    }
+
+    @Test
+    public void emptyListHasNoPendingBundles() {
+        assertTrue(BundleState.readPending(new StringReader("{\"status\":\"\",\"data\":[]}")).isEmpty());
+    }
+
+    @Test(expected = JSONException.class)
+    public void bundleWithoutStateIsRejected() {
+        BundleState.readPending(new StringReader("{\"data\":[{\"symbolicName\":\"com.acme\"}]}"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedListIsRejected() {
+        String bundleList = bundleList(10);
+        BundleState.readPending(new StringReader(bundleList.substring(0, bundleList.length() / 2)));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentStateTest {
+    @Test
+    public void unsatisfiedReferencesAndFailedActivationsArePending() {
+        List<ComponentState> pending = readPending(
+                component(1, "com.acme.core.impl.SearchService", "active"),
+                component(2, "com.acme.core.impl.IndexService", "unsatisfied (reference)"),
+                component(3, "com.acme.core.impl.MailService", "unsatisfied (configuration)"),
+                component(4, "com.acme.core.impl.CacheService", "failed activation"),
+                component(5, "com.acme.core.impl.LegacyService", "disabled"),
+                component(6, "com.acme.core.impl.ImportService", "satisfied"),
+                component(7, "com.acme.core.impl.FeedService", "Unsatisfied"));
+
+        assertEquals(asList("com.acme.core.impl.IndexService", "com.acme.core.impl.CacheService", "com.acme.core.impl.FeedService"), names(pending));
+    }
+
+    @Test
+    public void componentsWithoutPendingComponentsAreEmpty() {
+        assertTrue(readPending(component(1, "com.acme.core.impl.SearchService", "active")).isEmpty());
+        assertTrue(readPending().isEmpty());
+    }
+
+    @Test
+    public void otherPropertiesAreIgnored() {
+        List<ComponentState> pending = ComponentState.readPending(new StringReader("{\"status\": [1, 0, 0], \"data\": [" +
+                "{\"id\": 1, \"name\": \"com.acme.core.impl.IndexService\", \"state\": \"unsatisfied (reference)\", \"stateRaw\": 2, " +
+                "\"pid\": \"com.acme.core.impl.IndexService\", \"props\": [{\"key\": \"References\", \"value\": [\"index: unsatisfied\"]}]}]}"));
+
+        assertEquals(asList("com.acme.core.impl.IndexService"), names(pending));
+    }
+
+    @Test(expected = JSONException.class)
+    public void componentWithoutStateIsRejected() {
+        ComponentState.readPending(new StringReader("{\"data\": [{\"id\": 1, \"name\": \"com.acme.core.impl.IndexService\"}]}"));
+    }
+
+    private static List<ComponentState> readPending(String... components) {
+        return ComponentState.readPending(new StringReader("{\"status\": [" + components.length + ", 0, 0], \"data\": [" +
+                String.join(",", components) + "]}"));
+    }
+
+    private static String component(int id, String name, String state) {
+        return "{\"id\": " + id + ", \"name\": \"" + name + "\", \"state\": \"" + state + "\", \"stateRaw\": 0, \"pid\": \"" + name + "\"}";
+    }
+
+    private static List<String> names(List<ComponentState> components) {
+        List<String> names = new ArrayList<>(components.size());
+        for (ComponentState component : components) {
+            names.add(component.getName());
+        }
+        return names;
+    }
+}
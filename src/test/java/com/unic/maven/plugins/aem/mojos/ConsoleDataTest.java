@@ -0,0 +1,66 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+
+public class ConsoleDataTest {
+    @Test
+    public void skippedValuesOfAnyTypeAreIgnored() {
+        List<String> names = readNames("{\"status\":{\"counts\":[1,2,{\"a\":\"]\"}]},\"data\":[" +
+                "{\"id\":1,\"props\":{\"nested\":[\"x\",{\"y\":null}]},\"name\":\"first\",\"flag\":true}," +
+                "{\"description\":\"quoted \\\"}]\\\" and \\\\ escaped\",\"name\":\"second\",\"ratio\":-1.5e3}" +
+                "],\"trailing\":[]}");
+
+        assertEquals(asList("first", "second"), names);
+    }
+
+    @Test
+    public void escapedValuesOfReadPropertiesAreDecoded() {
+        assertEquals(asList("a\"b", "c\u00e9"), readNames("{\"data\":[{\"name\":\"a\\\"b\"},{\"name\":\"c\\u00e9\"}]}"));
+    }
+
+    @Test
+    public void listsLargerThanTheBufferAreRead() {
+        StringBuilder json = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < 5000; ++i) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"entry").append(i).append("\",\"padding\":\"0123456789\"}");
+        }
+        List<String> names = readNames(json.append("]}").toString());
+
+        assertEquals(5000, names.size());
+        assertEquals("entry4999", names.get(4999));
+    }
+
+    @Test(expected = JSONException.class)
+    public void unterminatedStringIsRejected() {
+        readNames("{\"data\":[{\"skipped\":\"unterminated}]}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void missingDataArrayIsRejected() {
+        readNames("{\"data\":{}}");
+    }
+
+    private static List<String> readNames(String json) {
+        return ConsoleData.read(new StringReader(json), singleton("name"), values -> ConsoleData.getString(values, "name"), name -> true);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.mojos;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+
+public class ServiceEventLogTest {
+    private final ServiceEventLog log = new ServiceEventLog(event -> event.optString("topic").startsWith("org/osgi/framework/ServiceEvent"));
+
+    @Test
+    public void relevantEventsAreRetainedOldestFirst() {
+        assertEquals(3, update(serviceEvent(3, 300), bundleEvent(2, 200), serviceEvent(1, 100)));
+
+        assertEquals(asList("service 1", "service 3"), log.getEventInfoSince(0));
+        assertEquals(asList("service 3"), log.getEventInfoSince(300));
+    }
+
+    @Test
+    public void onlyNewEventsAreProcessed() {
+        update(serviceEvent(2, 200), serviceEvent(1, 100));
+
+        assertEquals(1, update(serviceEvent(3, 300), serviceEvent(2, 200), serviceEvent(1, 100)));
+        assertEquals(0, update(serviceEvent(3, 300), serviceEvent(2, 200), serviceEvent(1, 100)));
+        assertEquals(asList("service 1", "service 2", "service 3"), log.getEventInfoSince(0));
+    }
+
+    @Test
+    public void logListingTheOldestEventsFirstIsSupported() {
+        assertEquals(2, update(serviceEvent(1, 100), serviceEvent(2, 200)));
+        assertEquals(1, update(serviceEvent(1, 100), serviceEvent(2, 200), serviceEvent(3, 300)));
+
+        assertEquals(asList("service 1", "service 2", "service 3"), log.getEventInfoSince(0));
+    }
+
+    @Test
+    public void resetLogIsProcessedAgain() {
+        update(serviceEvent(6, 600), serviceEvent(5, 500));
+
+        assertEquals(2, update(serviceEvent(2, 900), serviceEvent(1, 800)));
+        assertEquals(asList("service 1", "service 2"), log.getEventInfoSince(0));
+    }
+
+    @Test
+    public void resetLogListingTheOldestEventsFirstIsProcessedWithTheNextPoll() {
+        update(serviceEvent(5, 500), serviceEvent(6, 600));
+
+        assertEquals(0, update(serviceEvent(1, 800), serviceEvent(2, 900)));
+        assertEquals(emptyList(), log.getEventInfoSince(0));
+        assertEquals(2, update(serviceEvent(1, 800), serviceEvent(2, 900)));
+        assertEquals(asList("service 1", "service 2"), log.getEventInfoSince(0));
+    }
+
+    @Test
+    public void membersOtherThanTheDataAreIgnored() {
+        assertEquals(1, log.update(new StringReader("{\"status\": \"Event listener active, 1 events\", \"stats\": {\"data\": []}, " +
+                "\"data\": [" + serviceEvent(1, 100) + "], \"trailing\": [1, 2]}")));
+
+        assertEquals(asList("service 1"), log.getEventInfoSince(0));
+    }
+
+    @Test
+    public void emptyLogHasNoEvents() {
+        assertEquals(0, log.update(new StringReader("{\"status\": \"Event listener active, 0 events\"}")));
+        assertEquals(0, update());
+        assertEquals(emptyList(), log.getEventInfoSince(0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void logMustBeAnObject() {
+        log.update(new StringReader("[]"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void dataMustBeAnArray() {
+        log.update(new StringReader("{\"data\": {}}"));
+    }
+
+    private int update(String... events) {
+        return log.update(new StringReader("{\"status\": \"Event listener active\", \"data\": [" + String.join(",", events) + "]}"));
+    }
+
+    private static String serviceEvent(long id, long received) {
+        return event(id, received, "org/osgi/framework/ServiceEvent/REGISTERED", "service " + id);
+    }
+
+    private static String bundleEvent(long id, long received) {
+        return event(id, received, "org/osgi/framework/BundleEvent/STARTED", "bundle " + id);
+    }
+
+    private static String event(long id, long received, String topic, String info) {
+        return "{\"id\": \"" + id + "\", \"topic\": \"" + topic + "\", \"received\": " + received + ", \"category\": \"SERVICE\", " +
+                "\"info\": \"" + info + "\"}";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import unirest.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Authenticates requests against a stand-in for AEM that issues a login token to the admin user.
+ */
+public class AemHttpClientTest {
+    private static final String LOGIN_PATH = "/libs/granite/core/content/login.html/j_security_check";
+
+    /**
+     * The <code>Cookie</code> header of each request other than the login, in the order of the requests.
+     */
+    private final List<String> cookies = new ArrayList<>();
+    private volatile boolean tokenExpired = false;
+    private HttpServer server;
+    private AemHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        client = AemHttpClient.forInstance(URI.create("http://localhost:" + server.getAddress().getPort()));
+    }
+
+    @After
+    public void tearDown() {
+        AemHttpClient.shutDownAll();
+        server.stop(0);
+    }
+
+    @Test
+    public void postRequestsDoNotSendTheLoginToken() {
+        AemHttpClient admin = client.withCredentials("admin", "admin");
+
+        admin.get("/system/console/bundles.json").asString();
+        admin.post("/crx/packmgr/service/.json/?cmd=upload").asString();
+
+        assertEquals("login-token=admin-token", cookies.get(0));
+        assertNull(cookies.get(1));
+    }
+
+    @Test
+    public void otherUsersDoNotSendTheLoginToken() {
+        client.withCredentials("admin", "admin").get("/system/console/bundles.json").asString();
+        client.withCredentials("author", "author").get("/system/console/bundles.json").asString();
+
+        assertNull(cookies.get(1));
+    }
+
+    @Test
+    public void invalidatedLoginTokenIsNotSent() {
+        AemHttpClient admin = client.withCredentials("admin", "admin");
+        admin.get("/system/console/bundles.json").asString();
+
+        tokenExpired = true;
+        HttpResponse<String> rejected = admin.get("/system/console/bundles.json").asString();
+        admin.checkAuthentication(rejected);
+        admin.get("/system/console/bundles.json").asString();
+
+        assertEquals(401, rejected.getStatus());
+        assertEquals("login-token=admin-token", cookies.get(1));
+        assertNull(cookies.get(2));
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        // Unread request bodies break the kept-alive connection.
+        String body = readAll(exchange.getRequestBody());
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        if (exchange.getRequestURI().getPath().equals(LOGIN_PATH)) {
+            // Only the admin user logs in, and only until the token expired, e.g. since the instance is restarting.
+            boolean admin = !tokenExpired && asList(body.split("&")).contains("j_username=admin");
+            if (admin) {
+                exchange.getResponseHeaders().add("Set-Cookie", "login-token=admin-token; Path=/; HttpOnly");
+            }
+            exchange.sendResponseHeaders(admin ? 200 : 403, -1);
+            return;
+        }
+        cookies.add(cookie);
+        boolean authenticated = exchange.getRequestHeaders().containsKey("Authorization") || cookie != null && !tokenExpired;
+        exchange.sendResponseHeaders(authenticated ? 200 : 401, -1);
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
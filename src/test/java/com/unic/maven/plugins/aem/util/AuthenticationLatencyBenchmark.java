@@ -0,0 +1,140 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import unirest.HttpResponse;
+import unirest.UnirestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.sort;
+
+/**
+ * Compares the median latency of GET requests authenticated via basic authentication, i.e. with a repository login per request, with
+ * requests authenticated by the login token. The requests alternate, such that changes of the load of the instance affect both equally.
+ * Not a test, run it via its main method, e.g. from the IDE, with the test classpath. Pass the base URL, user, password and an inexpensive
+ * path of an AEM instance, e.g. <code>http://localhost:4502 admin admin /system/sling/info.sessionInfo.json</code>. Without arguments,
+ * it runs against an in-process stand-in answering immediately, i.e. it only measures the overhead of the client.
+ */
+public class AuthenticationLatencyBenchmark {
+    private static final int WARMUP_SAMPLES = 200;
+    private static final int MEASURED_SAMPLES = 1000;
+    private static final String STAND_IN_PATH = "/system/sling/info.sessionInfo.json";
+
+    public static void main(String[] args) throws Exception {
+        HttpServer standIn = null;
+        String baseUrl, user, password, path;
+        if (args.length == 4) {
+            baseUrl = args[0];
+            user = args[1];
+            password = args[2];
+            path = args[3];
+        } else {
+            standIn = standIn();
+            baseUrl = "http://localhost:" + standIn.getAddress().getPort();
+            user = "admin";
+            password = "admin";
+            path = STAND_IN_PATH;
+        }
+
+        try (AemHttpClient.Session ignored = AemHttpClient.openSession()) {
+            AemHttpClient client = AemHttpClient.forInstance(URI.create(baseUrl)).withCredentials(user, password);
+            measure(client, path, WARMUP_SAMPLES);
+            long[] medians = measure(client, path, MEASURED_SAMPLES);
+            System.out.println(baseUrl + path + ", " + MEASURED_SAMPLES + " requests per authentication method:");
+            System.out.printf("%-24s %8.2f ms median latency%n", "basic authentication", medians[0] / 1e6);
+            System.out.printf("%-24s %8.2f ms median latency%n", "login token", medians[1] / 1e6);
+        } finally {
+            if (standIn != null) {
+                standIn.stop(0);
+            }
+        }
+    }
+
+    /**
+     * @return the median latencies with basic authentication and with the login token, in nanoseconds.
+     */
+    private static long[] measure(AemHttpClient client, String path, int samples) throws UnirestException {
+        long[] basicAuthNanos = new long[samples], loginTokenNanos = new long[samples];
+        for (int i = 0; i < samples; ++i) {
+            basicAuthNanos[i] = latency(client, path, false);
+            loginTokenNanos[i] = latency(client, path, true);
+        }
+        sort(basicAuthNanos);
+        sort(loginTokenNanos);
+        return new long[]{basicAuthNanos[samples / 2], loginTokenNanos[samples / 2]};
+    }
+
+    private static long latency(AemHttpClient client, String path, boolean useLoginToken) throws UnirestException {
+        long start = nanoTime();
+        HttpResponse<String> response = client.get(path, useLoginToken).asString();
+        long latency = nanoTime() - start;
+        client.checkAuthentication(response);
+        if (response.getStatus() != 200) {
+            throw new IllegalStateException(path + " responded with " + response.getStatus() + " " + response.getStatusText() + ".");
+        }
+        return latency;
+    }
+
+    private static HttpServer standIn() throws IOException {
+        // Otherwise, the delayed acknowledgement of small responses dominates the latency.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // Unread request bodies break the kept-alive connection.
+            }
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/j_security_check")) {
+            exchange.getResponseHeaders().add("Set-Cookie", "login-token=benchmark; Path=/; HttpOnly");
+            respond(exchange, 200, "");
+        } else if (path.equals(STAND_IN_PATH)) {
+            String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+            boolean authenticated = exchange.getRequestHeaders().containsKey("Authorization") || cookie != null && cookie.contains("login-token=");
+            respond(exchange, authenticated ? 200 : 401, authenticated ? "{\"userID\":\"admin\"}" : "");
+        } else {
+            respond(exchange, 404, "");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
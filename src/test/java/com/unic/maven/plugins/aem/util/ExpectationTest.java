@@ -0,0 +1,99 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.unic.maven.plugins.aem.util.Expectation.Outcome.FULFILLED;
+import static com.unic.maven.plugins.aem.util.Expectation.Outcome.RETRY;
+import static com.unic.maven.plugins.aem.util.Expectation.Outcome.UNSATISFIABLE;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpectationTest {
+    private static final PollingProfile QUICK = new PollingProfile(1, 2, 8, 0);
+
+    @Test
+    public void expectationIsRetriedUntilFulfilled() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        boolean fulfilled = new Expectation<Void>() {
+            @Override
+            protected Outcome fulfill() {
+                return attempts.incrementAndGet() == 5 ? FULFILLED : RETRY;
+            }
+        }.polling(QUICK).within(10, SECONDS);
+
+        assertTrue(fulfilled);
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    public void unsatisfiableExpectationIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        boolean fulfilled = new Expectation<Void>() {
+            @Override
+            protected Outcome fulfill() {
+                attempts.incrementAndGet();
+                return UNSATISFIABLE;
+            }
+        }.polling(QUICK).onFailure((amount, unit, context) -> failures.incrementAndGet()).within(10, SECONDS);
+
+        assertFalse(fulfilled);
+        assertEquals(1, attempts.get());
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void expectationFailsOnceTheTimeElapsed() {
+        AtomicInteger attempts = new AtomicInteger();
+        long start = nanoTime();
+
+        boolean fulfilled = new Expectation<Void>() {
+            @Override
+            protected Outcome fulfill() {
+                attempts.incrementAndGet();
+                return RETRY;
+            }
+        }.polling(QUICK).within(100, MILLISECONDS);
+
+        long elapsedInMillis = NANOSECONDS.toMillis(nanoTime() - start);
+        assertFalse(fulfilled);
+        assertTrue(String.valueOf(elapsedInMillis), elapsedInMillis >= 100);
+        assertTrue(String.valueOf(attempts.get()), attempts.get() > 10);
+    }
+
+    @Test
+    public void expectationIsAttemptedAtLeastOnce() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        new Expectation<Void>() {
+            @Override
+            protected Outcome fulfill() {
+                attempts.incrementAndGet();
+                return RETRY;
+            }
+        }.within(0, SECONDS);
+
+        assertEquals(1, attempts.get());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+  Copyright 2018 the original author or authors.
+  Licensed under the Apache License, Version 2.0 the "License";
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+package com.unic.maven.plugins.aem.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingProfileTest {
+    @Test
+    public void fixedProfileAlwaysWaitsTwoSeconds() {
+        assertEquals(2000, PollingProfile.FIXED.getIntervalInMillis(1));
+        assertEquals(2000, PollingProfile.FIXED.getIntervalInMillis(50));
+    }
+
+    @Test
+    public void intervalsGrowUpToTheMaximum() {
+        PollingProfile profile = new PollingProfile(250, 2, 1500, 0);
+
+        assertEquals(250, profile.getIntervalInMillis(1));
+        assertEquals(500, profile.getIntervalInMillis(2));
+        assertEquals(1000, profile.getIntervalInMillis(3));
+        assertEquals(1500, profile.getIntervalInMillis(4));
+        assertEquals(1500, profile.getIntervalInMillis(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void jitterVariesIntervalsWithinBounds() {
+        for (int i = 0; i < 1000; ++i) {
+            long interval = PollingProfile.RESPONSIVE.getIntervalInMillis(1);
+            assertTrue(String.valueOf(interval), interval >= 225 && interval <= 275);
+        }
+    }
+
+    @Test
+    public void jitteredIntervalsArePositive() {
+        PollingProfile profile = new PollingProfile(1, 1, 1, 1);
+
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(profile.getIntervalInMillis(1) >= 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroIntervalIsRejected() {
+        new PollingProfile(0, 1, 1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoffFactorBelowOneIsRejected() {
+        new PollingProfile(100, 0.9, 1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumBelowInitialIntervalIsRejected() {
+        new PollingProfile(1000, 2, 100, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeJitterIsRejected() {
+        new PollingProfile(100, 2, 1000, -0.1);
+    }
+}